@@ -1,14 +1,39 @@
 package org.example;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
 import com.google.common.cache.*;
+import com.google.common.hash.Funnels;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.example.cache.AsyncRemovalListener;
+import org.example.cache.BatchingCacheLoader;
+import org.example.cache.BloomGuardedLoadingCache;
+import org.example.cache.BoundedCacheBuilder;
+import org.example.cache.CacheInstrumentation;
+import org.example.cache.ExpiringCache;
+import org.example.cache.LatencyStatsRecorder;
+import org.example.cache.OffHeapStore;
+import org.example.cache.RefreshAheadLoadingCache;
+import org.example.cache.SnapshotLoadingCache;
+import org.example.cache.TieredCache;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CacheDemo {
     @Test
@@ -35,6 +60,101 @@ public class CacheDemo {
         }
     }
 
+    /**
+     * 不存在的key由BloomFilter直接挡掉，不再打到后端；BloomFilter误判放过的key结果进入短TTL的负缓存
+     */
+    @Test
+    public void testBloomGuard() throws ExecutionException {
+        final Map<String, String> backend = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            backend.put("user" + i, "name" + i);
+        }
+        final AtomicInteger backendCalls = new AtomicInteger();
+        BloomGuardedLoadingCache<String, String> cache = BloomGuardedLoadingCache
+                .newBuilder(Funnels.unencodedCharsFunnel())
+                .expectedInsertions(1000)
+                .negativeTtl(1, TimeUnit.SECONDS)
+                .build(CacheBuilder.newBuilder().maximumSize(100), new CacheLoader<String, String>() {
+                    public String load(String key) {
+                        backendCalls.incrementAndGet();
+                        return backend.get(key);
+                    }
+                }, new Supplier<Iterable<String>>() {
+                    public Iterable<String> get() {
+                        return backend.keySet();
+                    }
+                });
+        System.out.println(cache.get("user1"));
+        for (int i = 0; i < 10_000; i++) {
+            cache.find("hacker" + i % 2000);
+        }
+        System.out.println("后端调用" + backendCalls.get() + "次, " + cache.guardStats());
+    }
+
+    /**
+     * 把LoadingCache的数据连同剩余TTL写入快照，重启后按需从快照中取回，避免启动时CacheLoader被打爆
+     */
+    @Test
+    public void testSnapshot() throws IOException, ExecutionException {
+        CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+            public String load(String key) throws RuntimeException {
+                System.out.println("load " + key);
+                return key + new Random().nextInt(100);
+            }
+        };
+        Path file = Files.createTempFile("cache", ".snapshot");
+        SnapshotLoadingCache cache = SnapshotLoadingCache.build(CacheBuilder.newBuilder(), 10, TimeUnit.MINUTES,
+                loader, null);
+        String v = cache.get("key");
+        cache.snapshot(file);
+
+        //模拟重启
+        SnapshotLoadingCache restarted = SnapshotLoadingCache.build(CacheBuilder.newBuilder(), 10, TimeUnit.MINUTES,
+                loader, file);
+        System.out.println(v + " -> " + restarted.get("key"));
+        Files.delete(file);
+    }
+
+    /**
+     * 多个线程的未命中合并成一次loadAll，批次凑满10个key或等待5毫秒后发出
+     */
+    @Test
+    public void testBatchingLoader() throws InterruptedException {
+        CacheLoader<String, String> bulkLoader = new CacheLoader<String, String>() {
+            public String load(String key) {
+                return key;
+            }
+
+            @Override
+            public Map<String, String> loadAll(Iterable<? extends String> keys) {
+                System.out.println("loadAll " + keys);
+                Map<String, String> result = new HashMap<>();
+                for (String key : keys) {
+                    result.put(key, "value of " + key);
+                }
+                return result;
+            }
+        };
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        BatchingCacheLoader<String, String> loader = new BatchingCacheLoader<>(bulkLoader, 10, 5,
+                TimeUnit.MILLISECONDS, scheduler);
+        LoadingCache<String, String> cache = CacheBuilder.newBuilder().build(loader);
+
+        ExecutorService threadPool = Executors.newFixedThreadPool(16);
+        for (int i = 0; i < 32; i++) {
+            final String key = "key" + i % 20;
+            threadPool.execute(new Runnable() {
+                public void run() {
+                    cache.getUnchecked(key);
+                }
+            });
+        }
+        threadPool.shutdown();
+        threadPool.awaitTermination(1, TimeUnit.SECONDS);
+        scheduler.shutdown();
+        System.out.println(loader.stats());
+    }
+
     @Test
     public void testMaxNum() {
         Cache<String, String> cache = CacheBuilder.newBuilder()
@@ -49,6 +169,48 @@ public class CacheDemo {
 
     }
 
+    /**
+     * W-TinyLFU：只访问过一次的key要和淘汰者比较访问频率才能进入缓存，一次性扫描挤不掉热点数据
+     */
+    @Test
+    public void testTinyLfu() {
+        Cache<String, String> cache = BoundedCacheBuilder.newBuilder()
+                .maximumSize(100)
+                .evictionPolicy(BoundedCacheBuilder.EvictionPolicy.W_TINY_LFU)
+                .build();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 50; i++) {
+                if (cache.getIfPresent("hot" + i) == null) {
+                    cache.put("hot" + i, "value" + i);
+                }
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            cache.put("scan" + i, "value" + i);
+        }
+        int hotLeft = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.getIfPresent("hot" + i) != null) {
+                hotLeft++;
+            }
+        }
+        System.out.println("扫描1000个key后仍在缓存中的热点key个数：" + hotLeft);
+    }
+
+    /**
+     * 堆内只保留2条，被maximumSize淘汰的数据落到堆外slab，getIfPresent未命中时自动从堆外取回
+     */
+    @Test
+    public void testOffHeapTier() {
+        TieredCache cache = TieredCache.build(CacheBuilder.newBuilder().maximumSize(2),
+                new OffHeapStore(1 << 20, 64 << 10));
+        cache.put("key1", "value1");
+        cache.put("key2", "value2");
+        cache.put("key3", "value3");
+        System.out.println("第一个值：" + cache.getIfPresent("key1"));
+        System.out.println("堆外统计：" + cache.offHeapStats());
+    }
+
     @Test
     public void testExpire() throws InterruptedException {
         Cache<String, String> cache = CacheBuilder.newBuilder()
@@ -80,6 +242,53 @@ public class CacheDemo {
         }
     }
 
+    /**
+     * 每条数据有自己的过期时间，即使没有任何读写，过期数据也会被后台线程清理掉
+     */
+    @Test
+    public void testTimerWheelExpire() throws InterruptedException {
+        RemovalListener<String, String> listener = new RemovalListener<String, String>() {
+            public void onRemoval(RemovalNotification<String, String> notification) {
+                System.out.println(Thread.currentThread().getName() + " [" + notification.getKey() + "] "
+                        + notification.getCause());
+            }
+        };
+        ExpiringCache<String, String> cache = new ExpiringCache<>(3, TimeUnit.SECONDS, 100, TimeUnit.MILLISECONDS,
+                listener, Ticker.systemTicker());
+        cache.put("key1", "value1", 1, TimeUnit.SECONDS);
+        cache.put("key2", "value2", 2, TimeUnit.SECONDS);
+        cache.put("key3", "value3");
+        Thread.sleep(4500);
+        System.out.println("缓存中剩余数据条数：" + cache.size());
+        cache.close();
+    }
+
+    /**
+     * 写入1秒后读取会在线程池上异步刷新，读请求不等待加载；超过3秒仍未刷新成功才会过期
+     */
+    @Test
+    public void testRefreshAhead() throws InterruptedException, ExecutionException {
+        ListeningExecutorService executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+        LoadingCache<String, String> cache = RefreshAheadLoadingCache.newBuilder()
+                .refreshAfter(1, TimeUnit.SECONDS)
+                .expireAfter(3, TimeUnit.SECONDS)
+                .executor(executorService)
+                .build(CacheBuilder.newBuilder().maximumSize(2), new CacheLoader<String, String>() {
+                    public String load(String key) throws InterruptedException {
+                        Thread.sleep(500); //模拟加载时间
+                        return key + System.currentTimeMillis() / 1000 % 100;
+                    }
+                });
+        for (int time = 1; time <= 4; time++) {
+            long start = System.nanoTime();
+            String value = cache.get("key1");
+            System.out.println("第" + time + "次取到key1的值为：" + value + "，耗时"
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+            Thread.sleep(1000);
+        }
+        executorService.shutdown();
+    }
+
     /**
      * 可以通过weakKeys和weakValues方法指定Cache只保存对缓存记录key和value的弱引用。
      * 这样当没有其他强引用指向key和value时，key和value对象就会被垃圾回收器回收。
@@ -138,6 +347,103 @@ public class CacheDemo {
         cache.put("key8", "value3");
     }
 
+    /**
+     * 删除通知进入有界队列，由线程池批量投递，慢的listener不再拖慢put
+     */
+    @Test
+    public void testAsyncRemovalListener() throws InterruptedException {
+        AsyncRemovalListener.BatchListener<String, String> slowListener =
+                new AsyncRemovalListener.BatchListener<String, String>() {
+                    public void onRemoval(List<RemovalNotification<String, String>> notifications) {
+                        System.out.println(Thread.currentThread().getName() + " 收到" + notifications.size() + "条删除通知");
+                        try {
+                            Thread.sleep(100); //模拟写日志、关闭资源
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AsyncRemovalListener<String, String> listener = new AsyncRemovalListener<>(slowListener, executor,
+                100, 16, AsyncRemovalListener.OverflowPolicy.DROP);
+        Cache<String, String> cache = CacheBuilder.newBuilder()
+                .maximumSize(3)
+                .removalListener(listener)
+                .build();
+        for (int i = 0; i < 200; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        System.out.println(listener.stats());
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        System.out.println(listener.stats());
+    }
+
+    /**
+     * 加载、命中/未命中的get、淘汰到删除通知送达的延迟分布，定期抓取增量
+     */
+    @Test
+    public void testLatencyStats() throws InterruptedException {
+        LatencyStatsRecorder recorder = new LatencyStatsRecorder();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        LoadingCache<String, String> cache = recorder.build(CacheBuilder.newBuilder()
+                        .maximumSize(100)
+                        .removalListener(recorder.<String, String>asyncRemovalListener(
+                                AsyncRemovalListener.forEach(new RemovalListener<String, String>() {
+                                    public void onRemoval(RemovalNotification<String, String> notification) {
+                                    }
+                                }), executor, 1000, 64, AsyncRemovalListener.OverflowPolicy.DROP)),
+                new CacheLoader<String, String>() {
+                    @Override
+                    public String load(String key) throws Exception {
+                        Thread.sleep(1);
+                        return key + "_value";
+                    }
+                });
+        for (int i = 0; i < 500; i++) {
+            cache.getUnchecked("key" + i % 200);
+        }
+        System.out.println(recorder.intervalSnapshot());
+        for (int i = 0; i < 500; i++) {
+            cache.getUnchecked("key" + i % 50);
+        }
+        LatencyStatsRecorder.Snapshot interval = recorder.intervalSnapshot();
+        System.out.println("hit p99=" + interval.getHitNanos().percentile(99) + "ns, "
+                + interval.cacheStats());
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        System.out.println(recorder.snapshot().evictionToNotificationNanos());
+    }
+
+    /**
+     * 找出被大量线程反复读取的热点key，以及各segment上加锁操作的耗时
+     */
+    @Test
+    public void testHotKey() throws InterruptedException {
+        //maximumSize(3)时Guava只有1个segment
+        CacheInstrumentation instrumentation = new CacheInstrumentation(CacheInstrumentation.guavaSegments(4, 3), 1, 3);
+        Cache<String, String> cache = instrumentation.instrument(CacheBuilder.newBuilder()
+                .maximumSize(3)
+                .<String, String>build());
+        ExecutorService threadPool = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            threadPool.execute(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        String key = j % 10 == 0 ? "key" + j : "hotKey";
+                        if (cache.getIfPresent(key) == null) {
+                            cache.put(key, "value");
+                        }
+                    }
+                }
+            });
+        }
+        threadPool.shutdown();
+        threadPool.awaitTermination(10, TimeUnit.SECONDS);
+        System.out.println(instrumentation.snapshot().topReads());
+        System.out.println(instrumentation.snapshot().segmentLockedNanos());
+    }
+
     @Test
     public void testGet() throws InterruptedException {
         Cache<String, String> cache = CacheBuilder.newBuilder()
@@ -1,11 +1,22 @@
 package org.example;
 
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.util.concurrent.*;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.example.concurrent.BoundedExecutor;
+import org.example.concurrent.ExecutorInstrumentation;
+import org.example.concurrent.FuturePipeline;
+import org.example.concurrent.Hedger;
+import org.example.concurrent.MoreFutures;
+import org.example.concurrent.VirtualThreadExecutors;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class ConcurrencyDemo {
@@ -132,4 +143,258 @@ public class ConcurrencyDemo {
         listeningExecutorService.shutdown();
     }
 
+    /**
+     * 与testAsyncFunction相同的流程，换成每个任务一个虚拟线程(JDK 21以下退回为每个任务一个平台线程)，
+     * 1000个阻塞1秒的任务约1秒完成，不受线程池大小限制
+     */
+    @Test
+    public void testVirtualThreads() throws ExecutionException, InterruptedException {
+        ListeningExecutorService executorService = VirtualThreadExecutors.newThreadPerTaskExecutor("worker-%d");
+        System.out.println("virtual threads: " + VirtualThreadExecutors.isSupported());
+
+        ListenableFuture<String> lis = executorService.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return Thread.currentThread().getName();
+            }
+        });
+        Futures.addCallback(lis, new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                System.out.println("ran on " + result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                System.err.println("error");
+            }
+        }, executorService);
+
+        ListenableFuture<String> lfas = Futures.transformAsync(lis, new AsyncFunction<String, String>() {
+            @Override
+            public ListenableFuture<String> apply(final String input) {
+                return executorService.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        TimeUnit.SECONDS.sleep(1);
+                        return "hello " + input;
+                    }
+                });
+            }
+        }, executorService);
+        System.out.println(lfas.get());
+
+        long start = System.currentTimeMillis();
+        List<ListenableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final int n = i;
+            futures.add(executorService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    TimeUnit.SECONDS.sleep(1);
+                    return n;
+                }
+            }));
+        }
+        System.out.println(Futures.allAsList(futures).get().size() + " tasks in "
+                + (System.currentTimeMillis() - start) + "ms");
+        executorService.shutdown();
+    }
+
+    /**
+     * 先加线程到maximumPoolSize再排队，队列满时拒绝：11个任务中2+8个被接受，第11个和之后的submitOrFail被拒绝
+     */
+    @Test
+    public void testBoundedExecutor() throws ExecutionException, InterruptedException {
+        BoundedExecutor executor = BoundedExecutor.newBuilder()
+                .corePoolSize(1)
+                .maximumPoolSize(2)
+                .queueCapacity(8)
+                .build();
+        final CountDownLatch latch = new CountDownLatch(1);
+        Callable<String> task = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                latch.await();
+                return Thread.currentThread().getName();
+            }
+        };
+
+        List<ListenableFuture<String>> accepted = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            Optional<ListenableFuture<String>> future = executor.trySubmit(task);
+            if (future.isPresent()) {
+                accepted.add(future.get());
+            }
+        }
+        System.out.println(accepted.size() + " accepted, " + executor.stats());
+
+        ListenableFuture<String> fallback = Futures.catching(executor.submitOrFail(task),
+                RejectedExecutionException.class, new Function<RejectedExecutionException, String>() {
+                    @Override
+                    public String apply(RejectedExecutionException e) {
+                        return "fallback: " + e.getMessage();
+                    }
+                }, MoreExecutors.directExecutor());
+        System.out.println(fallback.get());
+
+        latch.countDown();
+        System.out.println(Futures.allAsList(accepted).get());
+        System.out.println(executor.stats());
+        executor.shutdown();
+    }
+
+    /**
+     * 2个线程执行10个20毫秒的任务：执行时间约20毫秒，排队时间逐步增长到约80毫秒。
+     * 任务的统计在future完成之后才记录，先shutdown并等待结束再取快照；shutdownNow取回的任务计入dropped
+     */
+    @Test
+    public void testExecutorInstrumentation() throws ExecutionException, InterruptedException {
+        ExecutorInstrumentation instrumentation = new ExecutorInstrumentation(1);
+        ListeningExecutorService executorService = instrumentation.instrument("worker",
+                new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactoryBuilder().setNameFormat("worker-%d").setDaemon(true).build()));
+
+        List<ListenableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final int n = i;
+            futures.add(executorService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    TimeUnit.MILLISECONDS.sleep(20);
+                    return n;
+                }
+            }));
+        }
+        System.out.println("in flight: " + instrumentation.snapshot("worker"));
+        Futures.allAsList(futures).get();
+        executorService.shutdown();
+        executorService.awaitTermination(1, TimeUnit.SECONDS);
+
+        ExecutorInstrumentation.Snapshot snapshot = instrumentation.snapshot("worker");
+        System.out.println("completed " + snapshot.completed()
+                + ", queue wait p50=" + snapshot.queueWaitNanos().percentile(50) / 1000000 + "ms"
+                + " max=" + snapshot.queueWaitNanos().max() / 1000000 + "ms"
+                + ", run p50=" + snapshot.runNanos().percentile(50) / 1000000 + "ms");
+
+        ListeningExecutorService single = instrumentation.instrument("single",
+                Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).build()));
+        for (int i = 0; i < 5; i++) {
+            single.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Uninterruptibles.sleepUninterruptibly(20, TimeUnit.MILLISECONDS);
+                }
+            });
+        }
+        int drained = single.shutdownNow().size();
+        single.awaitTermination(1, TimeUnit.SECONDS);
+        System.out.println("drained " + drained + ": " + instrumentation.snapshot("single"));
+    }
+
+    /**
+     * 第一次调用要2秒，100毫秒后对冲的第二次调用立即返回；扇出查询200毫秒后只返回已完成的结果
+     */
+    @Test
+    public void testHedgedCall() throws ExecutionException, InterruptedException {
+        final ListeningScheduledExecutorService scheduler = MoreExecutors.listeningDecorator(
+                Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder().setDaemon(true).build()));
+        Hedger hedger = Hedger.newBuilder()
+                .initialDelay(100, TimeUnit.MILLISECONDS)
+                .build(scheduler);
+        final AtomicInteger attempts = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        ListenableFuture<String> hedged = hedger.call(new AsyncCallable<String>() {
+            @Override
+            public ListenableFuture<String> call() {
+                final int attempt = attempts.incrementAndGet();
+                return scheduler.schedule(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return "attempt " + attempt;
+                    }
+                }, attempt == 1 ? 2000 : 10, TimeUnit.MILLISECONDS);
+            }
+        });
+        System.out.println(hedged.get() + " in " + (System.currentTimeMillis() - start) + "ms, " + hedger.stats());
+
+        List<ListenableFuture<String>> lookups = new ArrayList<>();
+        for (final int millis : Arrays.asList(10, 50, 5000)) {
+            lookups.add(scheduler.schedule(new Callable<String>() {
+                @Override
+                public String call() {
+                    return "replica " + millis + "ms";
+                }
+            }, millis, TimeUnit.MILLISECONDS));
+        }
+        start = System.currentTimeMillis();
+        List<String> partial = MoreFutures.successfulAsList(lookups, 200, TimeUnit.MILLISECONDS, scheduler).get();
+        System.out.println(partial + " in " + (System.currentTimeMillis() - start) + "ms");
+        scheduler.shutdown();
+    }
+
+    /**
+     * testAsyncFunction的写法改成FuturePipeline：trim和拼接在同一个线程上执行，只有sleep的阶段提交到线程池；
+     * 十万个阶段的链也不会栈溢出
+     */
+    @Test
+    public void testFuturePipeline() throws ExecutionException, InterruptedException {
+        final ListeningExecutorService listeningExecutorService = MoreExecutors.listeningDecorator(
+                Executors.newFixedThreadPool(2));
+
+        FuturePipeline<String, String> pipeline = FuturePipeline.<String>newBuilder()
+                .transform(new Function<String, String>() {
+                    @Override
+                    public String apply(String input) {
+                        return input.trim();
+                    }
+                })
+                .transformBlocking(new Function<String, String>() {
+                    @Override
+                    public String apply(String input) {
+                        try {
+                            TimeUnit.SECONDS.sleep(1);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return "hello" + input;
+                    }
+                }, listeningExecutorService)
+                .transform(new Function<String, String>() {
+                    @Override
+                    public String apply(String input) {
+                        return input + " on " + Thread.currentThread().getName();
+                    }
+                })
+                .transformAsync(new AsyncFunction<String, String>() {
+                    @Override
+                    public ListenableFuture<String> apply(final String input) {
+                        return listeningExecutorService.submit(new Callable<String>() {
+                            @Override
+                            public String call() {
+                                return input + "!";
+                            }
+                        });
+                    }
+                })
+                .build();
+        System.out.println(pipeline.applyNow(" 张三 ").get());
+
+        FuturePipeline.Builder<Integer, Integer> builder = FuturePipeline.newBuilder();
+        for (int i = 0; i < 100000; i++) {
+            builder = builder.transform(new Function<Integer, Integer>() {
+                @Override
+                public Integer apply(Integer input) {
+                    return input + 1;
+                }
+            });
+        }
+        System.out.println(builder.build().apply(listeningExecutorService.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 0;
+            }
+        })).get());
+        listeningExecutorService.shutdown();
+    }
 }
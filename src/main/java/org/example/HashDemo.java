@@ -1,11 +1,30 @@
 package org.example;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableRangeSet;
+import com.google.common.collect.Range;
 import com.google.common.hash.*;
+import org.example.hash.BlockedBloomFilter;
+import org.example.hash.CuckooFilter;
+import org.example.hash.FastHashing;
+import org.example.hash.HyperLogLog;
+import org.example.hash.MappedBloomFilter;
+import org.example.hash.MerkleHasher;
+import org.example.hash.MerkleTree;
+import org.example.hash.ReusableHasher;
+import org.example.hash.ScalableBloomFilter;
+import org.example.hash.ShardRouter;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class HashDemo {
     class Person {
@@ -22,6 +41,19 @@ public class HashDemo {
         }
     }
 
+    /**
+     * Person的Funnel，与testHash中的写法相同
+     */
+    private final Funnel<Person> personFunnel = new Funnel<Person>() {
+        @Override
+        public void funnel(Person person, PrimitiveSink into) {
+            into.putInt(person.id)
+                    .putString(person.firstName, Charsets.UTF_8)
+                    .putString(person.lastName, Charsets.UTF_8)
+                    .putInt(person.birthYear);
+        }
+    };
+
     @Test
     public void testHash() {
         Funnel<Person> personFunnel = new Funnel<Person>() {
@@ -73,4 +105,266 @@ public class HashDemo {
             //在这儿，我们可以在做进一步精确检查的同时触发一些异步加载
         }
     }
+
+    /**
+     * expectedInsertions估计偏小时，ScalableBloomFilter自动追加子过滤器，误判率仍保持在目标之内
+     */
+    @Test
+    public void testScalableBloomFilter() {
+        ScalableBloomFilter<Person> friends = ScalableBloomFilter.create(personFunnel, 500, 0.01);
+        BloomFilter<Person> fixed = BloomFilter.create(personFunnel, 500, 0.01);
+        for (int i = 0; i < 100_000; i++) {
+            Person friend = new Person(i, "Tim" + i, "Yang", 1998);
+            friends.put(friend);
+            fixed.put(friend);
+        }
+        int scalableFalsePositives = 0;
+        int fixedFalsePositives = 0;
+        for (int i = 100_000; i < 200_000; i++) {
+            Person stranger = new Person(i, "Tim" + i, "Yang", 1998);
+            if (friends.mightContain(stranger)) {
+                scalableFalsePositives++;
+            }
+            if (fixed.mightContain(stranger)) {
+                fixedFalsePositives++;
+            }
+        }
+        System.out.println(friends);
+        System.out.println("误判率 scalable=" + scalableFalsePositives / 100_000.0 + ", fixed=" + fixedFalsePositives / 100_000.0);
+    }
+
+    /**
+     * 分块BloomFilter：k次探测落在同一个64字节块内，并行批量插入
+     */
+    @Test
+    public void testBlockedBloomFilter() {
+        List<Person> friendsList = new ArrayList<>();
+        for (int i = 0; i < 1_000_000; i++) {
+            friendsList.add(new Person(i, "Tim" + i, "Yang", 1998));
+        }
+        BlockedBloomFilter<Person> friends = BlockedBloomFilter.create(personFunnel, 1_000_000, 0.01);
+        friends.putAll(friendsList, ForkJoinPool.commonPool());
+        for (Person friend : friendsList) {
+            if (!friends.mightContain(friend)) {
+                throw new AssertionError("missing " + friend.id);
+            }
+        }
+        int falsePositives = 0;
+        for (int i = 1_000_000; i < 2_000_000; i++) {
+            if (friends.mightContain(new Person(i, "Tim" + i, "Yang", 1998))) {
+                falsePositives++;
+            }
+        }
+        System.out.println(friends + " 误判率=" + falsePositives / 1_000_000.0 + ", 估计=" + friends.expectedFpp());
+    }
+
+    /**
+     * BloomFilter.writeTo写出的文件直接映射查询，不再读进堆；可写映射构建的文件也能用BloomFilter.readFrom读回
+     */
+    @Test
+    public void testMappedBloomFilter() throws IOException {
+        BloomFilter<Person> friends = BloomFilter.create(personFunnel, 500, 0.01);
+        for (int i = 0; i < 500; i++) {
+            friends.put(new Person(i, "Tim" + i, "Yang", 1998));
+        }
+        Path dir = Files.createTempDirectory("bloom");
+        Path file = dir.resolve("friends.bloom");
+        MappedBloomFilter.write(friends, file);
+        try (MappedBloomFilter<Person> mapped = MappedBloomFilter.open(file, personFunnel)) {
+            for (int i = 0; i < 10_000; i++) {
+                Person person = new Person(i, "Tim" + i, "Yang", 1998);
+                if (mapped.mightContain(person) != friends.mightContain(person)) {
+                    throw new AssertionError("mismatch at " + i);
+                }
+            }
+            System.out.println(mapped);
+        }
+
+        Path built = dir.resolve("built.bloom");
+        try (MappedBloomFilter<Person> writable = MappedBloomFilter.create(built, personFunnel, 500, 0.01)) {
+            for (int i = 0; i < 500; i++) {
+                writable.put(new Person(i, "Tim" + i, "Yang", 1998));
+            }
+        }
+        try (InputStream in = Files.newInputStream(built)) {
+            BloomFilter<Person> readBack = BloomFilter.readFrom(in, personFunnel);
+            System.out.println("与内存中构建的结果相同: " + readBack.equals(friends));
+        }
+        Files.delete(file);
+        Files.delete(built);
+        Files.delete(dir);
+    }
+
+    /**
+     * 朋友离开时直接从CuckooFilter中删除，不用重建整个BloomFilter
+     */
+    @Test
+    public void testCuckooFilter() {
+        CuckooFilter<Person> friends = CuckooFilter.create(personFunnel, Hashing.murmur3_128(), 100_000, 0.01);
+        List<Person> friendsList = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            Person friend = new Person(i, "Tim" + i, "Yang", 1998);
+            friendsList.add(friend);
+            friends.put(friend);
+        }
+        System.out.println(friends);
+        //一半朋友离开
+        for (int i = 0; i < 50_000; i++) {
+            friends.remove(friendsList.get(i));
+        }
+        int stillFriends = 0;
+        for (int i = 50_000; i < 100_000; i++) {
+            if (friends.mightContain(friendsList.get(i))) {
+                stillFriends++;
+            }
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 50_000; i++) {
+            if (friends.mightContain(friendsList.get(i))) {
+                falsePositives++;
+            }
+        }
+        System.out.println(friends + " 留下的朋友全部命中: " + (stillFriends == 50_000)
+                + ", 已离开的误判率=" + falsePositives / 50_000.0);
+    }
+
+    /**
+     * 重复使用同一个hasher，直接得到long，结果与Hashing.murmur3_128()相同，热路径上不分配对象
+     */
+    @Test
+    public void testReusableHasher() {
+        Person dude = new Person(12345, "Tim", "杨", 1998);
+        long hash = ReusableHasher.hashToLong(dude, personFunnel);
+        System.out.println(Long.toHexString(hash) + " "
+                + (hash == Hashing.murmur3_128().hashObject(dude, personFunnel).asLong()));
+
+        ReusableHasher hasher = new ReusableHasher();
+        for (int i = 0; i < 3; i++) {
+            personFunnel.funnel(new Person(i, "Tim", "Yang", 1998), hasher.reset());
+            System.out.println(hasher.hashToLong());
+        }
+    }
+
+    /**
+     * 只需要分布均匀、不需要加密强度的键，用xxHash64/wyhash代替md5，Funnel的写法不变
+     */
+    @Test
+    public void testFastHashing() {
+        Person dude = new Person(12345, "Tim", "Yang", 1998);
+        System.out.println(FastHashing.xxHash64().hashObject(dude, personFunnel));
+        System.out.println(FastHashing.wyhash().hashObject(dude, personFunnel));
+
+        //按哈希分到16个分区
+        int partitions = 16;
+        for (int i = 0; i < 5; i++) {
+            long hash = FastHashing.xxHash64().hashObject(new Person(i, "Tim", "Yang", 1998), personFunnel).asLong();
+            System.out.println(i + " -> partition " + Hashing.consistentHash(hash, partitions));
+        }
+    }
+
+    /**
+     * 输入为0, 1, 2, ...的字节序列时的已知结果：xxHash64取自OpenHFT zero-allocation-hashing的xx()，
+     * wyhash取自hash4j的wyhashFinal3()。48和96字节正好是wyhash主循环的边界，常见的测试向量不覆盖
+     */
+    @Test
+    public void testFastHashingKnownAnswers() {
+        long[][] expected = {
+                {0, 0xef46db3751d8e999L, 0x42bc986dc5eec4d3L},
+                {3, 0xe5c7bb4533bc65ddL, 0x99270162f23e47b5L},
+                {16, 0x44b6ef2fb84169f7L, 0x276be32b79eb1583L},
+                {17, 0x5603e60c527599b6L, 0xc2ca9c29c57033e4L},
+                {48, 0x8fe437632da06964L, 0xa0945cf55d2edc0eL},
+                {96, 0x450baa11f6739216L, 0xdf127c89875ce87fL},
+                {100, 0x6ac1e58032166597L, 0x79ffd87408b29cdcL},
+        };
+        for (long[] row : expected) {
+            byte[] input = new byte[(int) row[0]];
+            for (int i = 0; i < input.length; i++) {
+                input[i] = (byte) i;
+            }
+            check("xxHash64", input, FastHashing.xxHash64(), row[1]);
+            check("wyhash", input, FastHashing.wyhash(), row[2]);
+        }
+        System.out.println("all known answers match");
+    }
+
+    private static void check(String name, byte[] input, HashFunction function, long expected) {
+        long oneShot = function.hashBytes(input).asLong();
+        long streamed = function.newHasher().putBytes(input).hash().asLong();
+        if (oneShot != expected || streamed != expected) {
+            throw new AssertionError(name + " length " + input.length + ": expected " + Long.toHexString(expected)
+                    + ", got " + Long.toHexString(oneShot) + "/" + Long.toHexString(streamed));
+        }
+    }
+
+    /**
+     * 大文件分块并行哈希成Merkle树，修改后只重算改动的块
+     */
+    @Test
+    public void testMerkleHasher() throws IOException {
+        byte[] data = new byte[10 * 1024 * 1024];
+        new Random(42).nextBytes(data);
+        Path file = Files.createTempFile("merkle", ".bin");
+        try {
+            Files.write(file, data);
+            MerkleHasher hasher = MerkleHasher.create(FastHashing.xxHash64(), 1 << 20);
+            MerkleTree tree = hasher.hash(file);
+            System.out.println(tree);
+
+            data[3_500_000]++;
+            Files.write(file, data);
+            MerkleTree updated = hasher.rehash(file, tree, ImmutableRangeSet.of(Range.closedOpen(3_500_000L, 3_500_001L)));
+            System.out.println(updated + " 改动的块: " + updated.changedChunks(tree)
+                    + ", 与完整重算相同: " + updated.equals(hasher.hash(file)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * 按Person路由到分片，加入分片时只有约1/(n+1)的键移动，取模则几乎全部移动
+     */
+    @Test
+    public void testShardRouter() {
+        List<Person> persons = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            persons.add(new Person(i, "Tim" + i, "Yang", 1998));
+        }
+        ShardRouter<Person, String> router = ShardRouter.<Person, String>rendezvous(personFunnel,
+                Funnels.unencodedCharsFunnel())
+                .withNode("db1", 1)
+                .withNode("db2", 1)
+                .withNode("db3", 2);
+        System.out.println(router.route(new Person(12345, "Tim", "Yang", 1998)));
+        System.out.println("加入db4: " + ShardRouter.movement(router, router.withNode("db4", 1), persons));
+        System.out.println("删除db1: " + ShardRouter.movement(router, router.withoutNode("db1"), persons));
+
+        ShardRouter<Person, String> ring = ShardRouter.<Person, String>ring(personFunnel,
+                Funnels.unencodedCharsFunnel(), 160)
+                .withNode("db1", 1)
+                .withNode("db2", 1)
+                .withNode("db3", 2);
+        System.out.println("环上加入db4: " + ShardRouter.movement(ring, ring.withNode("db4", 1), persons));
+    }
+
+    /**
+     * 用HyperLogLog代替HashSet统计不同的Person个数，两个节点的结果可以合并，序列化后只有几KB
+     */
+    @Test
+    public void testHyperLogLog() throws IOException {
+        HyperLogLog<Person> node1 = HyperLogLog.create(personFunnel, 14);
+        HyperLogLog<Person> node2 = HyperLogLog.create(personFunnel, 14);
+        for (int i = 0; i < 60_000; i++) {
+            node1.add(new Person(i, "Tim" + i, "Yang", 1998));
+        }
+        for (int i = 40_000; i < 100_000; i++) {
+            node2.add(new Person(i, "Tim" + i, "Yang", 1998));
+        }
+        System.out.println(node1);
+
+        byte[] bytes = node2.toByteArray();
+        HyperLogLog<Person> received = HyperLogLog.readFrom(new ByteArrayInputStream(bytes), personFunnel);
+        node1.merge(received);
+        System.out.println("合并后: " + node1.cardinality() + " (实际100000), 传输" + bytes.length + "字节");
+    }
 }
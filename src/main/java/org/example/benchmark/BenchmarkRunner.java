@@ -0,0 +1,42 @@
+package org.example.benchmark;
+
+import com.google.common.base.Splitter;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按线程数逐档运行JMH基准：每档先跑吞吐量(ops/s)，再跑SampleTime拿到p99/p999，均挂上gc profiler看分配速率。
+ * <p>
+ * 用法：java -jar target/benchmarks.jar [include正则] [线程数列表，默认1,4,16,64]
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : CacheBenchmark.class.getSimpleName();
+        String threads = args.length > 1 ? args[1] : "1,4,16,64";
+
+        for (String t : Splitter.on(',').trimResults().omitEmptyStrings().split(threads)) {
+            int threadCount = Integer.parseInt(t);
+            new Runner(options(include, threadCount)
+                    .mode(Mode.Throughput)
+                    .timeUnit(TimeUnit.SECONDS)
+                    .build()).run();
+            new Runner(options(include, threadCount)
+                    .mode(Mode.SampleTime)
+                    .timeUnit(TimeUnit.NANOSECONDS)
+                    .build()).run();
+        }
+    }
+
+    private static ChainedOptionsBuilder options(String include, int threads) {
+        return new OptionsBuilder()
+                .include(include)
+                .threads(threads)
+                .addProfiler(GCProfiler.class);
+    }
+}
@@ -0,0 +1,95 @@
+package org.example.benchmark;
+
+import com.google.common.hash.BloomFilter;
+import org.example.benchmark.PersonFixture.Person;
+import org.example.hash.BlockedBloomFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.example.benchmark.PersonFixture.PERSON_FUNNEL;
+
+/**
+ * BlockedBloomFilter与Guava BloomFilter对比：
+ * lookup是单线程mightContain延迟，过滤器按6400万元素定容(约75MB)，远大于CPU缓存，每次探测都是cache miss；
+ * putAll是100万个Person并行插入新过滤器的每元素耗时，parallelism为ForkJoinPool并行度，Guava一侧用同一个池上的并行流调用put。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class BlockedBloomFilterBenchmark {
+    static final int COUNT = 1 << 20;
+    static final long LOOKUP_CAPACITY = 64L << 20;
+    static final double FPP = 0.01;
+
+    @Param({"guava", "blocked"})
+    public String impl;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    List<Person> persons;
+    Person[] probes;
+    BloomFilter<Person> guava;
+    BlockedBloomFilter<Person> blocked;
+    ForkJoinPool pool;
+    int index;
+
+    @Setup
+    public void setup() {
+        Person[] present = PersonFixture.persons(0, COUNT);
+        Person[] absent = PersonFixture.persons(COUNT, COUNT);
+        persons = Arrays.asList(present);
+        probes = new Person[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            probes[i] = (i & 1) == 0 ? present[i] : absent[i];
+        }
+        pool = new ForkJoinPool(parallelism);
+        if ("guava".equals(impl)) {
+            guava = BloomFilter.create(PERSON_FUNNEL, LOOKUP_CAPACITY, FPP);
+            putAll(guava);
+        } else {
+            blocked = BlockedBloomFilter.create(PERSON_FUNNEL, LOOKUP_CAPACITY, FPP);
+            blocked.putAll(persons, pool);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    void putAll(final BloomFilter<Person> filter) {
+        pool.submit(new Runnable() {
+            @Override
+            public void run() {
+                persons.parallelStream().forEach(filter::put);
+            }
+        }).join();
+    }
+
+    @Benchmark
+    public boolean lookup() {
+        Person probe = probes[index++ & (COUNT - 1)];
+        return guava != null ? guava.mightContain(probe) : blocked.mightContain(probe);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public Object putAll() {
+        if (guava != null) {
+            BloomFilter<Person> filter = BloomFilter.create(PERSON_FUNNEL, COUNT, FPP);
+            putAll(filter);
+            return filter;
+        }
+        BlockedBloomFilter<Person> filter = BlockedBloomFilter.create(PERSON_FUNNEL, COUNT, FPP);
+        filter.putAll(persons, pool);
+        return filter;
+    }
+}
@@ -0,0 +1,134 @@
+package org.example.benchmark;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.example.concurrent.BoundedExecutor;
+import org.example.metrics.Histogram;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 过载下的吞吐量和尾延迟：按固定速率rate(个/秒)提交tasks个阻塞blockMillis毫秒的任务，不等前面的任务完成(开环)，
+ * 耗时为提交开始到所有被接受的任务完成。
+ * current是ConcurrencyDemo.testThreadFactoryBuilder中的配置(core=2*CPU、max=15、无界LinkedBlockingDeque，
+ * 实际只有core个线程)，bounded是BoundedExecutor(core=2*CPU、max=64、队列256)。
+ * 延迟从任务计划提交的时刻算起，避免提交方被阻塞时少算排队时间。每次调用结束打印接受/拒绝数、延迟分位数和队列峰值。
+ * <pre>
+ * java -jar target/benchmarks.jar BoundedExecutorBenchmark -p rate=1000,20000
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class BoundedExecutorBenchmark {
+    static final int CORE_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+    @Param({"current", "bounded"})
+    public String executor;
+
+    @Param({"1000", "20000"})
+    public int rate;
+
+    @Param({"5000"})
+    public int tasks;
+
+    @Param({"5"})
+    public int blockMillis;
+
+    ListeningExecutorService service;
+    ThreadPoolExecutor current;
+    BoundedExecutor bounded;
+    Histogram latency;
+    int rejected;
+    int maxQueueSize;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (executor) {
+            case "current":
+                current = new ThreadPoolExecutor(CORE_POOL_SIZE, 15, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingDeque<Runnable>(),
+                        new ThreadFactoryBuilder().setNameFormat("current-%d").setDaemon(true).build());
+                service = MoreExecutors.listeningDecorator(current);
+                break;
+            case "bounded":
+                bounded = BoundedExecutor.newBuilder()
+                        .corePoolSize(CORE_POOL_SIZE)
+                        .maximumPoolSize(64)
+                        .queueCapacity(256)
+                        .build();
+                service = bounded;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown executor: " + executor);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.shutdownNow();
+    }
+
+    @Setup(Level.Invocation)
+    public void before() {
+        latency = new Histogram();
+        rejected = 0;
+        maxQueueSize = 0;
+    }
+
+    @TearDown(Level.Invocation)
+    public void after() {
+        Histogram.Snapshot snapshot = latency.snapshot();
+        System.out.printf("%naccepted=%d rejected=%d latency ms p50=%.1f p99=%.1f max=%.1f; max queue %d%n",
+                tasks - rejected, rejected, snapshot.percentile(50) / 1e6, snapshot.percentile(99) / 1e6,
+                snapshot.max() / 1e6, maxQueueSize);
+    }
+
+    @Benchmark
+    public List<Long> openLoop() throws ExecutionException, InterruptedException {
+        List<ListenableFuture<Long>> futures = new ArrayList<>(tasks);
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        for (int i = 0; i < tasks; i++) {
+            final long scheduled = start + i * periodNanos;
+            long delay = scheduled - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            try {
+                futures.add(service.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws InterruptedException {
+                        TimeUnit.MILLISECONDS.sleep(blockMillis);
+                        long elapsed = System.nanoTime() - scheduled;
+                        latency.record(elapsed);
+                        return elapsed;
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                rejected++;
+            }
+            maxQueueSize = Math.max(maxQueueSize, queueSize());
+        }
+        return Futures.allAsList(futures).get();
+    }
+
+    private int queueSize() {
+        return current != null ? current.getQueue().size() : bounded.stats().queueSize();
+    }
+}
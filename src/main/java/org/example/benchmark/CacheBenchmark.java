@@ -0,0 +1,116 @@
+package org.example.benchmark;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对应CacheDemo里的几种CacheBuilder配置：无界、maximumSize、expireAfterWrite/expireAfterAccess、weakValues，
+ * 以及CacheLoader加载和testGet里的cache.get(key, Callable)争用路径。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+    static final int KEY_COUNT = 1 << 16;
+    static final int MASK = KEY_COUNT - 1;
+
+    @Param({"unbounded", "maximumSize", "expireAfterWrite", "expireAfterAccess", "weakValues"})
+    public String config;
+
+    LoadingCache<String, String> cache;
+    String[] keys;
+    //weakValues下值需要在别处保持强引用，否则会被GC回收
+    String[] values;
+    Callable<String> hotLoader;
+
+    @Setup
+    public void setup() {
+        keys = new String[KEY_COUNT];
+        values = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = "key" + i;
+            values[i] = "value" + i;
+        }
+        cache = newBuilder(config).build(new CacheLoader<String, String>() {
+            @Override
+            public String load(String key) {
+                return values[Integer.parseInt(key.substring(3))];
+            }
+        });
+        for (int i = 0; i < KEY_COUNT; i++) {
+            cache.put(keys[i], values[i]);
+        }
+        hotLoader = new Callable<String>() {
+            @Override
+            public String call() {
+                return values[0];
+            }
+        };
+    }
+
+    static CacheBuilder<Object, Object> newBuilder(String config) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+        switch (config) {
+            case "unbounded":
+                return builder;
+            case "maximumSize":
+                //容量为key空间的一半，保证读写过程中持续有淘汰
+                return builder.maximumSize(KEY_COUNT / 2);
+            //以下几种只启用被测的特性，不叠加maximumSize，结果中不混入按容量淘汰的开销
+            case "expireAfterWrite":
+                return builder.expireAfterWrite(1, TimeUnit.SECONDS);
+            case "expireAfterAccess":
+                return builder.expireAfterAccess(1, TimeUnit.SECONDS);
+            case "weakValues":
+                return builder.weakValues();
+            default:
+                throw new IllegalArgumentException("unknown config: " + config);
+        }
+    }
+
+    /**
+     * cache-aside读：getIfPresent未命中则put
+     */
+    @Benchmark
+    public String getIfPresent() {
+        int i = ThreadLocalRandom.current().nextInt() & MASK;
+        String value = cache.getIfPresent(keys[i]);
+        if (value == null) {
+            cache.put(keys[i], values[i]);
+            value = values[i];
+        }
+        return value;
+    }
+
+    @Benchmark
+    public void put() {
+        int i = ThreadLocalRandom.current().nextInt() & MASK;
+        cache.put(keys[i], values[i]);
+    }
+
+    /**
+     * CacheLoader加载路径
+     */
+    @Benchmark
+    public String loadingGet() {
+        return cache.getUnchecked(keys[ThreadLocalRandom.current().nextInt() & MASK]);
+    }
+
+    /**
+     * testGet的场景：所有线程用cache.get(key, Callable)争抢同一个key
+     */
+    @Benchmark
+    public String getCallableHotKey() throws ExecutionException {
+        return cache.get(keys[0], hotLoader);
+    }
+}
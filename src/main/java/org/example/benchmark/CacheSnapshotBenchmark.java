@@ -0,0 +1,86 @@
+package org.example.benchmark;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import org.example.cache.CacheSnapshot;
+import org.example.cache.SnapshotLoadingCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SnapshotLoadingCache写快照、打开快照以及从快照懒加载单个key的耗时。
+ * 默认1000万条数据，需要较大的堆。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class CacheSnapshotBenchmark {
+    @Param({"10000000"})
+    public int entries;
+
+    SnapshotLoadingCache cache;
+    CacheSnapshot restored;
+    Path file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = Files.createTempFile("cache-snapshot", ".bin");
+        Files.delete(file);
+        cache = SnapshotLoadingCache.build(CacheBuilder.newBuilder(), 1, TimeUnit.HOURS, loader(), null);
+        for (int i = 0; i < entries; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        cache.snapshot(file);
+        restored = CacheSnapshot.open(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        restored.close();
+        Files.deleteIfExists(file);
+    }
+
+    private static CacheLoader<String, String> loader() {
+        return new CacheLoader<String, String>() {
+            @Override
+            public String load(String key) {
+                return "loaded";
+            }
+        };
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        cache.snapshot(file);
+    }
+
+    /**
+     * 打开快照：只映射文件并读取header
+     */
+    @Benchmark
+    public int open() throws IOException {
+        try (CacheSnapshot snapshot = CacheSnapshot.open(file)) {
+            return snapshot.entryCount();
+        }
+    }
+
+    /**
+     * 启动后第一次访问某个key时在快照中查找
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public CacheSnapshot.Entry lazyGet() {
+        return restored.get("key" + ThreadLocalRandom.current().nextInt(entries), System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.benchmark;
+
+import com.google.common.hash.BloomFilter;
+import org.example.benchmark.PersonFixture.Person;
+import org.example.hash.CuckooFilter;
+import org.example.hash.ScalableBloomFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.example.benchmark.PersonFixture.PERSON_FUNNEL;
+
+/**
+ * CuckooFilter与BloomFilter在成员会离开的集合上的对比：
+ * cuckooChurn是删除一个成员再加回的单次耗时，bloomRebuild是BloomFilter为了去掉成员只能整个重建的耗时，
+ * 以及两者的mightContain。setup时打印两者每个元素的位数，以及CuckooFilter一直插入到失败时的最大负载率。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CuckooFilterBenchmark {
+    static final int COUNT = 1 << 20;
+    static final double FPP = 0.01;
+
+    Person[] present;
+    Person[] probes;
+    CuckooFilter<Person> cuckoo;
+    BloomFilter<Person> bloom;
+    int index;
+
+    @Setup
+    public void setup() {
+        present = PersonFixture.persons(0, COUNT);
+        Person[] absent = PersonFixture.persons(COUNT, COUNT);
+        probes = new Person[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            probes[i] = (i & 1) == 0 ? present[i] : absent[i];
+        }
+        cuckoo = CuckooFilter.create(PERSON_FUNNEL, COUNT, FPP);
+        bloom = BloomFilter.create(PERSON_FUNNEL, COUNT, FPP);
+        for (Person person : present) {
+            cuckoo.put(person);
+            bloom.put(person);
+        }
+        CuckooFilter<Person> full = CuckooFilter.create(PERSON_FUNNEL, COUNT, FPP);
+        int inserted = 0;
+        while (inserted < 2 * COUNT && full.put(inserted < COUNT ? present[inserted] : absent[inserted - COUNT])) {
+            inserted++;
+        }
+        System.out.printf("%ncuckoo: %s%nmax load factor %.3f (%.2f bits/element when full)%n"
+                        + "bloom: %.2f bits/element%n", cuckoo, full.loadFactor(), full.bitsPerElement(),
+                (double) ScalableBloomFilter.optimalNumOfBits(COUNT, FPP) / COUNT);
+    }
+
+    @Benchmark
+    public boolean cuckooLookup() {
+        return cuckoo.mightContain(probes[index++ & (COUNT - 1)]);
+    }
+
+    @Benchmark
+    public boolean bloomLookup() {
+        return bloom.mightContain(probes[index++ & (COUNT - 1)]);
+    }
+
+    /**
+     * 一次删除加一次插入
+     */
+    @Benchmark
+    public boolean cuckooChurn() {
+        Person person = present[index++ & (COUNT - 1)];
+        cuckoo.remove(person);
+        return cuckoo.put(person);
+    }
+
+    /**
+     * BloomFilter删除成员的唯一办法：用剩下的成员重建
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public BloomFilter<Person> bloomRebuild() {
+        BloomFilter<Person> rebuilt = BloomFilter.create(PERSON_FUNNEL, COUNT, FPP);
+        for (Person person : present) {
+            rebuilt.put(person);
+        }
+        return rebuilt;
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.benchmark;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.example.cache.ExpiringCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大量数据持续过期时的读延迟：Guava expireAfterWrite在读写线程上顺带清理，ExpiringCache交给后台时间轮清理。
+ * 每条数据的TTL在1~4秒之间随机，读未命中时重新写入，使过期和写入一直在发生。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ExpiringCacheBenchmark {
+    @Param({"100000", "1000000", "4000000"})
+    public int entries;
+
+    @Param({"guava", "timerWheel"})
+    public String impl;
+
+    Cache<Integer, Integer> guava;
+    ExpiringCache<Integer, Integer> timerWheel;
+    Integer[] keys;
+
+    @Setup
+    public void setup() {
+        keys = new Integer[entries];
+        for (int i = 0; i < entries; i++) {
+            keys[i] = i;
+        }
+        if ("guava".equals(impl)) {
+            guava = CacheBuilder.newBuilder().expireAfterWrite(2500, TimeUnit.MILLISECONDS).build();
+        } else {
+            timerWheel = new ExpiringCache<>(2500, TimeUnit.MILLISECONDS);
+        }
+        for (int i = 0; i < entries; i++) {
+            put(keys[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (timerWheel != null) {
+            timerWheel.close();
+        }
+    }
+
+    private void put(Integer key) {
+        if (guava != null) {
+            guava.put(key, key);
+        } else {
+            timerWheel.put(key, key, 1000 + ThreadLocalRandom.current().nextInt(3000), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Benchmark
+    public Integer readThrough() {
+        Integer key = keys[ThreadLocalRandom.current().nextInt(entries)];
+        Integer value = guava != null ? guava.getIfPresent(key) : timerWheel.getIfPresent(key);
+        if (value == null) {
+            put(key);
+            value = key;
+        }
+        return value;
+    }
+}
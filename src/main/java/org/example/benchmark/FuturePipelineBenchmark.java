@@ -0,0 +1,86 @@
+package org.example.benchmark;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.example.concurrent.FuturePipeline;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * stages个很简单的函数串成一条链，从提交到取得结果的耗时，除以stages即每个阶段的开销：
+ * naive是ConcurrencyDemo.testAsyncFunction中的写法，每个Futures.transform都提交到线程池；
+ * direct是每个阶段都用directExecutor的Futures.transform，只在第一个阶段提交到线程池；
+ * pipeline是FuturePipeline，第一个阶段用transformBlocking进入线程池，其余阶段合并在同一个任务里。
+ * <pre>
+ * java -jar target/benchmarks.jar FuturePipelineBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FuturePipelineBenchmark {
+    static final Function<Integer, Integer> INCREMENT = new Function<Integer, Integer>() {
+        @Override
+        public Integer apply(Integer input) {
+            return input + 1;
+        }
+    };
+
+    @Param({"naive", "direct", "pipeline"})
+    public String mode;
+
+    @Param({"1", "10", "100"})
+    public int stages;
+
+    ExecutorService executor;
+    FuturePipeline<Integer, Integer> pipeline;
+
+    @Setup
+    public void setup() {
+        executor = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder().setDaemon(true).build());
+        FuturePipeline.Builder<Integer, Integer> builder = FuturePipeline.<Integer>newBuilder()
+                .transformBlocking(INCREMENT, executor);
+        for (int i = 1; i < stages; i++) {
+            builder = builder.transform(INCREMENT);
+        }
+        pipeline = builder.build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public Integer chain() throws ExecutionException, InterruptedException {
+        ListenableFuture<Integer> input = Futures.immediateFuture(0);
+        switch (mode) {
+            case "naive":
+                ListenableFuture<Integer> naive = input;
+                for (int i = 0; i < stages; i++) {
+                    naive = Futures.transform(naive, INCREMENT, executor);
+                }
+                return naive.get();
+            case "direct":
+                ListenableFuture<Integer> direct = Futures.transform(input, INCREMENT, executor);
+                for (int i = 1; i < stages; i++) {
+                    direct = Futures.transform(direct, INCREMENT, MoreExecutors.directExecutor());
+                }
+                return direct.get();
+            case "pipeline":
+                return pipeline.apply(input).get();
+            default:
+                throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.benchmark;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.example.benchmark.PersonFixture.Person;
+import org.example.hash.FastHashing;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.example.benchmark.PersonFixture.PERSON_FUNNEL;
+
+/**
+ * 各哈希函数对不同长度输入的hashBytes耗时，用吞吐量(字节/耗时)比较长输入，用单次耗时比较短输入；
+ * hashObject是HashDemo.testHash里按Funnel哈希Person的写法。分布质量见HashQualityCheck。
+ * <pre>
+ * java -jar target/benchmarks.jar HashFunctionBenchmark -p function=xxHash64,murmur3_128
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashFunctionBenchmark {
+    @Param({"md5", "murmur3_128", "sipHash24", "xxHash64", "wyhash"})
+    public String function;
+
+    @Param({"8", "64", "1024", "65536", "1048576"})
+    public int size;
+
+    HashFunction hf;
+    byte[] input;
+    Person person;
+
+    @Setup
+    public void setup() {
+        hf = hashFunction(function);
+        input = new byte[size];
+        new Random(42).nextBytes(input);
+        person = PersonFixture.persons(0, 1)[0];
+    }
+
+    static HashFunction hashFunction(String name) {
+        switch (name) {
+            case "md5":
+                return Hashing.md5();
+            case "murmur3_128":
+                return Hashing.murmur3_128();
+            case "sipHash24":
+                return Hashing.sipHash24();
+            case "xxHash64":
+                return FastHashing.xxHash64();
+            case "wyhash":
+                return FastHashing.wyhash();
+            default:
+                throw new IllegalArgumentException("Unknown hash function: " + name);
+        }
+    }
+
+    @Benchmark
+    public long hashBytes() {
+        return hf.hashBytes(input).asLong();
+    }
+
+    /**
+     * 与size无关，只需看一个size
+     */
+    @Benchmark
+    public long hashObject() {
+        return hf.hashObject(person, PERSON_FUNNEL).asLong();
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.benchmark;
+
+import com.google.common.hash.HashFunction;
+
+import java.util.Random;
+
+/**
+ * 哈希函数的分布质量检查，与HashFunctionBenchmark中的函数相同：
+ * <ul>
+ * <li>雪崩：翻转输入的任一位，输出的每一位应以1/2的概率翻转，报告所有(输入位, 输出位)组合中偏离1/2的最大值</li>
+ * <li>分桶：把连续整数和只有高位变化的整数按哈希分到桶中(对应分区路由)，报告卡方统计量与自由度的比值，应接近1</li>
+ * </ul>
+ */
+public class HashQualityCheck {
+    private static final String[] FUNCTIONS = {"md5", "murmur3_128", "sipHash24", "xxHash64", "wyhash"};
+    private static final int AVALANCHE_TRIALS = 20_000;
+    private static final int BUCKETS = 1024;
+    private static final int KEYS = 1 << 20;
+
+    public static void main(String[] args) {
+        for (String name : FUNCTIONS) {
+            HashFunction hf = HashFunctionBenchmark.hashFunction(name);
+            System.out.printf("%-12s avalanche bias (8B)=%.4f (16B)=%.4f  chi2/df sequential=%.3f highBits=%.3f%n",
+                    name, maxAvalancheBias(hf, 8), maxAvalancheBias(hf, 16),
+                    chiSquarePerDof(hf, false), chiSquarePerDof(hf, true));
+        }
+    }
+
+    /**
+     * 单个组合的标准差为0.5/sqrt(AVALANCHE_TRIALS)≈0.0035，理想的函数在上千个组合中取最大值约为0.015
+     *
+     * @return max |P(输出位j翻转 | 输入位i翻转) - 1/2|
+     */
+    public static double maxAvalancheBias(HashFunction hf, int inputBytes) {
+        int inputBits = inputBytes * 8;
+        int[][] flips = new int[inputBits][Long.SIZE];
+        Random random = new Random(42);
+        byte[] input = new byte[inputBytes];
+        for (int trial = 0; trial < AVALANCHE_TRIALS; trial++) {
+            random.nextBytes(input);
+            long base = hf.hashBytes(input).asLong();
+            for (int bit = 0; bit < inputBits; bit++) {
+                input[bit >>> 3] ^= 1 << (bit & 7);
+                long diff = base ^ hf.hashBytes(input).asLong();
+                input[bit >>> 3] ^= 1 << (bit & 7);
+                for (int out = 0; out < Long.SIZE; out++) {
+                    flips[bit][out] += (int) ((diff >>> out) & 1);
+                }
+            }
+        }
+        double worst = 0;
+        for (int[] row : flips) {
+            for (int count : row) {
+                worst = Math.max(worst, Math.abs((double) count / AVALANCHE_TRIALS - 0.5));
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * 键为0..KEYS-1的long，highBits时把它们按位反转，只有高20位变化；桶号取asLong()的低位
+     *
+     * @return 卡方/自由度，均匀分布时期望为1，标准差约为sqrt(2/df)≈0.044
+     */
+    public static double chiSquarePerDof(HashFunction hf, boolean highBits) {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < KEYS; i++) {
+            long key = highBits ? Long.reverse(i) : i;
+            counts[(int) (hf.hashLong(key).asLong() & (BUCKETS - 1))]++;
+        }
+        double expected = (double) KEYS / BUCKETS;
+        double chiSquare = 0;
+        for (long count : counts) {
+            chiSquare += (count - expected) * (count - expected) / expected;
+        }
+        return chiSquare / (BUCKETS - 1);
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.benchmark;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.example.benchmark.PersonFixture.Person;
+import org.example.hash.ReusableHasher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.example.benchmark.PersonFixture.PERSON_FUNNEL;
+
+/**
+ * HashDemo.testHash中的写法(newHasher().putObject(person, personFunnel).hash())与ReusableHasher的对比。
+ * 用-prof gc运行，看gc.alloc.rate.norm：ReusableHasher稳定状态下应为0 B/op。
+ * <pre>
+ * java -jar target/benchmarks.jar HasherBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HasherBenchmark {
+    static final int COUNT = 1024;
+
+    Person[] persons;
+    HashFunction hf;
+    int index;
+
+    @Setup
+    public void setup() {
+        persons = PersonFixture.persons(0, COUNT);
+        hf = Hashing.murmur3_128();
+    }
+
+    @Benchmark
+    public long guavaHasher() {
+        return hf.newHasher().putObject(persons[index++ & (COUNT - 1)], PERSON_FUNNEL).hash().asLong();
+    }
+
+    @Benchmark
+    public long reusableHasher() {
+        return ReusableHasher.hashToLong(persons[index++ & (COUNT - 1)], PERSON_FUNNEL);
+    }
+}
@@ -0,0 +1,190 @@
+package org.example.benchmark;
+
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.example.concurrent.Hedger;
+import org.example.concurrent.MoreFutures;
+import org.example.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 在本地模拟的慢副本上对比单次调用、对冲调用和带截止时间的扇出的延迟分位数。
+ * <p>
+ * 每次后端调用耗时独立：98%在1到3毫秒之间均匀分布，2%在50到150毫秒之间(GC停顿、慢盘等)，
+ * 用定时器完成SettableFuture模拟，不占用线程。请求按RATE个/秒的固定速率发出。
+ * 扇出请求同时查询FAN_OUT个后端，allAsList等待全部结果，successfulAsList在DEADLINE_MILLIS后返回部分结果。
+ */
+public class HedgingSimulator {
+    private static final int REQUESTS = 5_000;
+    private static final int RATE = 1_000;
+    private static final int FAN_OUT = 10;
+    private static final int DEADLINE_MILLIS = 10;
+    private static final double SLOW_FRACTION = 0.02;
+
+    public static void main(String[] args) throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2,
+                new ThreadFactoryBuilder().setNameFormat("backend-%d").setDaemon(true).build());
+        final SlowBackend backend = new SlowBackend(scheduler);
+        final Hedger hedger = Hedger.newBuilder()
+                .percentile(95)
+                .initialDelay(5, TimeUnit.MILLISECONDS)
+                .build(scheduler);
+        final AsyncCallable<Long> call = new AsyncCallable<Long>() {
+            @Override
+            public ListenableFuture<Long> call() {
+                return backend.call();
+            }
+        };
+
+        System.out.printf("%-28s %8s %8s %8s %8s %10s %10s%n",
+                "mode", "p50 ms", "p99 ms", "p999 ms", "max ms", "calls/req", "complete");
+        //第一轮让对冲延迟收敛，不报告
+        run(new Request() {
+            @Override
+            public ListenableFuture<?> start() {
+                return hedger.call(call);
+            }
+        }, null);
+
+        long calls = backend.calls.get();
+        report("single", run(new Request() {
+            @Override
+            public ListenableFuture<?> start() {
+                return backend.call();
+            }
+        }, null), backend.calls.get() - calls, 1);
+
+        calls = backend.calls.get();
+        report("hedged p95 (delay " + hedger.delay(TimeUnit.MICROSECONDS) / 1000.0 + "ms)", run(new Request() {
+            @Override
+            public ListenableFuture<?> start() {
+                return hedger.call(call);
+            }
+        }, null), backend.calls.get() - calls, 1);
+
+        calls = backend.calls.get();
+        report("fan-out " + FAN_OUT + " allAsList", run(new Request() {
+            @Override
+            public ListenableFuture<?> start() {
+                return Futures.allAsList(fanOut(backend));
+            }
+        }, null), backend.calls.get() - calls, 1);
+
+        final Histogram completeness = new Histogram();
+        calls = backend.calls.get();
+        Histogram latency = run(new Request() {
+            @Override
+            public ListenableFuture<?> start() {
+                return MoreFutures.successfulAsList(fanOut(backend), DEADLINE_MILLIS, TimeUnit.MILLISECONDS,
+                        scheduler);
+            }
+        }, completeness);
+        report("fan-out " + FAN_OUT + " deadline " + DEADLINE_MILLIS + "ms", latency,
+                backend.calls.get() - calls, completeness.snapshot().mean() / FAN_OUT);
+
+        calls = backend.calls.get();
+        report("fan-out " + FAN_OUT + " hedged allAsList", run(new Request() {
+            @Override
+            public ListenableFuture<?> start() {
+                List<ListenableFuture<Long>> lookups = new ArrayList<>(FAN_OUT);
+                for (int i = 0; i < FAN_OUT; i++) {
+                    lookups.add(hedger.call(call));
+                }
+                return Futures.allAsList(lookups);
+            }
+        }, null), backend.calls.get() - calls, 1);
+        scheduler.shutdownNow();
+    }
+
+    interface Request {
+        ListenableFuture<?> start();
+    }
+
+    private static List<ListenableFuture<Long>> fanOut(SlowBackend backend) {
+        List<ListenableFuture<Long>> lookups = new ArrayList<>(FAN_OUT);
+        for (int i = 0; i < FAN_OUT; i++) {
+            lookups.add(backend.call());
+        }
+        return lookups;
+    }
+
+    /**
+     * 按固定速率发出REQUESTS个请求，返回每个请求从计划发出到完成的延迟；completeness不为null时记录每个结果中非null的个数
+     */
+    private static Histogram run(final Request request, final Histogram completeness) throws InterruptedException {
+        final Histogram latency = new Histogram();
+        final CountDownLatch done = new CountDownLatch(REQUESTS);
+        long period = TimeUnit.SECONDS.toNanos(1) / RATE;
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            final long scheduled = start + i * period;
+            long delay = scheduled - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            final ListenableFuture<?> future = request.start();
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    latency.record(Math.max(0, System.nanoTime() - scheduled));
+                    if (completeness != null) {
+                        int present = 0;
+                        for (Object value : (List<?>) Futures.getUnchecked(future)) {
+                            if (value != null) {
+                                present++;
+                            }
+                        }
+                        completeness.record(present);
+                    }
+                    done.countDown();
+                }
+            }, MoreExecutors.directExecutor());
+        }
+        done.await();
+        return latency;
+    }
+
+    private static void report(String mode, Histogram latency, long calls, double complete) {
+        Histogram.Snapshot snapshot = latency.snapshot();
+        System.out.printf("%-28s %8.1f %8.1f %8.1f %8.1f %10.2f %9.1f%%%n", mode,
+                snapshot.percentile(50) / 1e6, snapshot.percentile(99) / 1e6, snapshot.percentile(99.9) / 1e6,
+                snapshot.max() / 1e6, (double) calls / REQUESTS, complete * 100);
+    }
+
+    static final class SlowBackend {
+        final ScheduledExecutorService scheduler;
+        final AtomicLong calls = new AtomicLong();
+
+        SlowBackend(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        ListenableFuture<Long> call() {
+            calls.incrementAndGet();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            final long micros = random.nextDouble() < SLOW_FRACTION
+                    ? random.nextLong(50_000, 150_000) : random.nextLong(1_000, 3_000);
+            final SettableFuture<Long> result = SettableFuture.create();
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    result.set(micros);
+                }
+            }, micros, TimeUnit.MICROSECONDS);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.example.benchmark;
+
+import com.google.common.cache.Cache;
+import org.example.cache.BoundedCacheBuilder;
+import org.example.cache.BoundedCacheBuilder.EvictionPolicy;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 用生成的访问轨迹回放缓存，对比CacheBuilder.maximumSize(LRU)和W-TinyLFU的命中率。
+ * <p>
+ * 轨迹有两种：Zipfian(少量热点)，以及在Zipfian中周期性插入一次性顺序扫描的scan-heavy轨迹。
+ */
+public class HitRateSimulator {
+    private static final int ITEMS = 100_000;
+    private static final int REQUESTS = 2_000_000;
+
+    public static void main(String[] args) {
+        long[] zipf = zipfTrace(ITEMS, 0.9, REQUESTS, 42);
+        long[] scan = scanTrace(zipf, 20_000, 5_000);
+        for (int maximumSize : new int[]{1_000, 5_000, 20_000}) {
+            for (EvictionPolicy policy : EvictionPolicy.values()) {
+                System.out.printf("size=%-6d %-10s zipfian=%.2f%% scan-heavy=%.2f%%%n", maximumSize, policy,
+                        hitRate(policy, maximumSize, zipf) * 100, hitRate(policy, maximumSize, scan) * 100);
+            }
+        }
+    }
+
+    public static double hitRate(EvictionPolicy policy, int maximumSize, long[] trace) {
+        Cache<Long, Long> cache = BoundedCacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .evictionPolicy(policy)
+                .build();
+        long hits = 0;
+        for (long key : trace) {
+            if (cache.getIfPresent(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, key);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    /**
+     * 按 p(i) ∝ 1/i^skew 生成访问序列
+     */
+    public static long[] zipfTrace(int items, double skew, int requests, long seed) {
+        double[] cdf = new double[items];
+        double sum = 0;
+        for (int i = 0; i < items; i++) {
+            sum += 1 / Math.pow(i + 1, skew);
+            cdf[i] = sum;
+        }
+        Random random = new Random(seed);
+        long[] trace = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            trace[i] = index >= 0 ? index : -index - 1;
+        }
+        return trace;
+    }
+
+    /**
+     * 每隔period次访问插入一段scanLength个从未出现过的key
+     */
+    public static long[] scanTrace(long[] base, int period, int scanLength) {
+        int scans = base.length / period;
+        long[] trace = new long[base.length + scans * scanLength];
+        long nextScanKey = Long.MAX_VALUE / 2;
+        int pos = 0;
+        for (int i = 0; i < base.length; i++) {
+            trace[pos++] = base[i];
+            if ((i + 1) % period == 0) {
+                for (int j = 0; j < scanLength; j++) {
+                    trace[pos++] = nextScanKey++;
+                }
+            }
+        }
+        return trace;
+    }
+}
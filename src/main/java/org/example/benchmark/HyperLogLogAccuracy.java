@@ -0,0 +1,40 @@
+package org.example.benchmark;
+
+import com.google.common.hash.Funnels;
+import org.example.hash.HyperLogLog;
+
+/**
+ * HyperLogLog在不同precision和基数下的相对误差：每组用RUNS组不相交的键，报告均方根误差和最大误差，
+ * 与理论值1.04/sqrt(2^precision)对比。sparse列是结束时是否仍为稀疏表示。
+ */
+public class HyperLogLogAccuracy {
+    private static final int RUNS = 50;
+    private static final int[] PRECISIONS = {10, 12, 14, 16};
+    private static final long[] CARDINALITIES = {100, 1_000, 10_000, 100_000, 1_000_000};
+
+    public static void main(String[] args) {
+        System.out.printf("%-4s %10s %8s %8s %8s %6s %8s%n", "p", "n", "rmse", "max", "theory", "sparse", "bytes");
+        for (int precision : PRECISIONS) {
+            for (long n : CARDINALITIES) {
+                double sumSquares = 0;
+                double max = 0;
+                HyperLogLog<Long> last = null;
+                for (int run = 0; run < RUNS; run++) {
+                    HyperLogLog<Long> hll = HyperLogLog.create(Funnels.longFunnel(), precision);
+                    long base = run * 1_000_000_000L;
+                    for (long i = 0; i < n; i++) {
+                        hll.add(base + i);
+                    }
+                    double error = (double) (hll.cardinality() - n) / n;
+                    sumSquares += error * error;
+                    max = Math.max(max, Math.abs(error));
+                    last = hll;
+                }
+                System.out.printf("%-4d %10d %7.2f%% %7.2f%% %7.2f%% %6s %8d%n", precision, n,
+                        Math.sqrt(sumSquares / RUNS) * 100, max * 100,
+                        HyperLogLog.relativeStandardError(precision) * 100, last.isSparse(),
+                        last.toByteArray().length);
+            }
+        }
+    }
+}
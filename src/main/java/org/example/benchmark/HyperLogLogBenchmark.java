@@ -0,0 +1,90 @@
+package org.example.benchmark;
+
+import org.example.benchmark.PersonFixture.Person;
+import org.example.hash.HyperLogLog;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.example.benchmark.PersonFixture.PERSON_FUNNEL;
+
+/**
+ * 统计不同Person个数：HashSet(现在的做法)、ConcurrentHashMap.newKeySet()与HyperLogLog的add耗时，
+ * 多线程时用-t比较后两者。setup时打印COUNT个Person分别放入HashSet和HyperLogLog后堆内存的增量
+ * (Person对象本身事先已创建，不计入)，以及HyperLogLog的估计误差和序列化后的大小。
+ * Person没有重写equals/hashCode，集合按对象区分，两种集合的耗时是下限。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class HyperLogLogBenchmark {
+    static final int COUNT = 1 << 20;
+
+    @Param({"14"})
+    public int precision;
+
+    Person[] persons;
+    Set<Person> hashSet;
+    Set<Person> concurrentSet;
+    HyperLogLog<Person> hll;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+    }
+
+    @Setup
+    public void setup() {
+        persons = PersonFixture.persons(0, COUNT);
+        long before = usedHeap();
+        Set<Person> exact = new HashSet<>();
+        for (Person person : persons) {
+            exact.add(person);
+        }
+        long setBytes = usedHeap() - before;
+        HyperLogLog<Person> estimate = HyperLogLog.create(PERSON_FUNNEL, precision);
+        for (Person person : persons) {
+            estimate.add(person);
+        }
+        System.out.printf("%nHashSet: %d distinct, ~%d MB heap; HyperLogLog: %d estimated (%.2f%% error), "
+                        + "%d bytes of registers, %d bytes serialized%n", exact.size(), setBytes >> 20,
+                estimate.cardinality(), (estimate.cardinality() - exact.size()) * 100.0 / exact.size(),
+                estimate.sizeInBytes(), estimate.toByteArray().length);
+
+        hashSet = new HashSet<>();
+        concurrentSet = ConcurrentHashMap.newKeySet();
+        hll = HyperLogLog.create(PERSON_FUNNEL, precision);
+    }
+
+    static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * 非线程安全，只用单线程运行
+     */
+    @Benchmark
+    public boolean hashSetAdd(Cursor cursor) {
+        return hashSet.add(persons[cursor.index++ & (COUNT - 1)]);
+    }
+
+    @Benchmark
+    public boolean concurrentSetAdd(Cursor cursor) {
+        return concurrentSet.add(persons[cursor.index++ & (COUNT - 1)]);
+    }
+
+    @Benchmark
+    public boolean hyperLogLogAdd(Cursor cursor) {
+        return hll.add(persons[cursor.index++ & (COUNT - 1)]);
+    }
+}
@@ -0,0 +1,50 @@
+package org.example.benchmark;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.example.cache.CacheInstrumentation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheInstrumentation在读路径上的开销，目标是比不加观测层慢不超过5%。
+ * 均匀分布的key是Top-K统计最差的情况，候选集合会不断更替。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstrumentedCacheBenchmark {
+    static final int KEY_COUNT = 1 << 16;
+    static final int MASK = KEY_COUNT - 1;
+
+    @Param({"plain", "instrumented"})
+    public String mode;
+
+    @Param({"16", "64"})
+    public int sampleInterval;
+
+    Cache<String, String> cache;
+    String[] keys;
+
+    @Setup
+    public void setup() {
+        keys = new String[KEY_COUNT];
+        Cache<String, String> plain = CacheBuilder.newBuilder().maximumSize(KEY_COUNT / 2).build();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = "key" + i;
+            plain.put(keys[i], "value" + i);
+        }
+        cache = "plain".equals(mode) ? plain : new CacheInstrumentation(
+                CacheInstrumentation.guavaSegments(4, KEY_COUNT / 2), sampleInterval, 20).instrument(plain);
+    }
+
+    @Benchmark
+    public String getIfPresent() {
+        return cache.getIfPresent(keys[ThreadLocalRandom.current().nextInt() & MASK]);
+    }
+}
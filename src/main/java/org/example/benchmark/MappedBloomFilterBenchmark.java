@@ -0,0 +1,121 @@
+package org.example.benchmark;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.example.hash.MappedBloomFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 启动时加载大BloomFilter的耗时和常驻内存：BloomFilter.readFrom把整个位数组读进堆，
+ * MappedBloomFilter.open只读文件头，查询时按需从page cache缺页。
+ * 每个fork只测一次，即冷启动的JVM打开文件并做QUERIES次随机查询，结束时打印这次调用前后的RSS增量，
+ * 分为匿名内存(RssAnon，堆)和文件映射(RssFile，与page cache共享、可被回收)。
+ * 文件在setup中生成，因此测的是文件已在page cache中的情况。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 3, jvmArgsAppend = {"-Xms64m", "-Xmx4g"})
+public class MappedBloomFilterBenchmark {
+    static final int QUERIES = 10_000;
+
+    /**
+     * 200M元素、1%误判率的过滤器约240MB
+     */
+    @Param({"200000000"})
+    public long expectedInsertions;
+
+    Path file;
+    long anonBefore;
+    long fileBefore;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = Files.createTempFile("bloom", ".bin");
+        Files.delete(file);
+        build(file, expectedInsertions);
+        //映射要等GC后才解除，否则构建时的映射会计入测量期间的RSS变化
+        System.gc();
+        Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
+    }
+
+    static void build(Path file, long expectedInsertions) throws IOException {
+        try (MappedBloomFilter<Long> filter = MappedBloomFilter.create(file, Funnels.longFunnel(),
+                expectedInsertions, 0.01)) {
+            for (long i = 0; i < 1_000_000; i++) {
+                filter.put(i);
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void recordRss() throws IOException {
+        anonBefore = statusKb("RssAnon:");
+        fileBefore = statusKb("RssFile:");
+    }
+
+    @TearDown(Level.Invocation)
+    public void printRss() throws IOException {
+        System.out.printf("%nRssAnon +%d MB, RssFile +%d MB%n", (statusKb("RssAnon:") - anonBefore) / 1024,
+                (statusKb("RssFile:") - fileBefore) / 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int readFromHeap() throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            BloomFilter<Long> filter = BloomFilter.readFrom(in, Funnels.longFunnel());
+            return query(filter::mightContain);
+        }
+    }
+
+    @Benchmark
+    public int openMapped() throws IOException {
+        try (MappedBloomFilter<Long> filter = MappedBloomFilter.open(file, Funnels.longFunnel())) {
+            return query(filter::mightContain);
+        }
+    }
+
+    interface Query {
+        boolean mightContain(Long key);
+    }
+
+    static int query(Query filter) {
+        int hits = 0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < QUERIES; i++) {
+            if (filter.mightContain(random.nextLong(2_000_000))) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    static long statusKb(String field) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII);
+        for (String line : lines) {
+            if (line.startsWith(field)) {
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,112 @@
+package org.example.benchmark;
+
+import com.google.common.collect.ImmutableRangeSet;
+import com.google.common.collect.Range;
+import com.google.common.hash.HashFunction;
+import com.google.common.io.Files;
+import org.example.hash.MerkleHasher;
+import org.example.hash.MerkleTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大文件指纹的吞吐量，结果中的megabytes一行即MB/s：
+ * streaming是Files.asByteSource(file).hash(hf)，单个Hasher经堆内缓冲区顺序读取；
+ * merkle是MerkleHasher在映射内存上分块并行哈希，parallelism为1和全部核(0)时对比；
+ * rehash是修改一个块后的增量重算，只读取该块。文件在setup中生成，因此测的是文件已在page cache中的情况。
+ * <pre>
+ * java -jar target/benchmarks.jar MerkleHasherBenchmark -p function=xxHash64
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class MerkleHasherBenchmark {
+    static final int CHUNK_SIZE = 4 << 20;
+
+    @Param({"1073741824"})
+    public long fileSize;
+
+    @Param({"murmur3_128", "xxHash64"})
+    public String function;
+
+    /**
+     * 0表示全部核
+     */
+    @Param({"1", "0"})
+    public int parallelism;
+
+    Path file;
+    HashFunction hf;
+    ForkJoinPool pool;
+    MerkleHasher hasher;
+    MerkleTree tree;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = java.nio.file.Files.createTempFile("merkle", ".bin");
+        byte[] block = new byte[1 << 20];
+        Random random = new Random(42);
+        try (OutputStream out = java.nio.file.Files.newOutputStream(file)) {
+            for (long written = 0; written < fileSize; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, fileSize - written));
+            }
+        }
+        hf = HashFunctionBenchmark.hashFunction(function);
+        pool = new ForkJoinPool(parallelism == 0 ? Runtime.getRuntime().availableProcessors() : parallelism);
+        hasher = MerkleHasher.create(hf, CHUNK_SIZE, pool);
+        tree = hasher.hash(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        java.nio.file.Files.deleteIfExists(file);
+    }
+
+    /**
+     * 与parallelism无关
+     */
+    @Benchmark
+    public Object streaming(Bytes bytes) throws IOException {
+        bytes.megabytes += fileSize >> 20;
+        return Files.asByteSource(file.toFile()).hash(hf);
+    }
+
+    @Benchmark
+    public MerkleTree merkle(Bytes bytes) throws IOException {
+        bytes.megabytes += fileSize >> 20;
+        return hasher.hash(file);
+    }
+
+    /**
+     * 计数按整个文件，即相当于重新计算整个文件的速度
+     */
+    @Benchmark
+    public MerkleTree rehash(Bytes bytes) throws IOException {
+        bytes.megabytes += fileSize >> 20;
+        long offset = fileSize / 2;
+        return hasher.rehash(file, tree, ImmutableRangeSet.of(Range.closedOpen(offset, offset + 1)));
+    }
+}
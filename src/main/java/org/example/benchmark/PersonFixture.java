@@ -0,0 +1,48 @@
+package org.example.benchmark;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
+
+/**
+ * 过滤器、哈希和分片基准共用的Person，与HashDemo中的Person相同的字段和Funnel
+ */
+final class PersonFixture {
+    private PersonFixture() {
+    }
+
+    static final class Person {
+        final int id;
+        final String firstName;
+        final String lastName;
+        final int birthYear;
+
+        Person(int id, String firstName, String lastName, int birthYear) {
+            this.id = id;
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.birthYear = birthYear;
+        }
+    }
+
+    static final Funnel<Person> PERSON_FUNNEL = new Funnel<Person>() {
+        @Override
+        public void funnel(Person person, PrimitiveSink into) {
+            into.putInt(person.id)
+                    .putString(person.firstName, Charsets.UTF_8)
+                    .putString(person.lastName, Charsets.UTF_8)
+                    .putInt(person.birthYear);
+        }
+    };
+
+    /**
+     * id从from开始的count个Person
+     */
+    static Person[] persons(int from, int count) {
+        Person[] persons = new Person[count];
+        for (int i = 0; i < count; i++) {
+            persons[i] = new Person(from + i, "Tim" + (from + i), "Yang", 1998);
+        }
+        return persons;
+    }
+}
@@ -0,0 +1,123 @@
+package org.example.benchmark;
+
+import com.google.common.hash.BloomFilter;
+import org.example.benchmark.PersonFixture.Person;
+import org.example.hash.ScalableBloomFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.example.benchmark.PersonFixture.PERSON_FUNNEL;
+import static org.example.benchmark.PersonFixture.persons;
+
+/**
+ * ScalableBloomFilter(初始容量只有最终元素数的1/1000)与按最终元素数定容的BloomFilter对比：
+ * 插入全部元素的每次put耗时、mightContain耗时(一半命中一半不命中)，以及每个元素占用的位数(setup时打印)。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScalableBloomFilterBenchmark {
+    static final int COUNT = 1 << 20;
+    static final double FPP = 0.01;
+
+    @Param({"scalable", "fixed"})
+    public String impl;
+
+    Person[] present;
+    Person[] probes;
+    Filter filled;
+    int index;
+
+    interface Filter {
+        void put(Person person);
+
+        boolean mightContain(Person person);
+    }
+
+    @Setup
+    public void setup() {
+        present = persons(0, COUNT);
+        Person[] absent = persons(COUNT, COUNT);
+        probes = new Person[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            probes[i] = (i & 1) == 0 ? present[i] : absent[i];
+        }
+        filled = newFilter();
+        for (Person person : present) {
+            filled.put(person);
+        }
+        int falsePositives = 0;
+        for (Person person : absent) {
+            if (filled.mightContain(person)) {
+                falsePositives++;
+            }
+        }
+        long bits = "scalable".equals(impl)
+                ? ((ScalableFilter) filled).filter.bitSize()
+                : ScalableBloomFilter.optimalNumOfBits(COUNT, FPP);
+        System.out.printf("%n%s: %.2f bits/element, measured fpp %.5f%n", impl, (double) bits / COUNT,
+                (double) falsePositives / COUNT);
+    }
+
+    Filter newFilter() {
+        switch (impl) {
+            case "scalable":
+                return new ScalableFilter(ScalableBloomFilter.create(PERSON_FUNNEL, COUNT / 1000, FPP));
+            case "fixed":
+                final BloomFilter<Person> filter = BloomFilter.create(PERSON_FUNNEL, COUNT, FPP);
+                return new Filter() {
+                    @Override
+                    public void put(Person person) {
+                        filter.put(person);
+                    }
+
+                    @Override
+                    public boolean mightContain(Person person) {
+                        return filter.mightContain(person);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("unknown impl: " + impl);
+        }
+    }
+
+    /**
+     * 从空过滤器开始插入全部元素，包含ScalableBloomFilter追加子过滤器的开销
+     */
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public Filter putAll() {
+        Filter filter = newFilter();
+        for (Person person : present) {
+            filter.put(person);
+        }
+        return filter;
+    }
+
+    @Benchmark
+    public boolean mightContain() {
+        return filled.mightContain(probes[index++ & (COUNT - 1)]);
+    }
+
+    static final class ScalableFilter implements Filter {
+        final ScalableBloomFilter<Person> filter;
+
+        ScalableFilter(ScalableBloomFilter<Person> filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public void put(Person person) {
+            filter.put(person);
+        }
+
+        @Override
+        public boolean mightContain(Person person) {
+            return filter.mightContain(person);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.example.benchmark;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashFunction;
+import org.example.benchmark.PersonFixture.Person;
+import org.example.hash.FastHashing;
+import org.example.hash.ShardRouter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.example.benchmark.PersonFixture.PERSON_FUNNEL;
+
+/**
+ * 三种ShardRouter按Person路由的单次耗时，modulo是hash % shards的基准(不含成员变化时的迁移问题)。
+ * setup时按每个分片KEYS_PER_SHARD个键打印负载的变异系数(标准差/均值)和最大值/均值，
+ * 仅抽样本身带来的变异系数约为1/sqrt(KEYS_PER_SHARD)；同时打印加入一个分片时移动的键的比例，与取模对比。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardRouterBenchmark {
+    static final int KEYS_PER_SHARD = 100;
+    static final int PROBES = 1 << 16;
+    static final int MOVEMENT_KEYS = 100_000;
+    static final int VIRTUAL_NODES_PER_WEIGHT = 160;
+
+    @Param({"jump", "rendezvous", "ring"})
+    public String router;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int shards;
+
+    ShardRouter<Person, String> shardRouter;
+    HashFunction hf;
+    String[] nodes;
+    Person[] probes;
+    int index;
+
+    @Setup
+    public void setup() {
+        nodes = new String[shards];
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (int i = 0; i < shards; i++) {
+            nodes[i] = "shard-" + i;
+            weights.put(nodes[i], 1);
+        }
+        shardRouter = emptyRouter(router).withNodes(weights);
+        hf = FastHashing.xxHash64();
+        probes = PersonFixture.persons(0, PROBES);
+
+        int keyCount = KEYS_PER_SHARD * shards;
+        Person[] keys = PersonFixture.persons(0, keyCount);
+        Map<String, Integer> load = new HashMap<>();
+        for (Person key : keys) {
+            load.merge(shardRouter.route(key), 1, Integer::sum);
+        }
+        double mean = (double) keyCount / shards;
+        double sumSquares = 0;
+        int max = 0;
+        for (String node : nodes) {
+            int count = load.getOrDefault(node, 0);
+            sumSquares += (count - mean) * (count - mean);
+            max = Math.max(max, count);
+        }
+        long moduloMoved = 0;
+        for (Person key : keys) {
+            long hash = hf.hashObject(key, PERSON_FUNNEL).asLong();
+            if (Math.floorMod(hash, shards) != Math.floorMod(hash, shards + 1)) {
+                moduloMoved++;
+            }
+        }
+        //rendezvous是O(n)，只用前MOVEMENT_KEYS个键
+        ShardRouter.Movement movement = ShardRouter.movement(shardRouter, shardRouter.withNode("shard-" + shards, 1),
+                Arrays.asList(keys).subList(0, Math.min(keyCount, MOVEMENT_KEYS)));
+        System.out.printf("%n%s shards=%d: load CV=%.3f (sampling alone %.3f), max/mean=%.2f; "
+                        + "adding a shard moves %.4f (minimal %.4f, modulo %.4f)%n",
+                router, shards, Math.sqrt(sumSquares / shards) / mean, 1 / Math.sqrt(KEYS_PER_SHARD), max / mean,
+                movement.movedFraction(), movement.minimalFraction(), (double) moduloMoved / keyCount);
+    }
+
+    static ShardRouter<Person, String> emptyRouter(String name) {
+        switch (name) {
+            case "jump":
+                return ShardRouter.jump(PERSON_FUNNEL);
+            case "rendezvous":
+                return ShardRouter.rendezvous(PERSON_FUNNEL, Funnels.unencodedCharsFunnel());
+            case "ring":
+                return ShardRouter.ring(PERSON_FUNNEL, Funnels.unencodedCharsFunnel(), VIRTUAL_NODES_PER_WEIGHT);
+            default:
+                throw new IllegalArgumentException("Unknown router: " + name);
+        }
+    }
+
+    @Benchmark
+    public String route() {
+        return shardRouter.route(probes[index++ & (PROBES - 1)]);
+    }
+
+    /**
+     * 与router无关
+     */
+    @Benchmark
+    public String modulo() {
+        long hash = hf.hashObject(probes[index++ & (PROBES - 1)], PERSON_FUNNEL).asLong();
+        return nodes[(int) Math.floorMod(hash, (long) shards)];
+    }
+}
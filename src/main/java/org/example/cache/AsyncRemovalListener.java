@@ -0,0 +1,247 @@
+package org.example.cache;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.example.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 异步、批量投递删除通知的RemovalListener。
+ * <p>
+ * 触发淘汰的线程只把通知放进有界队列，由executor上的投递任务每次取出最多maxBatchSize条，一次性交给BatchListener。
+ * 队列满时按OverflowPolicy处理：阻塞等待、丢弃并计数，或者在调用线程上直接投递。
+ * <pre>
+ * AsyncRemovalListener&lt;String, String&gt; listener = new AsyncRemovalListener&lt;&gt;(
+ *         AsyncRemovalListener.forEach(slowListener), executor, 10_000, 256, OverflowPolicy.DROP);
+ * Cache&lt;String, String&gt; cache = CacheBuilder.newBuilder().maximumSize(3).removalListener(listener).build();
+ * </pre>
+ */
+public class AsyncRemovalListener<K, V> implements RemovalListener<K, V> {
+    public enum OverflowPolicy {
+        /**
+         * 调用线程阻塞直到队列有空位
+         */
+        BLOCK,
+        /**
+         * 丢弃这条通知并计数
+         */
+        DROP,
+        /**
+         * 在调用线程上直接投递这条通知
+         */
+        CALLER_RUNS
+    }
+
+    public interface BatchListener<K, V> {
+        void onRemoval(List<RemovalNotification<K, V>> notifications);
+    }
+
+    private final BatchListener<K, V> listener;
+    private final Executor executor;
+    private final BlockingQueue<Queued<K, V>> queue;
+    private final int maxBatchSize;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final LongAdder deliveredCount = new LongAdder();
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder callerRunsCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final @Nullable Histogram deliveryDelayNanos;
+
+    public AsyncRemovalListener(BatchListener<K, V> listener, Executor executor, int capacity, int maxBatchSize,
+                                OverflowPolicy overflowPolicy) {
+        this(listener, executor, capacity, maxBatchSize, overflowPolicy, null);
+    }
+
+    /**
+     * @param deliveryDelayNanos 记录每条通知从淘汰(进入队列)到交给listener的耗时，可为null
+     */
+    public AsyncRemovalListener(BatchListener<K, V> listener, Executor executor, int capacity, int maxBatchSize,
+                                OverflowPolicy overflowPolicy, @Nullable Histogram deliveryDelayNanos) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        this.listener = Preconditions.checkNotNull(listener);
+        this.executor = Preconditions.checkNotNull(executor);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.overflowPolicy = Preconditions.checkNotNull(overflowPolicy);
+        this.deliveryDelayNanos = deliveryDelayNanos;
+    }
+
+    /**
+     * 把逐条处理的RemovalListener适配成BatchListener
+     */
+    public static <K, V> BatchListener<K, V> forEach(final RemovalListener<K, V> listener) {
+        Preconditions.checkNotNull(listener);
+        return new BatchListener<K, V>() {
+            @Override
+            public void onRemoval(List<RemovalNotification<K, V>> notifications) {
+                for (RemovalNotification<K, V> notification : notifications) {
+                    listener.onRemoval(notification);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void onRemoval(RemovalNotification<K, V> notification) {
+        Queued<K, V> queued = new Queued<>(notification);
+        if (!queue.offer(queued)) {
+            switch (overflowPolicy) {
+                case BLOCK:
+                    scheduleDrain();
+                    Uninterruptibles.putUninterruptibly(queue, queued);
+                    break;
+                case DROP:
+                    droppedCount.increment();
+                    break;
+                case CALLER_RUNS:
+                    callerRunsCount.increment();
+                    deliver(Collections.singletonList(queued));
+                    break;
+                default:
+                    throw new AssertionError(overflowPolicy);
+            }
+        }
+        scheduleDrain();
+    }
+
+    public Stats stats() {
+        return new Stats(queue.size(), deliveredCount.sum(), batchCount.sum(), droppedCount.sum(),
+                callerRunsCount.sum(), failureCount.sum());
+    }
+
+    /**
+     * 同一时刻最多只有一个投递任务，保证通知按入队顺序投递
+     */
+    private void scheduleDrain() {
+        if (!queue.isEmpty() && draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            List<Queued<K, V>> batch = new ArrayList<>(maxBatchSize);
+            while (queue.drainTo(batch, maxBatchSize) > 0) {
+                deliver(batch);
+                batch.clear();
+            }
+        } finally {
+            draining.set(false);
+        }
+        //投递任务结束前可能又有通知入队
+        scheduleDrain();
+    }
+
+    private void deliver(List<Queued<K, V>> batch) {
+        List<RemovalNotification<K, V>> notifications = new ArrayList<>(batch.size());
+        long now = System.nanoTime();
+        for (Queued<K, V> queued : batch) {
+            notifications.add(queued.notification);
+            if (deliveryDelayNanos != null) {
+                deliveryDelayNanos.record(now - queued.enqueuedNanos);
+            }
+        }
+        try {
+            listener.onRemoval(notifications);
+            deliveredCount.add(batch.size());
+            batchCount.increment();
+        } catch (RuntimeException e) {
+            failureCount.increment();
+            e.printStackTrace();
+        }
+    }
+
+    private static final class Queued<K, V> {
+        final RemovalNotification<K, V> notification;
+        final long enqueuedNanos = System.nanoTime();
+
+        Queued(RemovalNotification<K, V> notification) {
+            this.notification = notification;
+        }
+    }
+
+    public static final class Stats {
+        private final int queueDepth;
+        private final long deliveredCount;
+        private final long batchCount;
+        private final long droppedCount;
+        private final long callerRunsCount;
+        private final long failureCount;
+
+        Stats(int queueDepth, long deliveredCount, long batchCount, long droppedCount, long callerRunsCount,
+              long failureCount) {
+            this.queueDepth = queueDepth;
+            this.deliveredCount = deliveredCount;
+            this.batchCount = batchCount;
+            this.droppedCount = droppedCount;
+            this.callerRunsCount = callerRunsCount;
+            this.failureCount = failureCount;
+        }
+
+        public int queueDepth() {
+            return queueDepth;
+        }
+
+        public long deliveredCount() {
+            return deliveredCount;
+        }
+
+        public long batchCount() {
+            return batchCount;
+        }
+
+        public long droppedCount() {
+            return droppedCount;
+        }
+
+        public long callerRunsCount() {
+            return callerRunsCount;
+        }
+
+        /**
+         * listener抛出异常的批次数
+         */
+        public long failureCount() {
+            return failureCount;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("queueDepth", queueDepth)
+                    .add("deliveredCount", deliveredCount)
+                    .add("batchCount", batchCount)
+                    .add("droppedCount", droppedCount)
+                    .add("callerRunsCount", callerRunsCount)
+                    .add("failureCount", failureCount)
+                    .toString();
+        }
+    }
+}
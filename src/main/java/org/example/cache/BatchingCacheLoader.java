@@ -0,0 +1,201 @@
+package org.example.cache;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.SettableFuture;
+import org.example.metrics.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把各线程的单key加载合并成批量加载的CacheLoader。
+ * <p>
+ * 未命中的key先进入当前批次，批次达到maxBatchSize时由凑满批次的线程立即发起一次loadAll，
+ * 否则在批次第一个key进入后等待maxWait，由scheduler发起loadAll。同一个key已在批次中时直接等待同一个结果(single-flight)。
+ * scheduler拒绝调度(例如已经关闭)时，不再等待maxWait，由当前线程立即加载这个批次。
+ * <pre>
+ * LoadingCache&lt;String, String&gt; cache = CacheBuilder.newBuilder()
+ *         .build(new BatchingCacheLoader&lt;&gt;(bulkLoader, 100, 2, TimeUnit.MILLISECONDS, scheduler));
+ * </pre>
+ */
+public class BatchingCacheLoader<K, V> extends CacheLoader<K, V> {
+    private final CacheLoader<K, V> bulkLoader;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object lock = new Object();
+    private Map<K, Pending<V>> batch = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    private final Histogram batchSizes = new Histogram();
+    private final Histogram waitNanos = new Histogram();
+
+    /**
+     * @param bulkLoader 必须实现loadAll，每个批次调用一次
+     */
+    public BatchingCacheLoader(CacheLoader<K, V> bulkLoader, int maxBatchSize, long maxWait, TimeUnit unit,
+                               ScheduledExecutorService scheduler) {
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        Preconditions.checkArgument(maxWait >= 0, "maxWait must be non-negative");
+        this.bulkLoader = Preconditions.checkNotNull(bulkLoader);
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.scheduler = Preconditions.checkNotNull(scheduler);
+    }
+
+    @Override
+    public V load(K key) throws Exception {
+        return await(enqueue(key));
+    }
+
+    /**
+     * getAll未命中的key同样并入批次
+     */
+    @Override
+    public Map<K, V> loadAll(Iterable<? extends K> keys) throws Exception {
+        Map<K, Pending<V>> pending = new LinkedHashMap<>();
+        for (K key : keys) {
+            pending.put(key, enqueue(key));
+        }
+        ImmutableMap.Builder<K, V> result = ImmutableMap.builder();
+        for (Map.Entry<K, Pending<V>> entry : pending.entrySet()) {
+            result.put(entry.getKey(), await(entry.getValue()));
+        }
+        return result.build();
+    }
+
+    public Stats stats() {
+        return new Stats(batchSizes.snapshot(), waitNanos.snapshot());
+    }
+
+    private Pending<V> enqueue(K key) {
+        Map<K, Pending<V>> full = null;
+        Pending<V> pending;
+        synchronized (lock) {
+            pending = batch.get(key);
+            if (pending != null) {
+                return pending;
+            }
+            pending = new Pending<>();
+            batch.put(key, pending);
+            if (batch.size() >= maxBatchSize) {
+                full = takeBatch();
+            } else if (batch.size() == 1) {
+                try {
+                    scheduledFlush = scheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            Map<K, Pending<V>> toFlush;
+                            synchronized (lock) {
+                                toFlush = takeBatch();
+                            }
+                            flush(toFlush);
+                        }
+                    }, maxWaitNanos, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    //不在这里加载的话没有任务会发出这个批次，等待的线程会一直挂起
+                    full = takeBatch();
+                }
+            }
+        }
+        if (full != null) {
+            flush(full);
+        }
+        return pending;
+    }
+
+    private Map<K, Pending<V>> takeBatch() {
+        Map<K, Pending<V>> taken = batch;
+        batch = new LinkedHashMap<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return taken;
+    }
+
+    private void flush(Map<K, Pending<V>> toFlush) {
+        if (toFlush.isEmpty()) {
+            return;
+        }
+        batchSizes.record(toFlush.size());
+        long now = System.nanoTime();
+        for (Pending<V> pending : toFlush.values()) {
+            waitNanos.record(now - pending.enqueuedNanos);
+        }
+        try {
+            Map<K, V> loaded = bulkLoader.loadAll(toFlush.keySet());
+            for (Map.Entry<K, Pending<V>> entry : toFlush.entrySet()) {
+                V value = loaded.get(entry.getKey());
+                if (value == null) {
+                    entry.getValue().future.setException(
+                            new InvalidCacheLoadException("loadAll failed to return a value for " + entry.getKey()));
+                } else {
+                    entry.getValue().future.set(value);
+                }
+            }
+        } catch (Throwable t) {
+            for (Pending<V> pending : toFlush.values()) {
+                pending.future.setException(t);
+            }
+        }
+    }
+
+    private static <V> V await(Pending<V> pending) throws Exception {
+        try {
+            return pending.future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    private static final class Pending<V> {
+        final SettableFuture<V> future = SettableFuture.create();
+        final long enqueuedNanos = System.nanoTime();
+    }
+
+    public static final class Stats {
+        private final Histogram.Snapshot batchSizes;
+        private final Histogram.Snapshot waitNanos;
+
+        Stats(Histogram.Snapshot batchSizes, Histogram.Snapshot waitNanos) {
+            this.batchSizes = batchSizes;
+            this.waitNanos = waitNanos;
+        }
+
+        /**
+         * 每次loadAll的key个数
+         */
+        public Histogram.Snapshot batchSizes() {
+            return batchSizes;
+        }
+
+        /**
+         * 每个key从进入批次到批次发出的等待时间(纳秒)
+         */
+        public Histogram.Snapshot waitNanos() {
+            return waitNanos;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("batchSizes", batchSizes)
+                    .add("waitNanos", waitNanos)
+                    .toString();
+        }
+    }
+}
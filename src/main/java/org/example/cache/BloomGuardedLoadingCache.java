@@ -0,0 +1,403 @@
+package org.example.cache;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.google.common.cache.AbstractLoadingCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 用BloomFilter挡住不存在的key的LoadingCache，防止缓存穿透。
+ * <p>
+ * 读取顺序：缓存命中直接返回；BloomFilter判定一定不存在时不调用loader；短TTL的负缓存中记录过不存在时也不调用loader；
+ * 否则调用loader，loader返回null表示key不存在，结果放进负缓存。
+ * BloomFilter在build时由keySource全量构建，之后put和加载成功的key增量加入，后台按rebuildInterval重新从keySource构建，
+ * 以去掉已删除的key并按当前数据量重新定容。后端新增数据时需要调用markPresent，否则要等下一次重建才能读到。
+ * <pre>
+ * BloomGuardedLoadingCache&lt;String, String&gt; cache = BloomGuardedLoadingCache.newBuilder(Funnels.unencodedCharsFunnel())
+ *         .expectedInsertions(1_000_000)
+ *         .negativeTtl(10, TimeUnit.SECONDS)
+ *         .rebuildEvery(10, TimeUnit.MINUTES, scheduler)
+ *         .build(CacheBuilder.newBuilder().maximumSize(10_000), loader, allKeys);
+ * Optional&lt;String&gt; value = cache.find("key");
+ * </pre>
+ */
+public class BloomGuardedLoadingCache<K, V> extends AbstractLoadingCache<K, V> {
+    private final LoadingCache<K, V> cache;
+    private final Cache<K, Boolean> negativeCache;
+    private final Funnel<? super K> funnel;
+    private final Supplier<? extends Iterable<? extends K>> keySource;
+    private final int minExpectedInsertions;
+    private final double fpp;
+
+    private volatile BloomFilter<K> filter;
+    /**
+     * 重建期间新加入的key同时写入正在构建的filter
+     */
+    private volatile @Nullable BloomFilter<K> building;
+
+    private final LongAdder avoidedLoads = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+
+    private BloomGuardedLoadingCache(Builder<? super K> builder, CacheBuilder<? super K, ? super V> cacheBuilder,
+                                     final CacheLoader<K, V> loader,
+                                     Supplier<? extends Iterable<? extends K>> keySource) {
+        @SuppressWarnings("unchecked")
+        Funnel<? super K> funnel = (Funnel<? super K>) builder.funnel;
+        this.funnel = funnel;
+        this.keySource = keySource;
+        this.minExpectedInsertions = builder.expectedInsertions;
+        this.fpp = builder.fpp;
+        this.negativeCache = CacheBuilder.newBuilder()
+                .ticker(builder.ticker)
+                .maximumSize(builder.maxNegativeEntries)
+                .expireAfterWrite(builder.negativeTtlNanos, TimeUnit.NANOSECONDS)
+                .build();
+        this.cache = cacheBuilder.build(new CacheLoader<K, V>() {
+            @Override
+            public V load(K key) throws Exception {
+                V value = loader.load(key);
+                if (value == null) {
+                    throw KeyAbsentException.INSTANCE;
+                }
+                addToFilter(key);
+                return value;
+            }
+        });
+        rebuild();
+    }
+
+    public static <K> Builder<K> newBuilder(Funnel<? super K> funnel) {
+        return new Builder<>(funnel);
+    }
+
+    /**
+     * 读取数据，key不存在时返回absent
+     */
+    public Optional<V> find(K key) throws ExecutionException {
+        V value = cache.getIfPresent(key);
+        if (value != null) {
+            return Optional.of(value);
+        }
+        if (!filter.mightContain(key)) {
+            avoidedLoads.increment();
+            return Optional.absent();
+        }
+        if (negativeCache.getIfPresent(key) != null) {
+            negativeHits.increment();
+            falsePositives.increment();
+            return Optional.absent();
+        }
+        try {
+            return Optional.of(cache.get(key));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof KeyAbsentException) {
+                falsePositives.increment();
+                negativeCache.put(key, Boolean.TRUE);
+                return Optional.absent();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * key不存在时抛出InvalidCacheLoadException，与loader返回null时Guava的行为一致
+     */
+    @Override
+    public V get(K key) throws ExecutionException {
+        Optional<V> value = find(key);
+        if (!value.isPresent()) {
+            throw new CacheLoader.InvalidCacheLoadException("no value for key " + key);
+        }
+        return value.get();
+    }
+
+    @Override
+    public @Nullable V getIfPresent(Object key) {
+        return cache.getIfPresent(key);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        addToFilter(key);
+        negativeCache.invalidate(key);
+        cache.put(key, value);
+    }
+
+    /**
+     * 后端新增了key，让BloomFilter和负缓存不再把它当作不存在
+     */
+    public void markPresent(K key) {
+        addToFilter(key);
+        negativeCache.invalidate(key);
+    }
+
+    @Override
+    public void refresh(K key) {
+        cache.refresh(key);
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        cache.invalidate(key);
+        negativeCache.invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.invalidateAll();
+        negativeCache.invalidateAll();
+    }
+
+    @Override
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void cleanUp() {
+        cache.cleanUp();
+        negativeCache.cleanUp();
+    }
+
+    /**
+     * 从keySource重新构建BloomFilter，容量取配置值与当前元素数的较大者。build时和后台任务中调用
+     */
+    public synchronized void rebuild() {
+        long current = filter == null ? 0 : filter.approximateElementCount();
+        long expected = Math.max(minExpectedInsertions, current + current / 2);
+        BloomFilter<K> next = BloomFilter.create(funnel, expected, fpp);
+        building = next;
+        try {
+            for (K key : keySource.get()) {
+                next.put(key);
+            }
+            filter = next;
+            rebuilds.increment();
+        } finally {
+            building = null;
+        }
+    }
+
+    /**
+     * 穿透防护的统计，缓存本身的命中率见stats()
+     */
+    public Stats guardStats() {
+        BloomFilter<K> current = filter;
+        return new Stats(avoidedLoads.sum(), falsePositives.sum(), negativeHits.sum(), rebuilds.sum(),
+                current.expectedFpp(), current.approximateElementCount());
+    }
+
+    /**
+     * 先读building再读filter：读到building为null时，之后开始的重建会从keySource读到这个key；
+     * 否则key写入正在构建的filter，无论rebuild是否已经把它换上。反过来读的话，rebuild可能恰好在两次读取之间
+     * 完成替换并清空building，key只进了被丢弃的旧filter
+     */
+    private void addToFilter(K key) {
+        BloomFilter<K> next = building;
+        BloomFilter<K> current = filter;
+        if (next != null) {
+            next.put(key);
+        }
+        if (current != next) {
+            current.put(key);
+        }
+    }
+
+    /**
+     * loader返回null时在内部缓存中抛出，不进入调用方
+     */
+    private static final class KeyAbsentException extends Exception {
+        static final KeyAbsentException INSTANCE = new KeyAbsentException();
+
+        private KeyAbsentException() {
+            super("key absent", null, false, false);
+        }
+    }
+
+    public static final class Stats {
+        private final long avoidedLoadCount;
+        private final long falsePositiveCount;
+        private final long negativeHitCount;
+        private final long rebuildCount;
+        private final double expectedFpp;
+        private final long approximateElementCount;
+
+        Stats(long avoidedLoadCount, long falsePositiveCount, long negativeHitCount, long rebuildCount,
+              double expectedFpp, long approximateElementCount) {
+            this.avoidedLoadCount = avoidedLoadCount;
+            this.falsePositiveCount = falsePositiveCount;
+            this.negativeHitCount = negativeHitCount;
+            this.rebuildCount = rebuildCount;
+            this.expectedFpp = expectedFpp;
+            this.approximateElementCount = approximateElementCount;
+        }
+
+        /**
+         * BloomFilter判定不存在、没有调用loader的次数
+         */
+        public long avoidedLoadCount() {
+            return avoidedLoadCount;
+        }
+
+        /**
+         * BloomFilter判定可能存在、实际不存在的次数，包括命中负缓存的
+         */
+        public long falsePositiveCount() {
+            return falsePositiveCount;
+        }
+
+        public long negativeHitCount() {
+            return negativeHitCount;
+        }
+
+        public long rebuildCount() {
+            return rebuildCount;
+        }
+
+        /**
+         * 实际观测的误判率：不存在的key中被BloomFilter放过的比例
+         */
+        public double observedFalsePositiveRate() {
+            long absent = avoidedLoadCount + falsePositiveCount;
+            return absent == 0 ? 0.0 : (double) falsePositiveCount / absent;
+        }
+
+        /**
+         * 按当前BloomFilter的填充程度估算的误判率
+         */
+        public double expectedFpp() {
+            return expectedFpp;
+        }
+
+        public long approximateElementCount() {
+            return approximateElementCount;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("avoidedLoadCount", avoidedLoadCount)
+                    .add("falsePositiveCount", falsePositiveCount)
+                    .add("negativeHitCount", negativeHitCount)
+                    .add("rebuildCount", rebuildCount)
+                    .add("observedFalsePositiveRate", String.format("%.4f", observedFalsePositiveRate()))
+                    .add("expectedFpp", String.format("%.4f", expectedFpp))
+                    .add("approximateElementCount", approximateElementCount)
+                    .toString();
+        }
+    }
+
+    public static final class Builder<K> {
+        private final Funnel<? super K> funnel;
+        private int expectedInsertions = 10_000;
+        private double fpp = 0.01;
+        private long negativeTtlNanos = TimeUnit.SECONDS.toNanos(10);
+        private long maxNegativeEntries = 100_000;
+        private long rebuildNanos = -1;
+        private ScheduledExecutorService scheduler;
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Builder(Funnel<? super K> funnel) {
+            this.funnel = Preconditions.checkNotNull(funnel);
+        }
+
+        /**
+         * BloomFilter的最小容量，重建时按实际元素数放大。默认10000
+         */
+        public Builder<K> expectedInsertions(int expectedInsertions) {
+            Preconditions.checkArgument(expectedInsertions > 0, "expectedInsertions must be positive");
+            this.expectedInsertions = expectedInsertions;
+            return this;
+        }
+
+        /**
+         * 默认0.01
+         */
+        public Builder<K> fpp(double fpp) {
+            Preconditions.checkArgument(fpp > 0 && fpp < 1, "fpp must be in (0, 1): %s", fpp);
+            this.fpp = fpp;
+            return this;
+        }
+
+        /**
+         * 不存在的结果缓存多久，默认10秒
+         */
+        public Builder<K> negativeTtl(long duration, TimeUnit unit) {
+            Preconditions.checkArgument(duration > 0, "duration must be positive");
+            this.negativeTtlNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 负缓存最多保存的key个数，默认100000
+         */
+        public Builder<K> maxNegativeEntries(long maxNegativeEntries) {
+            Preconditions.checkArgument(maxNegativeEntries >= 0, "maxNegativeEntries must be non-negative");
+            this.maxNegativeEntries = maxNegativeEntries;
+            return this;
+        }
+
+        /**
+         * 在scheduler上定期从keySource重建BloomFilter，不设置则只在build时构建一次
+         */
+        public Builder<K> rebuildEvery(long interval, TimeUnit unit, ScheduledExecutorService scheduler) {
+            Preconditions.checkArgument(interval > 0, "interval must be positive");
+            this.rebuildNanos = unit.toNanos(interval);
+            this.scheduler = Preconditions.checkNotNull(scheduler);
+            return this;
+        }
+
+        public Builder<K> ticker(Ticker ticker) {
+            this.ticker = Preconditions.checkNotNull(ticker);
+            return this;
+        }
+
+        /**
+         * @param loader    返回null表示key不存在
+         * @param keySource 返回后端全部key，用于构建BloomFilter
+         */
+        public <K1 extends K, V> BloomGuardedLoadingCache<K1, V> build(CacheBuilder<? super K1, ? super V> cacheBuilder,
+                                                                       CacheLoader<K1, V> loader,
+                                                                       Supplier<? extends Iterable<? extends K1>> keySource) {
+            final BloomGuardedLoadingCache<K1, V> cache = new BloomGuardedLoadingCache<>(this,
+                    Preconditions.checkNotNull(cacheBuilder), Preconditions.checkNotNull(loader),
+                    Preconditions.checkNotNull(keySource));
+            if (scheduler != null) {
+                scheduler.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            cache.rebuild();
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }, rebuildNanos, rebuildNanos, TimeUnit.NANOSECONDS);
+            }
+            return cache;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * 有界缓存的构建器，写法与CacheBuilder一致，通过evictionPolicy选择淘汰策略：
+ * <pre>
+ * Cache&lt;String, String&gt; cache = BoundedCacheBuilder.newBuilder()
+ *         .maximumSize(10_000)
+ *         .evictionPolicy(BoundedCacheBuilder.EvictionPolicy.W_TINY_LFU)
+ *         .build();
+ * </pre>
+ */
+public final class BoundedCacheBuilder {
+    public enum EvictionPolicy {
+        /**
+         * CacheBuilder.maximumSize自带的(分段)LRU
+         */
+        LRU,
+        /**
+         * 窗口LRU + 频率准入 + SLRU主区，见TinyLfuCache
+         */
+        W_TINY_LFU
+    }
+
+    private static final double DEFAULT_WINDOW_RATIO = 0.01;
+
+    private long maximumSize = -1;
+    private EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
+    private double windowRatio = DEFAULT_WINDOW_RATIO;
+    private boolean recordStats;
+
+    private BoundedCacheBuilder() {
+    }
+
+    public static BoundedCacheBuilder newBuilder() {
+        return new BoundedCacheBuilder();
+    }
+
+    public BoundedCacheBuilder maximumSize(long maximumSize) {
+        Preconditions.checkState(this.maximumSize == -1, "maximum size was already set to %s", this.maximumSize);
+        Preconditions.checkArgument(maximumSize > 0, "maximum size must be positive");
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    public BoundedCacheBuilder evictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = Preconditions.checkNotNull(evictionPolicy);
+        return this;
+    }
+
+    /**
+     * 准入窗口占总容量的比例，仅对W_TINY_LFU生效，默认1%
+     */
+    public BoundedCacheBuilder windowRatio(double windowRatio) {
+        Preconditions.checkArgument(windowRatio > 0 && windowRatio < 1, "windowRatio must be in (0, 1)");
+        this.windowRatio = windowRatio;
+        return this;
+    }
+
+    public BoundedCacheBuilder recordStats() {
+        this.recordStats = true;
+        return this;
+    }
+
+    public <K, V> Cache<K, V> build() {
+        Preconditions.checkState(maximumSize != -1, "maximumSize is required");
+        switch (evictionPolicy) {
+            case W_TINY_LFU:
+                return new TinyLfuCache<>(maximumSize, windowRatio, recordStats);
+            case LRU:
+            default:
+                CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maximumSize);
+                if (recordStats) {
+                    builder.recordStats();
+                }
+                return builder.build();
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package org.example.cache;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.ForwardingCache;
+import com.google.common.cache.ForwardingLoadingCache;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.math.IntMath;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.example.metrics.HeavyHitters;
+import org.example.metrics.Histogram;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 可选的Cache/LoadingCache观测层：热点key、热点未命中key，以及每个segment上加锁操作的耗时。
+ * <p>
+ * 读和未命中按1/sampleInterval采样进入Count-Min Sketch + Top-K，报告时乘回sampleInterval。
+ * Guava没有暴露segment锁的等待时间，这里按Guava相同的hash把key映射到segment，记录put、invalidate、加载等
+ * 需要获取segment锁的操作的耗时(等待+持有)。segments需要与缓存实际的segment个数一致，
+ * 设置了maximumSize/maximumWeight时Guava会减少segment个数，用guavaSegments计算。
+ * <pre>
+ * CacheInstrumentation instrumentation = new CacheInstrumentation(CacheInstrumentation.guavaSegments(4, 10_000), 16, 20);
+ * LoadingCache&lt;String, String&gt; cache = instrumentation.instrument(CacheBuilder.newBuilder().maximumSize(10_000).build(loader));
+ * instrumentation.registerMBean("userCache");
+ * </pre>
+ */
+public class CacheInstrumentation implements CacheInstrumentationMXBean {
+    private final int segmentShift;
+    private final int segmentMask;
+    private final int sampleInterval;
+    private final int sampleMask;
+    private final HeavyHitters reads;
+    private final HeavyHitters misses;
+    private final Histogram[] segmentLockedNanos;
+    private final AtomicLong[] segmentCounts;
+
+    /**
+     * @param segments       与被观测缓存的segment个数一致，见guavaSegments
+     * @param sampleInterval 每多少次读采样一次，向上取整为2的幂，1表示全部记录
+     * @param topK           保留的热点key个数
+     */
+    public CacheInstrumentation(int segments, int sampleInterval, int topK) {
+        Preconditions.checkArgument(segments > 0 && segments <= 1 << 16, "segments out of range: %s", segments);
+        Preconditions.checkArgument(sampleInterval > 0, "sampleInterval must be positive");
+        int segmentCount = IntMath.ceilingPowerOfTwo(segments);
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+        this.segmentMask = segmentCount - 1;
+        this.sampleInterval = IntMath.ceilingPowerOfTwo(sampleInterval);
+        this.sampleMask = this.sampleInterval - 1;
+        this.reads = new HeavyHitters(topK, 1 << 14);
+        this.misses = new HeavyHitters(topK, 1 << 14);
+        this.segmentLockedNanos = new Histogram[segmentCount];
+        this.segmentCounts = new AtomicLong[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segmentLockedNanos[i] = new Histogram();
+            segmentCounts[i] = new AtomicLong();
+        }
+    }
+
+    public <K, V> Cache<K, V> instrument(final Cache<K, V> cache) {
+        return new ForwardingCache<K, V>() {
+            @Override
+            protected Cache<K, V> delegate() {
+                return cache;
+            }
+
+            @Override
+            public @Nullable V getIfPresent(Object key) {
+                V value = cache.getIfPresent(key);
+                recordRead(key, value == null);
+                return value;
+            }
+
+            @Override
+            public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+                return timedGet(cache, key, valueLoader);
+            }
+
+            @Override
+            public void put(K key, V value) {
+                long start = System.nanoTime();
+                cache.put(key, value);
+                recordLocked(key, start);
+            }
+
+            @Override
+            public void invalidate(Object key) {
+                long start = System.nanoTime();
+                cache.invalidate(key);
+                recordLocked(key, start);
+            }
+        };
+    }
+
+    public <K, V> LoadingCache<K, V> instrument(final LoadingCache<K, V> cache) {
+        return new ForwardingLoadingCache<K, V>() {
+            @Override
+            protected LoadingCache<K, V> delegate() {
+                return cache;
+            }
+
+            @Override
+            public @Nullable V getIfPresent(Object key) {
+                V value = cache.getIfPresent(key);
+                recordRead(key, value == null);
+                return value;
+            }
+
+            @Override
+            public V get(K key) throws ExecutionException {
+                if (isPresent(cache, key)) {
+                    return cache.get(key);
+                }
+                long start = System.nanoTime();
+                try {
+                    return cache.get(key);
+                } finally {
+                    recordLocked(key, start);
+                }
+            }
+
+            @Override
+            public V getUnchecked(K key) {
+                if (isPresent(cache, key)) {
+                    return cache.getUnchecked(key);
+                }
+                long start = System.nanoTime();
+                try {
+                    return cache.getUnchecked(key);
+                } finally {
+                    recordLocked(key, start);
+                }
+            }
+
+            @Override
+            public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+                return timedGet(cache, key, valueLoader);
+            }
+
+            @Override
+            public void put(K key, V value) {
+                long start = System.nanoTime();
+                cache.put(key, value);
+                recordLocked(key, start);
+            }
+
+            @Override
+            public void invalidate(Object key) {
+                long start = System.nanoTime();
+                cache.invalidate(key);
+                recordLocked(key, start);
+            }
+        };
+    }
+
+    /**
+     * 以"org.example.cache:type=CacheInstrumentation,name=..."注册到平台MBeanServer
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("org.example.cache:type=CacheInstrumentation,name="
+                + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    public Snapshot snapshot() {
+        ImmutableList.Builder<Histogram.Snapshot> segments = ImmutableList.builder();
+        for (Histogram histogram : segmentLockedNanos) {
+            segments.add(histogram.snapshot());
+        }
+        return new Snapshot(scaled(reads.top()), scaled(misses.top()), segments.build());
+    }
+
+    @Override
+    public Map<String, Long> getTopReadKeys() {
+        return byString(snapshot().topReads());
+    }
+
+    @Override
+    public Map<String, Long> getTopMissKeys() {
+        return byString(snapshot().topMisses());
+    }
+
+    @Override
+    public long[] getSegmentLockedOperationCounts() {
+        long[] counts = new long[segmentCounts.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = segmentCounts[i].get();
+        }
+        return counts;
+    }
+
+    @Override
+    public long[] getSegmentLockedNanosP99() {
+        long[] p99 = new long[segmentLockedNanos.length];
+        for (int i = 0; i < p99.length; i++) {
+            p99[i] = segmentLockedNanos[i].snapshot().percentile(99);
+        }
+        return p99;
+    }
+
+    @Override
+    public long[] getSegmentLockedNanosMax() {
+        long[] max = new long[segmentLockedNanos.length];
+        for (int i = 0; i < max.length; i++) {
+            max[i] = segmentLockedNanos[i].snapshot().max();
+        }
+        return max;
+    }
+
+    @Override
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * 清空热点统计，segment耗时直方图是累计值，不受影响
+     */
+    @Override
+    public void reset() {
+        reads.reset();
+        misses.reset();
+    }
+
+    private <K, V> V timedGet(Cache<K, V> cache, K key, Callable<? extends V> valueLoader)
+            throws ExecutionException {
+        if (isPresent(cache, key)) {
+            return cache.get(key, valueLoader);
+        }
+        long start = System.nanoTime();
+        try {
+            return cache.get(key, valueLoader);
+        } finally {
+            recordLocked(key, start);
+        }
+    }
+
+    /**
+     * 用asMap().containsKey判断命中：不计入被观测缓存的CacheStats，也不触发refreshAfterWrite，
+     * 之后只调用一次get，缓存自己的hit/miss统计不会因为观测层而重复计数
+     */
+    private boolean isPresent(Cache<?, ?> cache, Object key) {
+        boolean present = cache.asMap().containsKey(key);
+        recordRead(key, !present);
+        return present;
+    }
+
+    private void recordRead(Object key, boolean miss) {
+        if ((ThreadLocalRandom.current().nextInt() & sampleMask) == 0) {
+            reads.add(key);
+            if (miss) {
+                misses.add(key);
+            }
+        }
+    }
+
+    private void recordLocked(Object key, long startNanos) {
+        int segment = segmentFor(key);
+        segmentLockedNanos[segment].record(System.nanoTime() - startNanos);
+        segmentCounts[segment].incrementAndGet();
+    }
+
+    /**
+     * 与Guava LocalCache相同的segment个数：concurrencyLevel向上取整为2的幂(默认4)，
+     * 但设置了maximumSize/maximumWeight时每个segment至少分到20的容量，例如maximumSize(3)只有1个segment
+     *
+     * @param maximumWeight maximumSize或maximumWeight，都没有设置时传-1
+     */
+    public static int guavaSegments(int concurrencyLevel, long maximumWeight) {
+        Preconditions.checkArgument(concurrencyLevel > 0, "concurrencyLevel must be positive");
+        int level = Math.min(concurrencyLevel, 1 << 16);
+        int segmentCount = 1;
+        while (segmentCount < level && (maximumWeight < 0 || segmentCount * 20L <= maximumWeight)) {
+            segmentCount <<= 1;
+        }
+        return segmentCount;
+    }
+
+    /**
+     * 与Guava LocalCache相同的二次hash和segment选择
+     */
+    int segmentFor(Object key) {
+        int h = key.hashCode();
+        h += (h << 15) ^ 0xffffcd7d;
+        h ^= (h >>> 10);
+        h += (h << 3);
+        h ^= (h >>> 6);
+        h += (h << 2) + (h << 14);
+        h ^= (h >>> 16);
+        return segmentShift == 32 ? 0 : (h >>> segmentShift) & segmentMask;
+    }
+
+    private ImmutableMap<Object, Long> scaled(ImmutableMap<Object, Long> top) {
+        ImmutableMap.Builder<Object, Long> result = ImmutableMap.builder();
+        for (Map.Entry<Object, Long> entry : top.entrySet()) {
+            result.put(entry.getKey(), entry.getValue() * sampleInterval);
+        }
+        return result.build();
+    }
+
+    private static Map<String, Long> byString(Map<Object, Long> top) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<Object, Long> entry : top.entrySet()) {
+            result.merge(String.valueOf(entry.getKey()), entry.getValue(), Long::sum);
+        }
+        return result;
+    }
+
+    public static final class Snapshot {
+        private final ImmutableMap<Object, Long> topReads;
+        private final ImmutableMap<Object, Long> topMisses;
+        private final ImmutableList<Histogram.Snapshot> segmentLockedNanos;
+
+        Snapshot(ImmutableMap<Object, Long> topReads, ImmutableMap<Object, Long> topMisses,
+                 ImmutableList<Histogram.Snapshot> segmentLockedNanos) {
+            this.topReads = topReads;
+            this.topMisses = topMisses;
+            this.segmentLockedNanos = segmentLockedNanos;
+        }
+
+        /**
+         * 读次数最多的key及估计次数，从高到低
+         */
+        public ImmutableMap<Object, Long> topReads() {
+            return topReads;
+        }
+
+        public ImmutableMap<Object, Long> topMisses() {
+            return topMisses;
+        }
+
+        /**
+         * 下标为segment编号
+         */
+        public ImmutableList<Histogram.Snapshot> segmentLockedNanos() {
+            return segmentLockedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("topReads", topReads)
+                    .add("topMisses", topMisses)
+                    .add("segmentLockedNanos", segmentLockedNanos)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.example.cache;
+
+import java.util.Map;
+
+/**
+ * CacheInstrumentation在JMX中暴露的属性，key以toString()展示
+ */
+public interface CacheInstrumentationMXBean {
+    Map<String, Long> getTopReadKeys();
+
+    Map<String, Long> getTopMissKeys();
+
+    long[] getSegmentLockedOperationCounts();
+
+    long[] getSegmentLockedNanosP99();
+
+    long[] getSegmentLockedNanosMax();
+
+    int getSampleInterval();
+
+    void reset();
+}
@@ -0,0 +1,255 @@
+package org.example.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Utf8;
+import com.google.common.collect.AbstractIterator;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 缓存快照文件，写入和读取都通过内存映射完成。
+ * <p>
+ * 文件格式：
+ * <pre>
+ * header: magic int | version int | entryCount int | slotCount int | maxExpireAtMillis long | slotsOffset long
+ * records: [expireAtMillis long][keyLen int][valueLen int][key utf8][value utf8] ...
+ * slots:  slotCount个long，开放寻址的哈希表，保存 记录偏移+1，0表示空槽
+ * </pre>
+ * 打开快照只映射文件、读取header，查询时按key的哈希定位槽位再比较key，不需要预先反序列化整个文件。
+ * 单个快照文件受MappedByteBuffer限制，不能超过2GB。
+ * <p>
+ * key和value都只支持String，按UTF-8写入；其他类型需要调用方先编码成String(例如JSON或Base64)。
+ * 打开时校验header：文件长度、magic、version、槽数和slotsOffset与文件大小不一致时抛出IOException，
+ * 截断或损坏的文件不会在查询时才出现IndexOutOfBoundsException。header之后的记录内容不做校验。
+ */
+public final class CacheSnapshot implements Closeable {
+    private static final int MAGIC = 0x43534e50;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int RECORD_HEADER_BYTES = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int entryCount;
+    private final int slotMask;
+    private final long maxExpireAtMillis;
+    private final int slotsOffset;
+
+    private CacheSnapshot(FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES) {
+            throw new IOException("truncated cache snapshot: " + buffer.capacity() + " bytes");
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("not a cache snapshot file");
+        }
+        int entryCount = buffer.getInt(8);
+        int slotCount = buffer.getInt(12);
+        long slotsOffset = buffer.getLong(24);
+        //至少留一个空槽，否则查询不存在的key时探测不会结束
+        if (slotCount <= 0 || Integer.bitCount(slotCount) != 1 || entryCount < 0 || entryCount >= slotCount) {
+            throw new IOException("corrupt cache snapshot: entryCount=" + entryCount + ", slotCount=" + slotCount);
+        }
+        if (slotsOffset < HEADER_BYTES || slotsOffset + 8L * slotCount != buffer.capacity()) {
+            throw new IOException("corrupt cache snapshot: slotsOffset=" + slotsOffset + ", slotCount=" + slotCount
+                    + ", file size=" + buffer.capacity());
+        }
+        this.entryCount = entryCount;
+        this.slotMask = slotCount - 1;
+        this.maxExpireAtMillis = buffer.getLong(16);
+        this.slotsOffset = (int) slotsOffset;
+    }
+
+    /**
+     * 一条待写入快照的数据
+     */
+    public static final class Entry {
+        final String key;
+        final String value;
+        final long expireAtMillis;
+
+        public Entry(String key, String value, long expireAtMillis) {
+            this.key = Preconditions.checkNotNull(key);
+            this.value = Preconditions.checkNotNull(value);
+            this.expireAtMillis = expireAtMillis;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public long getExpireAtMillis() {
+            return expireAtMillis;
+        }
+    }
+
+    /**
+     * 先写到临时文件再原子替换，写快照过程中崩溃不会破坏上一份快照
+     */
+    public static void write(Path file, List<Entry> entries) throws IOException {
+        long recordBytes = 0;
+        long maxExpireAtMillis = 0;
+        for (Entry entry : entries) {
+            recordBytes += RECORD_HEADER_BYTES + Utf8.encodedLength(entry.key) + Utf8.encodedLength(entry.value);
+            maxExpireAtMillis = Math.max(maxExpireAtMillis, entry.expireAtMillis);
+        }
+        //负载因子不超过0.5
+        int slotCount = Integer.highestOneBit(Math.max(entries.size(), 1)) << 2;
+        long slotsOffset = HEADER_BYTES + recordBytes;
+        long fileBytes = slotsOffset + 8L * slotCount;
+        Preconditions.checkArgument(fileBytes <= Integer.MAX_VALUE, "snapshot too large: %s bytes", fileBytes);
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+            out.putInt(MAGIC).putInt(VERSION).putInt(entries.size()).putInt(slotCount)
+                    .putLong(maxExpireAtMillis).putLong(slotsOffset);
+            int slotMask = slotCount - 1;
+            for (Entry entry : entries) {
+                int offset = out.position();
+                byte[] key = entry.key.getBytes(StandardCharsets.UTF_8);
+                byte[] value = entry.value.getBytes(StandardCharsets.UTF_8);
+                out.putLong(entry.expireAtMillis).putInt(key.length).putInt(value.length).put(key).put(value);
+                int slot = hash(entry.key) & slotMask;
+                while (out.getLong((int) slotsOffset + slot * 8) != 0) {
+                    slot = (slot + 1) & slotMask;
+                }
+                out.putLong((int) slotsOffset + slot * 8, offset + 1L);
+            }
+            out.force();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static CacheSnapshot open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new CacheSnapshot(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 查找未过期的数据，不存在或已过期返回null
+     */
+    public @Nullable Entry get(String key, long nowMillis) {
+        if (nowMillis >= maxExpireAtMillis) {
+            return null;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int slot = hash(key) & slotMask;
+        long address;
+        while ((address = buffer.getLong(slotsOffset + slot * 8)) != 0) {
+            int offset = (int) (address - 1);
+            if (keyEquals(offset, keyBytes)) {
+                long expireAtMillis = buffer.getLong(offset);
+                if (expireAtMillis <= nowMillis) {
+                    return null;
+                }
+                int valueLength = buffer.getInt(offset + 12);
+                return new Entry(key, readString(offset + RECORD_HEADER_BYTES + keyBytes.length, valueLength),
+                        expireAtMillis);
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        return null;
+    }
+
+    /**
+     * 按写入顺序遍历未过期的数据
+     */
+    public Iterable<Entry> entries(final long nowMillis) {
+        return new Iterable<Entry>() {
+            @Override
+            public Iterator<Entry> iterator() {
+                return new AbstractIterator<Entry>() {
+                    int offset = HEADER_BYTES;
+
+                    @Override
+                    protected Entry computeNext() {
+                        while (offset < slotsOffset) {
+                            Entry entry = readRecord(offset);
+                            offset += RECORD_HEADER_BYTES + buffer.getInt(offset + 8) + buffer.getInt(offset + 12);
+                            if (entry.expireAtMillis > nowMillis) {
+                                return entry;
+                            }
+                        }
+                        return endOfData();
+                    }
+                };
+            }
+        };
+    }
+
+    public int entryCount() {
+        return entryCount;
+    }
+
+    /**
+     * 快照中所有数据都已过期后，就没有必要再查询它了
+     */
+    public boolean isExpired(long nowMillis) {
+        return nowMillis >= maxExpireAtMillis;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private Entry readRecord(int offset) {
+        int keyLength = buffer.getInt(offset + 8);
+        int valueLength = buffer.getInt(offset + 12);
+        int keyOffset = offset + RECORD_HEADER_BYTES;
+        return new Entry(readString(keyOffset, keyLength), readString(keyOffset + keyLength, valueLength),
+                buffer.getLong(offset));
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean keyEquals(int offset, byte[] keyBytes) {
+        if (buffer.getInt(offset + 8) != keyBytes.length) {
+            return false;
+        }
+        for (int i = 0, p = offset + RECORD_HEADER_BYTES; i < keyBytes.length; i++) {
+            if (buffer.get(p + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * String.hashCode的算法由规范确定，可以跨进程使用
+     */
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
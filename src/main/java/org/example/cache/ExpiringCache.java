@@ -0,0 +1,294 @@
+package org.example.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.cache.AbstractCache;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 每条数据可以有不同过期时间的缓存，过期数据由后台低优先级线程通过分层时间轮清理。
+ * <p>
+ * get/put只读写ConcurrentHashMap并把写入事件放进无锁队列，读到已过期但还没被清理的数据时直接当作不存在，
+ * 不会在调用线程上做任何清理。清理线程每隔sweepInterval把队列中的事件合入时间轮，再推进时间轮删除到期的数据，
+ * 调度、取消、到期都是O(1)。
+ * <p>
+ * 与Guava一样，get(K, Callable)中loader抛出的受检异常包装为ExecutionException，RuntimeException包装为
+ * UncheckedExecutionException，Error包装为ExecutionError；stats()中过期清理计入evictionCount。
+ * 同一个key的并发加载只执行一次：加载者通过loading中的future把结果交给同时等待的线程，
+ * loader在ConcurrentHashMap的桶锁之外执行，不会阻塞同一个桶里其他key的读写。
+ */
+public class ExpiringCache<K, V> extends AbstractCache<K, V> implements Closeable {
+    private final ConcurrentHashMap<K, Entry<K, V>> data = new ConcurrentHashMap<>();
+    private final ConcurrentMap<K, SettableFuture<V>> loading = new ConcurrentHashMap<>();
+    private final Queue<Entry<K, V>> writeEvents = new ConcurrentLinkedQueue<>();
+    private final Ticker ticker;
+    private final long defaultTtlNanos;
+    private final long sweepIntervalNanos;
+    private final @Nullable RemovalListener<? super K, ? super V> removalListener;
+    private final TimerWheel<Entry<K, V>> wheel;
+    private final StatsCounter statsCounter = new SimpleStatsCounter();
+    private final Thread sweeper;
+    private volatile boolean closed;
+
+    /**
+     * @param defaultTtl      put(K, V)和get(K, Callable)使用的过期时间
+     * @param removalListener 可为null，在清理线程上收到EXPIRED通知
+     */
+    public ExpiringCache(long defaultTtl, TimeUnit unit, long sweepInterval, TimeUnit sweepUnit,
+                         @Nullable RemovalListener<? super K, ? super V> removalListener, Ticker ticker) {
+        Preconditions.checkArgument(defaultTtl > 0, "defaultTtl must be positive");
+        Preconditions.checkArgument(sweepInterval > 0, "sweepInterval must be positive");
+        this.defaultTtlNanos = unit.toNanos(defaultTtl);
+        this.sweepIntervalNanos = sweepUnit.toNanos(sweepInterval);
+        this.removalListener = removalListener;
+        this.ticker = Preconditions.checkNotNull(ticker);
+        this.wheel = new TimerWheel<>(ticker.read());
+        this.sweeper = new ThreadFactoryBuilder()
+                .setNameFormat("expiring-cache-sweeper-%d")
+                .setDaemon(true)
+                .setPriority(Thread.MIN_PRIORITY)
+                .build()
+                .newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        sweepLoop();
+                    }
+                });
+        sweeper.start();
+    }
+
+    public ExpiringCache(long defaultTtl, TimeUnit unit) {
+        this(defaultTtl, unit, 1, TimeUnit.SECONDS, null, Ticker.systemTicker());
+    }
+
+    @Override
+    public @Nullable V getIfPresent(Object key) {
+        V value = lookup(key);
+        if (value == null) {
+            statsCounter.recordMisses(1);
+        } else {
+            statsCounter.recordHits(1);
+        }
+        return value;
+    }
+
+    @Override
+    public V get(K key, Callable<? extends V> loader) throws ExecutionException {
+        Preconditions.checkNotNull(loader);
+        V value = lookup(key);
+        if (value != null) {
+            statsCounter.recordHits(1);
+            return value;
+        }
+        //与Guava一样，等到的是其他线程刚加载的值也算未命中
+        statsCounter.recordMisses(1);
+        SettableFuture<V> future = SettableFuture.create();
+        SettableFuture<V> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            return waitFor(existing);
+        }
+        try {
+            //上一个加载者可能在lookup之后、putIfAbsent之前刚发布完
+            value = lookup(key);
+            if (value != null) {
+                future.set(value);
+                return value;
+            }
+            long start = System.nanoTime();
+            try {
+                value = loader.call();
+                if (value == null) {
+                    throw new CacheLoader.InvalidCacheLoadException("loader returned null for key " + key);
+                }
+            } catch (Throwable t) {
+                statsCounter.recordLoadException(System.nanoTime() - start);
+                future.setException(t);
+                return waitFor(future);
+            }
+            statsCounter.recordLoadSuccess(System.nanoTime() - start);
+            final V loaded = value;
+            //加载在锁外执行，compute里只发布结果；加载期间被put的数据不覆盖
+            Entry<K, V> entry = data.compute(key, (k, current) -> {
+                if (current != null && !current.isExpired(ticker.read())) {
+                    return current;
+                }
+                retire(current);
+                return newEntry(k, loaded, defaultTtlNanos);
+            });
+            future.set(entry.value);
+            return entry.value;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    private static <V> V waitFor(SettableFuture<V> future) throws ExecutionException {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CacheLoader.InvalidCacheLoadException) {
+                throw (CacheLoader.InvalidCacheLoadException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw new UncheckedExecutionException(cause);
+            } else if (cause instanceof Error) {
+                throw new ExecutionError((Error) cause);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void put(K key, V value) {
+        put(key, value, defaultTtlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 指定这一条数据的过期时间
+     */
+    public void put(K key, V value, long ttl, TimeUnit unit) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(value);
+        Preconditions.checkArgument(ttl > 0, "ttl must be positive");
+        retire(data.put(key, newEntry(key, value, unit.toNanos(ttl))));
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        retire(data.remove(key));
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (Object key : data.keySet()) {
+            invalidate(key);
+        }
+    }
+
+    /**
+     * 包含已过期但还没被清理线程删除的数据
+     */
+    @Override
+    public long size() {
+        return data.size();
+    }
+
+    @Override
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * 不支持：ConcurrentMap视图无法按每条数据的过期时间隐藏已过期的数据，也无法为写入指定过期时间
+     */
+    @Override
+    public ConcurrentMap<K, V> asMap() {
+        throw new UnsupportedOperationException("ExpiringCache does not support asMap, use get/put/invalidate instead");
+    }
+
+    /**
+     * 停止清理线程
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(sweeper);
+    }
+
+    /**
+     * 不计入统计的读取，已过期的数据当作不存在
+     */
+    private @Nullable V lookup(Object key) {
+        Entry<K, V> entry = data.get(key);
+        return entry == null || entry.isExpired(ticker.read()) ? null : entry.value;
+    }
+
+    private Entry<K, V> newEntry(K key, V value, long ttlNanos) {
+        Entry<K, V> entry = new Entry<>(key, value, ticker.read() + ttlNanos);
+        writeEvents.add(entry);
+        return entry;
+    }
+
+    /**
+     * 被替换或删除的数据交给清理线程从时间轮上摘除
+     */
+    private void retire(@Nullable Entry<K, V> entry) {
+        if (entry != null) {
+            entry.retired = true;
+            writeEvents.add(entry);
+        }
+    }
+
+    private void sweepLoop() {
+        while (!closed) {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            LockSupport.parkNanos(this, sweepIntervalNanos);
+        }
+    }
+
+    /**
+     * 只在清理线程上执行
+     */
+    void sweep() {
+        Entry<K, V> event;
+        while ((event = writeEvents.poll()) != null) {
+            if (event.retired) {
+                wheel.deschedule(event);
+            } else if (!event.isScheduled()) {
+                wheel.schedule(event);
+            }
+        }
+        wheel.advance(ticker.read(), new TimerWheel.Expirer<Entry<K, V>>() {
+            @Override
+            public void expire(Entry<K, V> entry) {
+                if (!entry.retired && data.remove(entry.key, entry)) {
+                    statsCounter.recordEviction();
+                    if (removalListener != null) {
+                        removalListener.onRemoval(
+                                RemovalNotification.create(entry.key, entry.value, RemovalCause.EXPIRED));
+                    }
+                }
+            }
+        });
+    }
+
+    private static final class Entry<K, V> extends TimerWheel.Node {
+        final K key;
+        final V value;
+        volatile boolean retired;
+
+        Entry(K key, V value, long expireAtNanos) {
+            this.key = key;
+            this.value = value;
+            this.time = expireAtNanos;
+        }
+
+        boolean isExpired(long nowNanos) {
+            return time - nowNanos <= 0;
+        }
+    }
+}
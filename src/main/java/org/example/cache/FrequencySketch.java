@@ -0,0 +1,93 @@
+package org.example.cache;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * 4-bit Count-Min Sketch，用来估计key最近的访问频率。
+ * <p>
+ * 每个long存16个4-bit计数器，每个key映射到4个计数器，估计值取最小值。
+ * 累计增加次数达到 10 * 容量 时所有计数器减半（衰减），让频率反映的是"最近"的热度。
+ */
+final class FrequencySketch {
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    FrequencySketch(long maximumSize) {
+        Preconditions.checkArgument(maximumSize > 0, "maximumSize must be positive");
+        int capacity = (int) Math.min(maximumSize, 1 << 30);
+        int length = Integer.highestOneBit(Math.max(capacity, 8) - 1) << 1;
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        //capacity最大为2^30，10倍会溢出int
+        this.sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            long h = indexHash(hash, i);
+            int index = (int) h & tableMask;
+            int offset = counterOffset(h, i);
+            frequency = Math.min(frequency, (int) ((table[index] >>> offset) & 0xfL));
+        }
+        return frequency;
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            long h = indexHash(hash, i);
+            added |= incrementAt((int) h & tableMask, counterOffset(h, i));
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int offset) {
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 所有计数器减半，size按被截掉的奇数位修正
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & 0x1111111111111111L);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private static long indexHash(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * 第i个hash落在long里的第几个计数器：4个hash分别使用不同的4个计数器组，避免互相重叠
+     */
+    private static int counterOffset(long h, int i) {
+        return ((((int) (h >>> 40) & 3) << 2) + i) << 2;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,305 @@
+package org.example.cache;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.ForwardingCache;
+import com.google.common.cache.ForwardingLoadingCache;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.example.metrics.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * 在CacheStats之外记录延迟分布：加载耗时、get按命中/未命中分开的耗时、淘汰到删除通知送达的耗时，单位都是纳秒。
+ * <p>
+ * 命中/未命中的判定与CacheStats一致：调用前值已经在缓存中才算命中；在当前线程上加载、或等待其他线程加载同一个key
+ * (Guava在waitForLoadingValue中记为miss)都算未命中，等待时间计入getMissNanos。
+ * snapshot()返回累计值，intervalSnapshot()返回距上一次调用的增量，两者都不会清空缓存本身的统计。
+ * <pre>
+ * LatencyStatsRecorder recorder = new LatencyStatsRecorder();
+ * LoadingCache&lt;String, String&gt; cache = recorder.build(CacheBuilder.newBuilder()
+ *         .maximumSize(10_000)
+ *         .removalListener(recorder.asyncRemovalListener(batchListener, executor, 10_000, 256, OverflowPolicy.DROP)),
+ *         loader);
+ * </pre>
+ */
+public class LatencyStatsRecorder {
+    private final Histogram loadNanos = new Histogram();
+    private final Histogram getHitNanos = new Histogram();
+    private final Histogram getMissNanos = new Histogram();
+    private final Histogram evictionToNotificationNanos = new Histogram();
+    /**
+     * 当前线程的get调用中是否执行了加载
+     */
+    private final ThreadLocal<boolean[]> loadedHere = new ThreadLocal<boolean[]>() {
+        @Override
+        protected boolean[] initialValue() {
+            return new boolean[1];
+        }
+    };
+
+    private volatile @Nullable Cache<?, ?> cache;
+    private CacheStats lastStats = new CacheStats(0, 0, 0, 0, 0, 0);
+
+    /**
+     * 构建带延迟统计的LoadingCache，会在cacheBuilder上开启recordStats。每个recorder只能构建一个缓存
+     */
+    public <K, V> LoadingCache<K, V> build(CacheBuilder<? super K, ? super V> cacheBuilder,
+                                              CacheLoader<K, V> loader) {
+        final LoadingCache<K, V> delegate = cacheBuilder.recordStats().build(timedLoader(loader));
+        attach(delegate);
+        return new ForwardingLoadingCache.SimpleForwardingLoadingCache<K, V>(delegate) {
+            @Override
+            public V get(K key) throws ExecutionException {
+                boolean[] loaded = startGet();
+                boolean present = isPresent(delegate, key);
+                long start = System.nanoTime();
+                try {
+                    return delegate.get(key);
+                } finally {
+                    endGet(loaded, present, start);
+                }
+            }
+
+            @Override
+            public V getUnchecked(K key) {
+                boolean[] loaded = startGet();
+                boolean present = isPresent(delegate, key);
+                long start = System.nanoTime();
+                try {
+                    return delegate.getUnchecked(key);
+                } finally {
+                    endGet(loaded, present, start);
+                }
+            }
+
+            @Override
+            public V apply(K key) {
+                return getUnchecked(key);
+            }
+
+            @Override
+            public @Nullable V getIfPresent(Object key) {
+                return timedGetIfPresent(delegate, key);
+            }
+
+            @Override
+            public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+                return timedGet(delegate, key, valueLoader);
+            }
+        };
+    }
+
+    /**
+     * 构建带延迟统计的Cache，会在cacheBuilder上开启recordStats。每个recorder只能构建一个缓存
+     */
+    public <K, V> Cache<K, V> build(CacheBuilder<? super K, ? super V> cacheBuilder) {
+        final Cache<K, V> delegate = cacheBuilder.recordStats().build();
+        attach(delegate);
+        return new ForwardingCache.SimpleForwardingCache<K, V>(delegate) {
+            @Override
+            public @Nullable V getIfPresent(Object key) {
+                return timedGetIfPresent(delegate, key);
+            }
+
+            @Override
+            public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+                return timedGet(delegate, key, valueLoader);
+            }
+        };
+    }
+
+    /**
+     * 投递删除通知的同时记录通知在队列中的等待时间，需要在build之前设置到cacheBuilder上。
+     * Guava在淘汰发生的线程上同步调用RemovalListener，因此入队时刻就是淘汰时刻
+     */
+    public <K, V> AsyncRemovalListener<K, V> asyncRemovalListener(AsyncRemovalListener.BatchListener<K, V> listener,
+                                                                 Executor executor, int capacity, int maxBatchSize,
+                                                                 AsyncRemovalListener.OverflowPolicy overflowPolicy) {
+        return new AsyncRemovalListener<>(listener, executor, capacity, maxBatchSize, overflowPolicy,
+                evictionToNotificationNanos);
+    }
+
+    /**
+     * 从创建起的累计值
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(loadNanos.snapshot(), getHitNanos.snapshot(), getMissNanos.snapshot(),
+                evictionToNotificationNanos.snapshot(), cacheStats());
+    }
+
+    /**
+     * 距上一次调用intervalSnapshot的增量，适合定期抓取
+     */
+    public synchronized Snapshot intervalSnapshot() {
+        CacheStats stats = cacheStats();
+        Snapshot interval = new Snapshot(loadNanos.intervalSnapshot(), getHitNanos.intervalSnapshot(),
+                getMissNanos.intervalSnapshot(), evictionToNotificationNanos.intervalSnapshot(),
+                stats.minus(lastStats));
+        lastStats = stats;
+        return interval;
+    }
+
+    private void attach(Cache<?, ?> built) {
+        synchronized (this) {
+            Preconditions.checkState(cache == null, "a cache has already been built with this recorder");
+            cache = built;
+        }
+    }
+
+    private CacheStats cacheStats() {
+        Cache<?, ?> current = cache;
+        return current == null ? lastStats : current.stats();
+    }
+
+    private <K, V> CacheLoader<K, V> timedLoader(final CacheLoader<K, V> loader) {
+        Preconditions.checkNotNull(loader);
+        return new CacheLoader<K, V>() {
+            @Override
+            public V load(K key) throws Exception {
+                long start = System.nanoTime();
+                try {
+                    return loader.load(key);
+                } finally {
+                    loadNanos.record(System.nanoTime() - start);
+                    //加载过程中嵌套的get会清掉标记，结束时再设置
+                    loadedHere.get()[0] = true;
+                }
+            }
+
+            @Override
+            public ListenableFuture<V> reload(K key, V oldValue) throws Exception {
+                return loader.reload(key, oldValue);
+            }
+
+            @Override
+            public Map<K, V> loadAll(Iterable<? extends K> keys) throws Exception {
+                long start = System.nanoTime();
+                try {
+                    return loader.loadAll(keys);
+                } finally {
+                    loadNanos.record(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    private <K, V> V timedGet(Cache<K, V> delegate, K key, final Callable<? extends V> valueLoader)
+            throws ExecutionException {
+        Preconditions.checkNotNull(valueLoader);
+        boolean[] loaded = startGet();
+        boolean present = isPresent(delegate, key);
+        long start = System.nanoTime();
+        try {
+            return delegate.get(key, new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                    long loadStart = System.nanoTime();
+                    try {
+                        return valueLoader.call();
+                    } finally {
+                        loadNanos.record(System.nanoTime() - loadStart);
+                        loadedHere.get()[0] = true;
+                    }
+                }
+            });
+        } finally {
+            endGet(loaded, present, start);
+        }
+    }
+
+    private <V> @Nullable V timedGetIfPresent(Cache<?, V> delegate, Object key) {
+        long start = System.nanoTime();
+        V value = delegate.getIfPresent(key);
+        (value == null ? getMissNanos : getHitNanos).record(System.nanoTime() - start);
+        return value;
+    }
+
+    private boolean[] startGet() {
+        boolean[] loaded = loadedHere.get();
+        loaded[0] = false;
+        return loaded;
+    }
+
+    /**
+     * asMap().containsKey不计入CacheStats，也不把正在加载中的条目算作存在。在计时开始前调用，
+     * 记录的命中耗时不包含这次额外的查找
+     */
+    private static boolean isPresent(Cache<?, ?> delegate, Object key) {
+        return delegate.asMap().containsKey(key);
+    }
+
+    /**
+     * 调用前已存在且没有在当前线程上加载(存在性检查之后被淘汰的情况)才算命中
+     */
+    private void endGet(boolean[] loaded, boolean present, long start) {
+        (present && !loaded[0] ? getHitNanos : getMissNanos).record(System.nanoTime() - start);
+        loaded[0] = false;
+    }
+
+    public static final class Snapshot {
+        private final Histogram.Snapshot loadNanos;
+        private final Histogram.Snapshot getHitNanos;
+        private final Histogram.Snapshot getMissNanos;
+        private final Histogram.Snapshot evictionToNotificationNanos;
+        private final CacheStats cacheStats;
+
+        Snapshot(Histogram.Snapshot loadNanos, Histogram.Snapshot getHitNanos, Histogram.Snapshot getMissNanos,
+                 Histogram.Snapshot evictionToNotificationNanos, CacheStats cacheStats) {
+            this.loadNanos = loadNanos;
+            this.getHitNanos = getHitNanos;
+            this.getMissNanos = getMissNanos;
+            this.evictionToNotificationNanos = evictionToNotificationNanos;
+            this.cacheStats = cacheStats;
+        }
+
+        /**
+         * 每次load/loadAll的耗时，包括失败的加载
+         */
+        public Histogram.Snapshot loadNanos() {
+            return loadNanos;
+        }
+
+        public Histogram.Snapshot getHitNanos() {
+            return getHitNanos;
+        }
+
+        /**
+         * 未命中的get耗时，包含加载时间
+         */
+        public Histogram.Snapshot getMissNanos() {
+            return getMissNanos;
+        }
+
+        /**
+         * 只统计通过asyncRemovalListener创建的listener
+         */
+        public Histogram.Snapshot evictionToNotificationNanos() {
+            return evictionToNotificationNanos;
+        }
+
+        public CacheStats cacheStats() {
+            return cacheStats;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("loadNanos", loadNanos)
+                    .add("getHitNanos", getHitNanos)
+                    .add("getMissNanos", getMissNanos)
+                    .add("evictionToNotificationNanos", evictionToNotificationNanos)
+                    .add("cacheStats", cacheStats)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,507 @@
+package org.example.cache;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.example.hash.FastHashing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 堆外的String -> String存储，数据按追加写的方式序列化到固定大小的直接内存(direct ByteBuffer)slab中。
+ * <p>
+ * 索引只保存key到(slab编号, 偏移)的映射；预算用完时整块淘汰最老的slab并复用它的内存，
+ * 因此淘汰是FIFO顺序，且不需要做碎片整理。记录格式：[writeNanos long][keyLen int][valueLen int][key][value]。
+ * <p>
+ * 设置了expireAfterWrite时，读到写入时间(System.nanoTime)超过期限的记录会当作未命中并删除索引。
+ * 写入时间可以由调用方传入，TieredCache用它保留数据最初写入堆内的时间。
+ * <p>
+ * 索引同样在直接内存中：开放寻址的哈希表，每个槽16字节[key的64位哈希][记录地址]，线性探测，
+ * 删除时后移填补空位(backward shift)而不留墓碑，装载因子超过3/4时容量翻倍。哈希相同时从slab中读出key比较，
+ * 堆上不为每条记录保留任何对象。索引占用的内存不计入budgetBytes，见Stats.indexBytes。
+ */
+public class OffHeapStore {
+    private static final int HEADER_BYTES = 16;
+    private static final long NEVER = Long.MAX_VALUE;
+    private static final HashFunction KEY_HASH = FastHashing.wyhash();
+    private static final int SLOT_BYTES = 16;
+    private static final int MIN_INDEX_SLOTS = 1 << 10;
+    private static final int MAX_INDEX_SLOTS = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_BYTES);
+
+    private final int slabBytes;
+    private final int maxSlabs;
+    private final long expireAfterWriteNanos;
+    /**
+     * 槽的哈希为0表示空槽，keyHash保证真实的哈希不为0
+     */
+    private ByteBuffer index = ByteBuffer.allocateDirect(MIN_INDEX_SLOTS * SLOT_BYTES);
+    private int indexMask = MIN_INDEX_SLOTS - 1;
+    private int indexSize;
+    /**
+     * 按编号取模存放的slab环，编号在[oldestSlabId, nextSlabId)内的slab有效，nextSlabId - 1是当前正在写入的slab
+     */
+    private final Slab[] slabs;
+    private int oldestSlabId;
+    private int nextSlabId;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long slabEvictionCount;
+    private long rejectedCount;
+    private long expiredCount;
+
+    /**
+     * @param budgetBytes 堆外内存预算，向下取整为slabBytes的整数倍
+     * @param slabBytes   单个slab大小，超过它的记录不会写入堆外
+     */
+    public OffHeapStore(long budgetBytes, int slabBytes) {
+        this(budgetBytes, slabBytes, NEVER);
+    }
+
+    /**
+     * @param expireAfterWrite 写入后超过这个时间的记录在读取时丢弃
+     */
+    public OffHeapStore(long budgetBytes, int slabBytes, long expireAfterWrite, TimeUnit unit) {
+        this(budgetBytes, slabBytes, unit.toNanos(expireAfterWrite));
+        Preconditions.checkArgument(expireAfterWrite > 0, "expireAfterWrite must be positive");
+    }
+
+    private OffHeapStore(long budgetBytes, int slabBytes, long expireAfterWriteNanos) {
+        Preconditions.checkArgument(slabBytes > HEADER_BYTES, "slabBytes too small: %s", slabBytes);
+        Preconditions.checkArgument(budgetBytes >= slabBytes, "budgetBytes must hold at least one slab");
+        this.slabBytes = slabBytes;
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, budgetBytes / slabBytes);
+        this.slabs = new Slab[maxSlabs];
+        this.expireAfterWriteNanos = expireAfterWriteNanos;
+    }
+
+    /**
+     * 没有设置expireAfterWrite时返回Long.MAX_VALUE
+     */
+    public long expireAfterWriteNanos() {
+        return expireAfterWriteNanos;
+    }
+
+    /**
+     * writeNanos(System.nanoTime)时刻写入的数据是否已经过期
+     */
+    public boolean isExpired(long writeNanos, long nowNanos) {
+        return expireAfterWriteNanos != NEVER && nowNanos - writeNanos >= expireAfterWriteNanos;
+    }
+
+    public void put(String key, String value) {
+        put(key, value, System.nanoTime());
+    }
+
+    /**
+     * @param writeNanos 数据最初写入的System.nanoTime，过期时间从这里算起
+     */
+    public synchronized void put(String key, String value, long writeNanos) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        int recordBytes = HEADER_BYTES + keyBytes.length + valueBytes.length;
+        long hash = keyHash(keyBytes);
+        if (recordBytes > slabBytes) {
+            rejectedCount++;
+            int slot = findSlot(hash, keyBytes);
+            if (slot >= 0) {
+                deleteSlot(slot);
+            }
+            return;
+        }
+        Slab slab = nextSlabId == oldestSlabId ? null : slabFor(nextSlabId - 1);
+        if (slab == null || slab.buffer.remaining() < recordBytes) {
+            slab = nextSlab();
+        }
+        int offset = slab.buffer.position();
+        slab.buffer.putLong(writeNanos).putInt(keyBytes.length).putInt(valueBytes.length).put(keyBytes).put(valueBytes);
+        //nextSlab可能淘汰了旧slab并删除了其中的索引，所以要在写完记录之后再查找槽位
+        int slot = findSlot(hash, keyBytes);
+        if (slot >= 0) {
+            index.putLong(slot * SLOT_BYTES + 8, address(slab.id, offset));
+        } else {
+            insert(hash, address(slab.id, offset));
+        }
+    }
+
+    public synchronized @Nullable String getIfPresent(String key) {
+        int slot = findSlot(key.getBytes(StandardCharsets.UTF_8));
+        if (slot < 0) {
+            missCount++;
+            return null;
+        }
+        Entry entry = readLive(slot);
+        return entry == null ? null : entry.value();
+    }
+
+    /**
+     * 读取并删除，用于把数据提升回堆内；返回的Entry带有最初的写入时间
+     */
+    public synchronized @Nullable Entry remove(String key) {
+        int slot = findSlot(key.getBytes(StandardCharsets.UTF_8));
+        if (slot < 0) {
+            missCount++;
+            return null;
+        }
+        Entry entry = readLive(slot);
+        if (entry != null) {
+            deleteSlot(slot);
+        }
+        return entry;
+    }
+
+    public synchronized void invalidate(String key) {
+        int slot = findSlot(key.getBytes(StandardCharsets.UTF_8));
+        if (slot >= 0) {
+            deleteSlot(slot);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        clearIndex();
+        for (int id = oldestSlabId; id != nextSlabId; id++) {
+            slabFor(id).buffer.clear();
+        }
+    }
+
+    public synchronized long size() {
+        return indexSize;
+    }
+
+    public synchronized Stats stats() {
+        long usedBytes = 0;
+        for (int id = oldestSlabId; id != nextSlabId; id++) {
+            usedBytes += slabFor(id).buffer.position();
+        }
+        return new Stats(hitCount, missCount, indexSize, usedBytes, (long) maxSlabs * slabBytes,
+                index.capacity(), evictionCount, slabEvictionCount, rejectedCount, expiredCount);
+    }
+
+    /**
+     * 读取slot指向的记录，已过期时删除索引并记为未命中
+     */
+    private @Nullable Entry readLive(int slot) {
+        long address = index.getLong(slot * SLOT_BYTES + 8);
+        ByteBuffer buffer = slabFor((int) (address >>> 32)).buffer.duplicate();
+        buffer.position((int) address);
+        long writeNanos = buffer.getLong();
+        if (isExpired(writeNanos, System.nanoTime())) {
+            deleteSlot(slot);
+            expiredCount++;
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        int keyLength = buffer.getInt();
+        int valueLength = buffer.getInt();
+        byte[] valueBytes = new byte[valueLength];
+        buffer.position(buffer.position() + keyLength);
+        buffer.get(valueBytes);
+        return new Entry(new String(valueBytes, StandardCharsets.UTF_8), writeNanos);
+    }
+
+    private static long keyHash(byte[] keyBytes) {
+        long hash = KEY_HASH.hashBytes(keyBytes).asLong();
+        return hash == 0 ? 1 : hash;
+    }
+
+    private int findSlot(byte[] keyBytes) {
+        return findSlot(keyHash(keyBytes), keyBytes);
+    }
+
+    /**
+     * 没有找到时返回-1
+     */
+    private int findSlot(long hash, byte[] keyBytes) {
+        for (int slot = (int) hash & indexMask; ; slot = (slot + 1) & indexMask) {
+            long slotHash = index.getLong(slot * SLOT_BYTES);
+            if (slotHash == 0) {
+                return -1;
+            }
+            if (slotHash == hash && keyEquals(index.getLong(slot * SLOT_BYTES + 8), keyBytes)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * 按address查找槽位，淘汰slab时用，不需要比较key
+     */
+    private int findSlot(long hash, long address) {
+        for (int slot = (int) hash & indexMask; ; slot = (slot + 1) & indexMask) {
+            long slotHash = index.getLong(slot * SLOT_BYTES);
+            if (slotHash == 0) {
+                return -1;
+            }
+            if (slotHash == hash && index.getLong(slot * SLOT_BYTES + 8) == address) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean keyEquals(long address, byte[] keyBytes) {
+        ByteBuffer buffer = slabFor((int) (address >>> 32)).buffer;
+        int offset = (int) address;
+        if (buffer.getInt(offset + 8) != keyBytes.length) {
+            return false;
+        }
+        int keyOffset = offset + HEADER_BYTES;
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (buffer.get(keyOffset + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 调用方已确认key不在索引中
+     */
+    private void insert(long hash, long address) {
+        if (indexSize + 1 > (indexMask + 1) / 4 * 3) {
+            resizeIndex();
+        }
+        int slot = (int) hash & indexMask;
+        while (index.getLong(slot * SLOT_BYTES) != 0) {
+            slot = (slot + 1) & indexMask;
+        }
+        index.putLong(slot * SLOT_BYTES, hash).putLong(slot * SLOT_BYTES + 8, address);
+        indexSize++;
+    }
+
+    /**
+     * 把后面探测链上可以前移的槽依次移到空位上，保证查找遇到空槽即可停止
+     */
+    private void deleteSlot(int slot) {
+        int gap = slot;
+        for (int next = (slot + 1) & indexMask; ; next = (next + 1) & indexMask) {
+            long hash = index.getLong(next * SLOT_BYTES);
+            if (hash == 0) {
+                break;
+            }
+            int home = (int) hash & indexMask;
+            //home不在(gap, next]之间时，这个槽可以前移到gap
+            if (((next - home) & indexMask) >= ((next - gap) & indexMask)) {
+                index.putLong(gap * SLOT_BYTES, hash).putLong(gap * SLOT_BYTES + 8, index.getLong(next * SLOT_BYTES + 8));
+                gap = next;
+            }
+        }
+        index.putLong(gap * SLOT_BYTES, 0).putLong(gap * SLOT_BYTES + 8, 0);
+        indexSize--;
+    }
+
+    private void resizeIndex() {
+        int slots = indexMask + 1;
+        Preconditions.checkState(slots < MAX_INDEX_SLOTS, "off-heap index is full: %s entries", indexSize);
+        ByteBuffer old = index;
+        index = ByteBuffer.allocateDirect(slots * 2 * SLOT_BYTES);
+        indexMask = slots * 2 - 1;
+        for (int i = 0; i < slots; i++) {
+            long hash = old.getLong(i * SLOT_BYTES);
+            if (hash != 0) {
+                int slot = (int) hash & indexMask;
+                while (index.getLong(slot * SLOT_BYTES) != 0) {
+                    slot = (slot + 1) & indexMask;
+                }
+                index.putLong(slot * SLOT_BYTES, hash).putLong(slot * SLOT_BYTES + 8, old.getLong(i * SLOT_BYTES + 8));
+            }
+        }
+    }
+
+    private void clearIndex() {
+        for (int i = 0; i < index.capacity(); i += Long.BYTES) {
+            index.putLong(i, 0);
+        }
+        indexSize = 0;
+    }
+
+    private Slab slabFor(int id) {
+        return slabs[Integer.remainderUnsigned(id, maxSlabs)];
+    }
+
+    /**
+     * 预算未满时分配新的直接内存，否则淘汰最老的slab并复用其内存
+     */
+    private Slab nextSlab() {
+        ByteBuffer buffer;
+        if (nextSlabId - oldestSlabId < maxSlabs) {
+            buffer = ByteBuffer.allocateDirect(slabBytes);
+        } else {
+            Slab oldest = slabFor(oldestSlabId++);
+            evict(oldest);
+            buffer = oldest.buffer;
+            buffer.clear();
+        }
+        Slab slab = new Slab(nextSlabId++, buffer);
+        slabs[Integer.remainderUnsigned(slab.id, maxSlabs)] = slab;
+        return slab;
+    }
+
+    private void evict(Slab slab) {
+        ByteBuffer buffer = slab.buffer.duplicate();
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            int offset = buffer.position();
+            buffer.getLong();
+            int keyLength = buffer.getInt();
+            int valueLength = buffer.getInt();
+            byte[] keyBytes = new byte[keyLength];
+            buffer.get(keyBytes);
+            buffer.position(buffer.position() + valueLength);
+            //只删除仍指向这条记录的索引，key可能已经被更新写到了更新的slab
+            int slot = findSlot(keyHash(keyBytes), address(slab.id, offset));
+            if (slot >= 0) {
+                deleteSlot(slot);
+                evictionCount++;
+            }
+        }
+        slabEvictionCount++;
+    }
+
+    private static long address(int slabId, int offset) {
+        return ((long) slabId << 32) | offset;
+    }
+
+    /**
+     * 值及其最初写入的System.nanoTime
+     */
+    public static final class Entry {
+        private final String value;
+        private final long writeNanos;
+
+        public Entry(String value, long writeNanos) {
+            this.value = Preconditions.checkNotNull(value);
+            this.writeNanos = writeNanos;
+        }
+
+        public String value() {
+            return value;
+        }
+
+        public long writeNanos() {
+            return writeNanos;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("value", value)
+                    .add("writeNanos", writeNanos)
+                    .toString();
+        }
+    }
+
+    private static final class Slab {
+        final int id;
+        final ByteBuffer buffer;
+
+        Slab(int id, ByteBuffer buffer) {
+            this.id = id;
+            this.buffer = buffer;
+        }
+    }
+
+    public static final class Stats {
+        private final long hitCount;
+        private final long missCount;
+        private final long entryCount;
+        private final long usedBytes;
+        private final long capacityBytes;
+        private final long indexBytes;
+        private final long evictionCount;
+        private final long slabEvictionCount;
+        private final long rejectedCount;
+        private final long expiredCount;
+
+        Stats(long hitCount, long missCount, long entryCount, long usedBytes, long capacityBytes, long indexBytes,
+              long evictionCount, long slabEvictionCount, long rejectedCount, long expiredCount) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.entryCount = entryCount;
+            this.usedBytes = usedBytes;
+            this.capacityBytes = capacityBytes;
+            this.indexBytes = indexBytes;
+            this.evictionCount = evictionCount;
+            this.slabEvictionCount = slabEvictionCount;
+            this.rejectedCount = rejectedCount;
+            this.expiredCount = expiredCount;
+        }
+
+        public long hitCount() {
+            return hitCount;
+        }
+
+        public long missCount() {
+            return missCount;
+        }
+
+        public double hitRate() {
+            long requestCount = hitCount + missCount;
+            return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+        }
+
+        public long entryCount() {
+            return entryCount;
+        }
+
+        /**
+         * 已写入slab的字节数，包含已失效但尚未随slab淘汰的记录
+         */
+        public long usedBytes() {
+            return usedBytes;
+        }
+
+        public long capacityBytes() {
+            return capacityBytes;
+        }
+
+        /**
+         * 索引哈希表占用的直接内存，不计入capacityBytes
+         */
+        public long indexBytes() {
+            return indexBytes;
+        }
+
+        public long evictionCount() {
+            return evictionCount;
+        }
+
+        public long slabEvictionCount() {
+            return slabEvictionCount;
+        }
+
+        /**
+         * 单条记录大于slab而无法写入的次数
+         */
+        public long rejectedCount() {
+            return rejectedCount;
+        }
+
+        /**
+         * 读取时因超过expireAfterWrite被丢弃的记录数，也计入missCount
+         */
+        public long expiredCount() {
+            return expiredCount;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("hitCount", hitCount)
+                    .add("missCount", missCount)
+                    .add("entryCount", entryCount)
+                    .add("usedBytes", usedBytes)
+                    .add("capacityBytes", capacityBytes)
+                    .add("indexBytes", indexBytes)
+                    .add("evictionCount", evictionCount)
+                    .add("slabEvictionCount", slabEvictionCount)
+                    .add("rejectedCount", rejectedCount)
+                    .add("expiredCount", expiredCount)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package org.example.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.cache.AbstractLoadingCache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 提前异步刷新的LoadingCache。
+ * <p>
+ * 数据写入超过refreshAfter后，读请求照常拿到当前值，同时在给定的ListeningExecutorService上异步reload；
+ * reload失败或executor拒绝提交时保留旧值，按指数退避推迟下一次刷新。
+ * expireAfter是硬上限，超过后数据被淘汰，下次读取同步加载。
+ * <pre>
+ * LoadingCache&lt;String, String&gt; cache = RefreshAheadLoadingCache.newBuilder()
+ *         .refreshAfter(30, TimeUnit.SECONDS)
+ *         .expireAfter(5, TimeUnit.MINUTES)
+ *         .executor(listeningExecutorService)
+ *         .build(CacheBuilder.newBuilder().maximumSize(10_000), loader);
+ * </pre>
+ */
+public class RefreshAheadLoadingCache<K, V> extends AbstractLoadingCache<K, V> {
+    private final LoadingCache<K, Timed<V>> cache;
+    private final CacheLoader<K, V> loader;
+    private final ListeningExecutorService executor;
+    private final Ticker ticker;
+    private final long refreshNanos;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+
+    private RefreshAheadLoadingCache(Builder builder, CacheBuilder<Object, Object> cacheBuilder,
+                                     final CacheLoader<K, V> loader) {
+        this.loader = loader;
+        this.executor = builder.executor;
+        this.ticker = builder.ticker;
+        this.refreshNanos = builder.refreshNanos;
+        this.initialBackoffNanos = builder.initialBackoffNanos;
+        this.maxBackoffNanos = builder.maxBackoffNanos;
+        this.cache = cacheBuilder
+                .ticker(ticker)
+                .expireAfterWrite(builder.expireNanos, TimeUnit.NANOSECONDS)
+                .build(new CacheLoader<K, Timed<V>>() {
+                    @Override
+                    public Timed<V> load(K key) throws Exception {
+                        return timed(loader.load(key));
+                    }
+                });
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public V get(K key) throws ExecutionException {
+        Timed<V> timed = cache.get(key);
+        refreshIfStale(key, timed);
+        return timed.value;
+    }
+
+    @Override
+    public @Nullable V getIfPresent(Object key) {
+        Timed<V> timed = cache.getIfPresent(key);
+        if (timed == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        K k = (K) key;
+        refreshIfStale(k, timed);
+        return timed.value;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        cache.put(key, timed(value));
+    }
+
+    /**
+     * 立即在executor上异步刷新，不等待刷新时间
+     */
+    @Override
+    public void refresh(K key) {
+        Timed<V> timed = cache.getIfPresent(key);
+        if (timed == null) {
+            cache.refresh(key);
+        } else if (timed.refreshing.compareAndSet(false, true)) {
+            reload(key, timed);
+        }
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        cache.invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void cleanUp() {
+        cache.cleanUp();
+    }
+
+    private void refreshIfStale(K key, Timed<V> timed) {
+        if (ticker.read() - timed.nextRefreshNanos >= 0 && timed.refreshing.compareAndSet(false, true)) {
+            reload(key, timed);
+        }
+    }
+
+    private void reload(final K key, final Timed<V> timed) {
+        ListenableFuture<V> future;
+        try {
+            future = Futures.submitAsync(new AsyncCallable<V>() {
+                @Override
+                public ListenableFuture<V> call() throws Exception {
+                    return loader.reload(key, timed.value);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            //executor饱和或已关闭：读请求照常返回旧值，按失败退避，否则refreshing会一直为true
+            backoff(timed);
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V result) {
+                if (result == null) {
+                    onFailure(new CacheLoader.InvalidCacheLoadException("reload returned null for key " + key));
+                    return;
+                }
+                //期间数据可能已被put或淘汰，只替换刷新前的那个值
+                cache.asMap().replace(key, timed, timed(result));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                backoff(timed);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void backoff(Timed<V> timed) {
+        timed.failures++;
+        long backoff = initialBackoffNanos << Math.min(timed.failures - 1, 30);
+        timed.nextRefreshNanos = ticker.read() + Math.min(backoff < 0 ? maxBackoffNanos : backoff, maxBackoffNanos);
+        timed.refreshing.set(false);
+    }
+
+    private Timed<V> timed(V value) {
+        return new Timed<>(value, ticker.read() + refreshNanos);
+    }
+
+    private static final class Timed<V> {
+        final V value;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        volatile long nextRefreshNanos;
+        /**
+         * 只在refreshing为true时由刷新回调修改
+         */
+        int failures;
+
+        Timed(V value, long nextRefreshNanos) {
+            this.value = Preconditions.checkNotNull(value);
+            this.nextRefreshNanos = nextRefreshNanos;
+        }
+    }
+
+    public static final class Builder {
+        private long refreshNanos = -1;
+        private long expireNanos = -1;
+        private long initialBackoffNanos = TimeUnit.SECONDS.toNanos(1);
+        private long maxBackoffNanos = TimeUnit.MINUTES.toNanos(1);
+        private ListeningExecutorService executor;
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Builder() {
+        }
+
+        /**
+         * 写入超过该时长后，读请求会触发异步刷新
+         */
+        public Builder refreshAfter(long duration, TimeUnit unit) {
+            Preconditions.checkArgument(duration > 0, "duration must be positive");
+            this.refreshNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 写入超过该时长后数据过期，必须大于refreshAfter
+         */
+        public Builder expireAfter(long duration, TimeUnit unit) {
+            Preconditions.checkArgument(duration > 0, "duration must be positive");
+            this.expireNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 刷新失败后的退避时间，从initial开始每次翻倍，不超过max。默认1秒到1分钟
+         */
+        public Builder backoff(long initial, long max, TimeUnit unit) {
+            Preconditions.checkArgument(initial > 0 && max >= initial, "require 0 < initial <= max");
+            this.initialBackoffNanos = unit.toNanos(initial);
+            this.maxBackoffNanos = unit.toNanos(max);
+            return this;
+        }
+
+        public Builder executor(ListeningExecutorService executor) {
+            this.executor = Preconditions.checkNotNull(executor);
+            return this;
+        }
+
+        public Builder ticker(Ticker ticker) {
+            this.ticker = Preconditions.checkNotNull(ticker);
+            return this;
+        }
+
+        /**
+         * @param cacheBuilder 不要在上面设置expireAfterWrite/refreshAfterWrite/ticker
+         */
+        public <K, V> RefreshAheadLoadingCache<K, V> build(CacheBuilder<Object, Object> cacheBuilder,
+                                                          CacheLoader<K, V> loader) {
+            Preconditions.checkState(refreshNanos > 0, "refreshAfter is required");
+            Preconditions.checkState(expireNanos > refreshNanos, "expireAfter must be greater than refreshAfter");
+            Preconditions.checkState(executor != null, "executor is required");
+            return new RefreshAheadLoadingCache<>(this, cacheBuilder, Preconditions.checkNotNull(loader));
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.example.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.AbstractLoadingCache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 支持快照的LoadingCache，用于发布后的热启动。
+ * <p>
+ * 每条数据都记录了按expireAfterWrite算出的过期时刻，{@link #snapshot(Path)}把未过期的数据连同剩余TTL写入内存映射文件。
+ * 启动时用上一次的快照构建缓存，快照只是被映射进来，某个key第一次未命中时才去快照里查找，找到的数据保留原来的过期时刻，
+ * 找不到才调用CacheLoader。key和value只支持String，见CacheSnapshot。
+ */
+public class SnapshotLoadingCache extends AbstractLoadingCache<String, String> {
+    private final LoadingCache<String, Stamped> cache;
+    private final long ttlMillis;
+    private volatile @Nullable CacheSnapshot restored;
+    /**
+     * 快照恢复后被put或invalidate过的key，这些key不能再从快照中读出旧值
+     */
+    private final Set<String> shadowed = ConcurrentHashMap.newKeySet();
+
+    private SnapshotLoadingCache(CacheBuilder<Object, Object> builder, long duration, TimeUnit unit,
+                                 final CacheLoader<String, String> loader, @Nullable CacheSnapshot restored) {
+        this.ttlMillis = unit.toMillis(duration);
+        this.restored = restored;
+        this.cache = builder.expireAfterWrite(duration, unit).build(new CacheLoader<String, Stamped>() {
+            @Override
+            public Stamped load(String key) throws Exception {
+                Stamped stamped = fromSnapshot(key);
+                return stamped != null ? stamped : stamp(loader.load(key));
+            }
+        });
+    }
+
+    /**
+     * @param builder      不要在builder上设置expireAfterWrite，由duration和unit指定
+     * @param restoreFrom  上一次的快照文件，不存在时忽略
+     * @throws IOException 快照文件被截断或不是合法的快照
+     */
+    public static SnapshotLoadingCache build(CacheBuilder<Object, Object> builder, long duration, TimeUnit unit,
+                                             CacheLoader<String, String> loader, @Nullable Path restoreFrom)
+            throws IOException {
+        Preconditions.checkNotNull(loader);
+        CacheSnapshot restored = restoreFrom != null && Files.exists(restoreFrom) ? CacheSnapshot.open(restoreFrom) : null;
+        return new SnapshotLoadingCache(builder, duration, unit, loader, restored);
+    }
+
+    @Override
+    public String get(String key) throws ExecutionException {
+        Stamped stamped = cache.get(key);
+        if (stamped.isExpired(System.currentTimeMillis())) {
+            //从快照恢复的数据比缓存自己的expireAfterWrite更早过期
+            cache.asMap().remove(key, stamped);
+            stamped = cache.get(key);
+        }
+        return stamped.value;
+    }
+
+    @Override
+    public @Nullable String getIfPresent(Object key) {
+        Stamped stamped = cache.getIfPresent(key);
+        if (stamped == null && key instanceof String) {
+            stamped = fromSnapshot((String) key);
+            if (stamped != null) {
+                cache.asMap().putIfAbsent((String) key, stamped);
+            }
+        }
+        if (stamped == null) {
+            return null;
+        }
+        if (stamped.isExpired(System.currentTimeMillis())) {
+            cache.asMap().remove(key, stamped);
+            return null;
+        }
+        return stamped.value;
+    }
+
+    @Override
+    public void put(String key, String value) {
+        markShadowed(key);
+        cache.put(key, stamp(value));
+    }
+
+    @Override
+    public void refresh(String key) {
+        markShadowed(key);
+        cache.refresh(key);
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        if (key instanceof String) {
+            markShadowed((String) key);
+        }
+        cache.invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        releaseSnapshot();
+        cache.invalidateAll();
+    }
+
+    @Override
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void cleanUp() {
+        cache.cleanUp();
+        CacheSnapshot snapshot = restored;
+        if (snapshot != null && snapshot.isExpired(System.currentTimeMillis())) {
+            releaseSnapshot();
+        }
+    }
+
+    /**
+     * 把未过期的数据写入快照文件。恢复出的快照中尚未被访问过的数据也会一并写入，避免连续两次重启后丢失。
+     */
+    public void snapshot(Path file) throws IOException {
+        long now = System.currentTimeMillis();
+        List<CacheSnapshot.Entry> entries = new ArrayList<>((int) Math.min(cache.size(), Integer.MAX_VALUE));
+        for (Map.Entry<String, Stamped> entry : cache.asMap().entrySet()) {
+            Stamped stamped = entry.getValue();
+            if (!stamped.isExpired(now)) {
+                entries.add(new CacheSnapshot.Entry(entry.getKey(), stamped.value, stamped.expireAtMillis));
+            }
+        }
+        CacheSnapshot snapshot = restored;
+        if (snapshot != null) {
+            for (CacheSnapshot.Entry entry : snapshot.entries(now)) {
+                if (!shadowed.contains(entry.getKey()) && !cache.asMap().containsKey(entry.getKey())) {
+                    entries.add(entry);
+                }
+            }
+        }
+        CacheSnapshot.write(file, entries);
+    }
+
+    /**
+     * 按固定周期写快照，写失败时本次跳过，不影响后续周期
+     */
+    public ScheduledFuture<?> scheduleSnapshots(ScheduledExecutorService scheduler, final Path file,
+                                                long period, TimeUnit unit) {
+        return scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshot(file);
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * JVM正常退出时写一次快照
+     */
+    public void snapshotOnShutdown(final Path file) {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshot(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }, "cache-snapshot-on-shutdown"));
+    }
+
+    private @Nullable Stamped fromSnapshot(String key) {
+        CacheSnapshot snapshot = restored;
+        if (snapshot == null || shadowed.contains(key)) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (snapshot.isExpired(now)) {
+            releaseSnapshot();
+            return null;
+        }
+        CacheSnapshot.Entry entry = snapshot.get(key, now);
+        return entry == null ? null : new Stamped(entry.getValue(), entry.getExpireAtMillis());
+    }
+
+    private void markShadowed(String key) {
+        if (restored != null) {
+            shadowed.add(key);
+        }
+    }
+
+    private synchronized void releaseSnapshot() {
+        CacheSnapshot snapshot = restored;
+        if (snapshot != null) {
+            restored = null;
+            shadowed.clear();
+            try {
+                snapshot.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private Stamped stamp(String value) {
+        return new Stamped(value, System.currentTimeMillis() + ttlMillis);
+    }
+
+    private static final class Stamped {
+        final String value;
+        final long expireAtMillis;
+
+        Stamped(String value, long expireAtMillis) {
+            this.value = Preconditions.checkNotNull(value);
+            this.expireAtMillis = expireAtMillis;
+        }
+
+        boolean isExpired(long nowMillis) {
+            return expireAtMillis <= nowMillis;
+        }
+    }
+}
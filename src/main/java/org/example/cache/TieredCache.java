@@ -0,0 +1,223 @@
+package org.example.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.AbstractCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 堆内Cache + 堆外OffHeapStore的两级缓存。
+ * <p>
+ * 堆内缓存因maximumSize/maximumWeight淘汰(RemovalCause.SIZE)的数据会写入堆外；
+ * 堆内未命中时先查堆外，命中则把数据从堆外移回堆内。
+ * <p>
+ * 过期时间由OffHeapStore的expireAfterWrite决定，build时同样设置到堆内缓存上(heapBuilder上不要再设置)。
+ * 每条数据带着最初的写入时间在两级之间移动，从堆外移回堆内不会重新开始计时。
+ * 没有设置过期时间时堆内直接存放String，只有设置了过期时间才存放带写入时间的OffHeapStore.Entry，
+ * 因此heapBuilder上的weigher看到的value可能是这两种类型之一。
+ * invalidate/invalidateAll/put/putAll同时作用于两级；asMap视图无法同时反映两级，不支持。
+ * <pre>
+ * TieredCache cache = TieredCache.build(CacheBuilder.newBuilder().maximumSize(100_000),
+ *         new OffHeapStore(1L &lt;&lt; 30, 8 &lt;&lt; 20, 10, TimeUnit.MINUTES));
+ * </pre>
+ */
+public class TieredCache extends AbstractCache<String, String> {
+    /**
+     * value是String，或者设置了过期时间时的OffHeapStore.Entry
+     */
+    private final Cache<String, Object> heap;
+    private final OffHeapStore offHeap;
+    private final boolean expiring;
+
+    private TieredCache(Cache<String, Object> heap, OffHeapStore offHeap) {
+        this.heap = heap;
+        this.offHeap = offHeap;
+        this.expiring = offHeap.expireAfterWriteNanos() != Long.MAX_VALUE;
+    }
+
+    /**
+     * builder上不能再设置removalListener和expireAfterWrite，TieredCache需要用它们接收淘汰的数据和统一过期时间
+     */
+    public static TieredCache build(CacheBuilder<Object, Object> heapBuilder, final OffHeapStore offHeap) {
+        Preconditions.checkNotNull(offHeap);
+        if (offHeap.expireAfterWriteNanos() != Long.MAX_VALUE) {
+            heapBuilder.expireAfterWrite(offHeap.expireAfterWriteNanos(), TimeUnit.NANOSECONDS);
+        }
+        Cache<String, Object> heap = heapBuilder
+                .removalListener(new RemovalListener<String, Object>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, Object> notification) {
+                        if (notification.getCause() == RemovalCause.SIZE) {
+                            Object stored = notification.getValue();
+                            if (stored instanceof OffHeapStore.Entry) {
+                                OffHeapStore.Entry entry = (OffHeapStore.Entry) stored;
+                                offHeap.put(notification.getKey(), entry.value(), entry.writeNanos());
+                            } else {
+                                offHeap.put(notification.getKey(), (String) stored);
+                            }
+                        }
+                    }
+                })
+                .build();
+        return new TieredCache(heap, offHeap);
+    }
+
+    @Override
+    public @Nullable String getIfPresent(Object key) {
+        Object stored = live(key, heap.getIfPresent(key));
+        if (stored == null && key instanceof String) {
+            stored = promote((String) key);
+        }
+        return stored == null ? null : valueOf(stored);
+    }
+
+    @Override
+    public ImmutableMap<String, String> getAllPresent(Iterable<?> keys) {
+        ImmutableMap<String, Object> present = heap.getAllPresent(keys);
+        Map<String, String> result = new LinkedHashMap<>();
+        for (Object key : keys) {
+            if (!(key instanceof String) || result.containsKey(key)) {
+                continue;
+            }
+            Object stored = live(key, present.get(key));
+            if (stored == null) {
+                stored = promote((String) key);
+            }
+            if (stored != null) {
+                result.put((String) key, valueOf(stored));
+            }
+        }
+        return ImmutableMap.copyOf(result);
+    }
+
+    @Override
+    public String get(final String key, final Callable<? extends String> valueLoader) throws ExecutionException {
+        Callable<Object> loader = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                OffHeapStore.Entry entry = offHeap.remove(key);
+                return entry != null ? stored(entry.value(), entry.writeNanos())
+                        : stored(valueLoader.call(), System.nanoTime());
+            }
+        };
+        Object stored = heap.get(key, loader);
+        if (live(key, stored) == null) {
+            //从堆外移回堆内的数据已经过期，live已将其删除，重新加载
+            stored = heap.get(key, loader);
+        }
+        return valueOf(stored);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        offHeap.invalidate(key);
+        heap.put(key, stored(value, System.nanoTime()));
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends String> m) {
+        for (Map.Entry<? extends String, ? extends String> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        heap.invalidate(key);
+        if (key instanceof String) {
+            offHeap.invalidate((String) key);
+        }
+    }
+
+    @Override
+    public void invalidateAll(Iterable<?> keys) {
+        for (Object key : keys) {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        heap.invalidateAll();
+        offHeap.invalidateAll();
+    }
+
+    /**
+     * 堆内与堆外数据条数之和
+     */
+    @Override
+    public long size() {
+        return heap.size() + offHeap.size();
+    }
+
+    /**
+     * 堆内缓存的统计，堆外的见offHeapStats
+     */
+    @Override
+    public CacheStats stats() {
+        return heap.stats();
+    }
+
+    @Override
+    public void cleanUp() {
+        heap.cleanUp();
+    }
+
+    /**
+     * 不支持：通过asMap删除或修改只会作用于堆内，堆外的旧数据会在下次读取时被移回
+     */
+    @Override
+    public ConcurrentMap<String, String> asMap() {
+        throw new UnsupportedOperationException("TieredCache does not support asMap, use invalidate/put instead");
+    }
+
+    public OffHeapStore.Stats offHeapStats() {
+        return offHeap.stats();
+    }
+
+    /**
+     * 堆内的过期时间从移回堆内时算起，这里按最初的写入时间再检查一次
+     */
+    private @Nullable Object live(Object key, @Nullable Object stored) {
+        if (stored instanceof OffHeapStore.Entry
+                && offHeap.isExpired(((OffHeapStore.Entry) stored).writeNanos(), System.nanoTime())) {
+            heap.asMap().remove(key, stored);
+            return null;
+        }
+        return stored;
+    }
+
+    private @Nullable Object promote(String key) {
+        OffHeapStore.Entry entry = offHeap.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        Object stored = stored(entry.value(), entry.writeNanos());
+        heap.put(key, stored);
+        return stored;
+    }
+
+    /**
+     * 只有设置了过期时间才需要在堆内保留写入时间
+     */
+    private Object stored(String value, long writeNanos) {
+        return expiring ? new OffHeapStore.Entry(value, writeNanos) : Preconditions.checkNotNull(value);
+    }
+
+    private static String valueOf(Object stored) {
+        return stored instanceof OffHeapStore.Entry ? ((OffHeapStore.Entry) stored).value() : (String) stored;
+    }
+}
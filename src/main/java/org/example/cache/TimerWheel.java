@@ -0,0 +1,122 @@
+package org.example.cache;
+
+/**
+ * 分层时间轮，调度和取消都是O(1)。非线程安全，只由ExpiringCache的清理线程使用。
+ * <p>
+ * 每一层的桶宽是2的幂：第0层约1.07秒×64个桶，第1层约1.14分钟×64，第2层约1.22小时×32，第3层约1.63天×4，
+ * 更远的时间放进最后一层的单个溢出桶。时间推进时，上层桶中的节点如果还没到期会被重新调度到更低的层(cascade)，
+ * 因此到期时间最多比设定的晚一个第0层桶宽。
+ */
+final class TimerWheel<N extends TimerWheel.Node> {
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    private static final int[] SHIFT = {30, 36, 42, 47, 49};
+
+    interface Expirer<N> {
+        void expire(N node);
+    }
+
+    /**
+     * 时间轮上的节点，time是到期时刻(纳秒)
+     */
+    static class Node {
+        volatile long time;
+        Node prevInWheel;
+        Node nextInWheel;
+
+        boolean isScheduled() {
+            return nextInWheel != null;
+        }
+    }
+
+    private final Node[][] wheel;
+    private long nanos;
+
+    TimerWheel(long nowNanos) {
+        this.nanos = nowNanos;
+        this.wheel = new Node[BUCKETS.length][];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            wheel[i] = new Node[BUCKETS[i]];
+            for (int j = 0; j < BUCKETS[i]; j++) {
+                Node sentinel = new Node();
+                sentinel.prevInWheel = sentinel;
+                sentinel.nextInWheel = sentinel;
+                wheel[i][j] = sentinel;
+            }
+        }
+    }
+
+    void schedule(Node node) {
+        if (node.isScheduled()) {
+            unlink(node);
+        }
+        //已经过期的节点放进当前刻度的桶，下一次推进时处理
+        long time = Math.max(node.time, nanos);
+        Node sentinel = findBucket(time);
+        node.prevInWheel = sentinel.prevInWheel;
+        node.nextInWheel = sentinel;
+        sentinel.prevInWheel.nextInWheel = node;
+        sentinel.prevInWheel = node;
+    }
+
+    void deschedule(Node node) {
+        if (node.isScheduled()) {
+            unlink(node);
+        }
+    }
+
+    /**
+     * 推进到nowNanos，所有已经走过的桶中到期的节点交给expirer，未到期的重新调度
+     */
+    @SuppressWarnings("unchecked")
+    void advance(long nowNanos, Expirer<N> expirer) {
+        long previous = nanos;
+        nanos = nowNanos;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            long previousTicks = previous >>> SHIFT[i];
+            long currentTicks = nowNanos >>> SHIFT[i];
+            long delta = currentTicks - previousTicks;
+            if (delta <= 0) {
+                break;
+            }
+            int mask = BUCKETS[i] - 1;
+            //第0层处理已经走完的桶；上层在桶的时间段开始时就把节点下放到更细的层，否则最多会晚一个桶宽才到期
+            int start = (int) ((i == 0 ? previousTicks : previousTicks + 1) & mask);
+            int count = (int) Math.min(delta, BUCKETS[i]);
+            for (int j = 0; j < count; j++) {
+                Node sentinel = wheel[i][(start + j) & mask];
+                Node node = sentinel.nextInWheel;
+                sentinel.prevInWheel = sentinel;
+                sentinel.nextInWheel = sentinel;
+                while (node != sentinel) {
+                    Node next = node.nextInWheel;
+                    node.prevInWheel = null;
+                    node.nextInWheel = null;
+                    if (node.time - nowNanos <= 0) {
+                        expirer.expire((N) node);
+                    } else {
+                        schedule(node);
+                    }
+                    node = next;
+                }
+            }
+        }
+    }
+
+    private Node findBucket(long time) {
+        long delay = time - nanos;
+        int last = BUCKETS.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (delay < 1L << SHIFT[i + 1]) {
+                return wheel[i][(int) ((time >>> SHIFT[i]) & (BUCKETS[i] - 1))];
+            }
+        }
+        return wheel[last][0];
+    }
+
+    private static void unlink(Node node) {
+        node.prevInWheel.nextInWheel = node.nextInWheel;
+        node.nextInWheel.prevInWheel = node.prevInWheel;
+        node.prevInWheel = null;
+        node.nextInWheel = null;
+    }
+}
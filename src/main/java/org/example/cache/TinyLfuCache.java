@@ -0,0 +1,452 @@
+package org.example.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.AbstractCache;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * W-TinyLFU淘汰策略的有界缓存。
+ * <p>
+ * 新数据先进入一个很小的LRU窗口(window)，从窗口淘汰出来的候选者要和主区(SLRU: probation + protected)的
+ * 淘汰者比较访问频率，频率更高才能进入主区。这样只访问一次的key(一次性扫描)无法把热点数据挤出缓存。
+ * <p>
+ * 数据存放在ConcurrentHashMap中，读取不加锁：命中的Node或未命中的key写入按线程分段的有损读缓冲，
+ * 缓冲过半时由抢到锁的线程批量更新频率统计和LRU顺序，抢不到就交给下一次。缓冲写满时直接丢弃，
+ * 只影响淘汰策略的精度，不影响读到的值。put/invalidate以及淘汰在同一把锁下执行，执行前先清空读缓冲。
+ * 加载过程在锁外执行，同一个key的并发加载只会执行一次。
+ */
+public class TinyLfuCache<K, V> extends AbstractCache<K, V> {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    /**
+     * 已被淘汰或删除，读缓冲里残留的访问记录不再更新它的位置
+     */
+    private static final int DEAD = -1;
+    private static final int READ_BUFFER_SIZE = 64;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+
+    private final ConcurrentMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final ConcurrentMap<K, SettableFuture<V>> loading = new ConcurrentHashMap<>();
+    private final ReadBuffer[] readBuffers;
+    private final int readBufferMask;
+    /**
+     * 保护sketch、三个队列和Node.region
+     */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final NodeDeque<K, V> window = new NodeDeque<>();
+    private final NodeDeque<K, V> probation = new NodeDeque<>();
+    private final NodeDeque<K, V> protectedDeque = new NodeDeque<>();
+    private final long maximumSize;
+    private final long maxWindow;
+    private final long maxProtected;
+    private final StatsCounter statsCounter;
+
+    TinyLfuCache(long maximumSize, double windowRatio, boolean recordStats) {
+        Preconditions.checkArgument(maximumSize > 0, "maximumSize must be positive");
+        Preconditions.checkArgument(windowRatio > 0 && windowRatio < 1, "windowRatio must be in (0, 1)");
+        this.maximumSize = maximumSize;
+        this.maxWindow = Math.max(1, (long) (maximumSize * windowRatio));
+        this.maxProtected = (long) ((maximumSize - maxWindow) * 0.8);
+        this.sketch = new FrequencySketch(maximumSize);
+        this.statsCounter = recordStats ? new SimpleStatsCounter() : NoopStatsCounter.INSTANCE;
+        int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+        this.readBuffers = new ReadBuffer[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+        this.readBufferMask = stripes - 1;
+    }
+
+    @Override
+    public @Nullable V getIfPresent(Object key) {
+        Node<K, V> node = data.get(key);
+        V value;
+        if (node == null) {
+            value = null;
+            afterRead(key);
+            statsCounter.recordMisses(1);
+        } else {
+            value = node.value;
+            afterRead(node);
+            statsCounter.recordHits(1);
+        }
+        return value;
+    }
+
+    @Override
+    public V get(K key, Callable<? extends V> loader) throws ExecutionException {
+        Preconditions.checkNotNull(loader);
+        V value = getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        SettableFuture<V> future = SettableFuture.create();
+        SettableFuture<V> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            return waitFor(existing);
+        }
+        try {
+            //上一个加载者可能在getIfPresent之后、putIfAbsent之前刚写入并移除了它的future
+            Node<K, V> node = data.get(key);
+            if (node != null) {
+                value = node.value;
+                future.set(value);
+                return value;
+            }
+            long start = System.nanoTime();
+            try {
+                value = loader.call();
+                if (value == null) {
+                    throw new CacheLoader.InvalidCacheLoadException("loader returned null for key " + key);
+                }
+            } catch (Throwable t) {
+                statsCounter.recordLoadException(System.nanoTime() - start);
+                future.setException(t);
+                return waitFor(future);
+            }
+            put(key, value);
+            statsCounter.recordLoadSuccess(System.nanoTime() - start);
+            future.set(value);
+            return value;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    private static <V> V waitFor(SettableFuture<V> future) throws ExecutionException {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CacheLoader.InvalidCacheLoadException) {
+                throw (CacheLoader.InvalidCacheLoadException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw new UncheckedExecutionException(cause);
+            } else if (cause instanceof Error) {
+                throw new ExecutionError((Error) cause);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void put(K key, V value) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(value);
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            Node<K, V> node = data.get(key);
+            if (node != null) {
+                node.value = value;
+                onHit(node);
+                return;
+            }
+            node = new Node<>(key, value);
+            node.region = WINDOW;
+            window.addLast(node);
+            data.put(key, node);
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            Node<K, V> node = data.remove(key);
+            if (node != null) {
+                dequeOf(node).remove(node);
+                node.region = DEAD;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            data.clear();
+            //读缓冲里可能还留着这些Node，标记为DEAD后再清空队列
+            for (NodeDeque<K, V> deque : Arrays.asList(window, probation, protectedDeque)) {
+                Node<K, V> node;
+                while ((node = deque.pollFirst()) != null) {
+                    node.region = DEAD;
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        return data.size();
+    }
+
+    @Override
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * 把一次访问(命中的Node或未命中的key)放进当前线程的读缓冲，缓冲过半时尝试清空
+     */
+    private void afterRead(Object access) {
+        ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & readBufferMask];
+        if (buffer.offer(access) >= READ_BUFFER_DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 持有evictionLock时调用
+     */
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            long read = buffer.readIndex;
+            long write = buffer.writeIndex.get();
+            for (; read != write; read++) {
+                int index = (int) read & READ_BUFFER_MASK;
+                Object access = buffer.slots.get(index);
+                if (access == null) {
+                    //写入者已占位但还没放入元素，留到下一次
+                    break;
+                }
+                buffer.slots.lazySet(index, null);
+                onAccess(access);
+            }
+            buffer.readIndex = read;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onAccess(Object access) {
+        if (access instanceof Node) {
+            Node<K, V> node = (Node<K, V>) access;
+            sketch.increment(node.key);
+            if (node.region != DEAD) {
+                onHit(node);
+            }
+        } else {
+            sketch.increment(access);
+        }
+    }
+
+    /**
+     * 命中时更新所在区域的LRU顺序，probation中的数据被再次访问则晋升到protected
+     */
+    private void onHit(Node<K, V> node) {
+        if (node.region == WINDOW) {
+            window.moveToLast(node);
+        } else if (node.region == PROBATION) {
+            probation.remove(node);
+            node.region = PROTECTED;
+            protectedDeque.addLast(node);
+            if (protectedDeque.size > maxProtected) {
+                Node<K, V> demoted = protectedDeque.pollFirst();
+                demoted.region = PROBATION;
+                probation.addLast(demoted);
+            }
+        } else {
+            protectedDeque.moveToLast(node);
+        }
+    }
+
+    /**
+     * 窗口溢出的数据作为候选者进入probation，总量超出后由TinyLFU决定淘汰候选者还是probation的队首
+     */
+    private void evict() {
+        while (window.size > maxWindow) {
+            Node<K, V> candidate = window.pollFirst();
+            candidate.region = PROBATION;
+            probation.addLast(candidate);
+        }
+        while (data.size() > maximumSize) {
+            Node<K, V> victim = probation.peekFirst();
+            Node<K, V> candidate = probation.peekLast();
+            if (victim == null) {
+                victim = protectedDeque.peekFirst() != null ? protectedDeque.peekFirst() : window.peekFirst();
+                remove(victim);
+                continue;
+            }
+            if (victim != candidate && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                remove(victim);
+            } else {
+                remove(candidate);
+            }
+        }
+    }
+
+    private void remove(Node<K, V> node) {
+        dequeOf(node).remove(node);
+        data.remove(node.key, node);
+        node.region = DEAD;
+        statsCounter.recordEviction();
+    }
+
+    private NodeDeque<K, V> dequeOf(Node<K, V> node) {
+        return node.region == WINDOW ? window : node.region == PROBATION ? probation : protectedDeque;
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        int region;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * 单个分段的环形读缓冲：写入者CAS占位后放入元素，只有持有evictionLock的线程读取
+     */
+    private static final class ReadBuffer {
+        final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        final AtomicLong writeIndex = new AtomicLong();
+        volatile long readIndex;
+
+        /**
+         * 返回放入后缓冲中的元素个数；缓冲已满或CAS失败时丢弃这次访问
+         */
+        long offer(Object access) {
+            long write = writeIndex.get();
+            long pending = write - readIndex;
+            if (pending >= READ_BUFFER_SIZE) {
+                return pending;
+            }
+            if (writeIndex.compareAndSet(write, write + 1)) {
+                slots.lazySet((int) write & READ_BUFFER_MASK, access);
+                return pending + 1;
+            }
+            return pending;
+        }
+    }
+
+    /**
+     * 侵入式双向链表，头部是最久未访问的数据
+     */
+    private static final class NodeDeque<K, V> {
+        Node<K, V> head;
+        Node<K, V> tail;
+        long size;
+
+        void addLast(Node<K, V> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        Node<K, V> peekFirst() {
+            return head;
+        }
+
+        Node<K, V> peekLast() {
+            return tail;
+        }
+
+        Node<K, V> pollFirst() {
+            Node<K, V> node = head;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void clear() {
+            head = null;
+            tail = null;
+            size = 0;
+        }
+    }
+
+    private enum NoopStatsCounter implements StatsCounter {
+        INSTANCE;
+
+        @Override
+        public void recordHits(int count) {
+        }
+
+        @Override
+        public void recordMisses(int count) {
+        }
+
+        @Override
+        public void recordLoadSuccess(long loadTime) {
+        }
+
+        @Override
+        public void recordLoadException(long loadTime) {
+        }
+
+        @Override
+        public void recordEviction() {
+        }
+
+        @Override
+        public CacheStats snapshot() {
+            return new CacheStats(0, 0, 0, 0, 0, 0);
+        }
+    }
+}
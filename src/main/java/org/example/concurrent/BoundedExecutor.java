@@ -0,0 +1,350 @@
+package org.example.concurrent;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AbstractListeningExecutorService;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有界的线程池：先把线程加到maximumPoolSize，所有线程都忙时才排队，队列满时拒绝。
+ * <p>
+ * ThreadPoolExecutor只有在队列offer失败时才创建超过core的线程，因此core=2、max=15配无界队列的线程池
+ * 永远只有2个线程，过载时队列无限增长。这里的队列在还能加线程时让offer返回false，迫使线程池先加线程；
+ * 加线程失败(已到max)时由拒绝处理器再放入队列，队列也满才真正拒绝。
+ * <p>
+ * 过载时提交方可以选择：submit/execute按ExecutorService的约定抛出RejectedExecutionException；
+ * submitOrFail返回已失败的ListenableFuture，可以和正常结果一样用Futures.catching处理；
+ * trySubmit/tryExecute不抛异常，返回absent/false。拒绝使用不记录堆栈的异常，过载时只多一次很小的分配。
+ * <pre>
+ * BoundedExecutor executor = BoundedExecutor.newBuilder()
+ *         .corePoolSize(2)
+ *         .maximumPoolSize(64)
+ *         .queueCapacity(256)
+ *         .build();
+ * Optional&lt;ListenableFuture&lt;String&gt;&gt; future = executor.trySubmit(task);
+ * if (!future.isPresent()) {
+ *     //过载，降级或返回503
+ * }
+ * </pre>
+ */
+public final class BoundedExecutor extends AbstractListeningExecutorService {
+    private final ScalingThreadPoolExecutor executor;
+    private final ScalingQueue queue;
+    private final int queueCapacity;
+    /**
+     * 已接受、尚未执行完的任务数，包括排队的
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private BoundedExecutor(Builder builder) {
+        this.queueCapacity = builder.queueCapacity;
+        this.queue = new ScalingQueue(builder.queueCapacity);
+        this.executor = new ScalingThreadPoolExecutor(builder.corePoolSize, builder.maximumPoolSize,
+                builder.keepAliveNanos, queue, builder.threadFactory);
+        if (builder.allowCoreThreadTimeOut) {
+            executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @throws RejectedExecutionException 线程和队列都满或已关闭时
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (!tryExecute(command)) {
+            throw isShutdown() ? new RejectedExecutionException("executor has been shut down") : new Overloaded();
+        }
+    }
+
+    /**
+     * @return 线程和队列都满或已关闭时返回false，command没有被接受
+     */
+    public boolean tryExecute(Runnable command) {
+        Preconditions.checkNotNull(command);
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(command);
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * @return 过载时返回absent，task不会执行
+     */
+    public <T> Optional<ListenableFuture<T>> trySubmit(Callable<T> task) {
+        ListenableFutureTask<T> future = ListenableFutureTask.create(task);
+        return tryExecute(future) ? Optional.<ListenableFuture<T>>of(future) : Optional.<ListenableFuture<T>>absent();
+    }
+
+    /**
+     * 过载时返回以RejectedExecutionException失败的future，而不是抛出异常
+     */
+    public <T> ListenableFuture<T> submitOrFail(Callable<T> task) {
+        ListenableFutureTask<T> future = ListenableFutureTask.create(task);
+        return tryExecute(future) ? future : Futures.<T>immediateFailedFuture(new Overloaded());
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return executor.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    public Stats stats() {
+        return new Stats(executor.getPoolSize(), executor.getLargestPoolSize(), executor.getActiveCount(),
+                queue.size(), queueCapacity, executor.getCompletedTaskCount(), rejectedCount.get());
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("corePoolSize", executor.getCorePoolSize())
+                .add("maximumPoolSize", executor.getMaximumPoolSize())
+                .add("queueCapacity", queueCapacity)
+                .add("stats", stats())
+                .toString();
+    }
+
+    /**
+     * 只有所有线程都忙且线程数已到最大时才入队
+     */
+    private final class ScalingQueue extends LinkedBlockingQueue<Runnable> {
+        ScalingQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        public boolean offer(Runnable runnable) {
+            int poolSize = executor.getPoolSize();
+            //inFlight已包含这个任务，不多于线程数说明有空闲线程在等待队列
+            if (inFlight.get() <= poolSize || poolSize >= executor.getMaximumPoolSize()) {
+                return super.offer(runnable);
+            }
+            return false;
+        }
+
+        boolean forceOffer(Runnable runnable) {
+            return super.offer(runnable);
+        }
+    }
+
+    private final class ScalingThreadPoolExecutor extends ThreadPoolExecutor {
+        ScalingThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveNanos, ScalingQueue queue,
+                                  ThreadFactory threadFactory) {
+            super(corePoolSize, maximumPoolSize, keepAliveNanos, TimeUnit.NANOSECONDS, queue, threadFactory,
+                    new RejectedExecutionHandler() {
+                        @Override
+                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                            //加线程失败(并发提交已经把线程加到max)时再尝试入队
+                            if (executor.isShutdown()) {
+                                throw new RejectedExecutionException("executor has been shut down");
+                            }
+                            if (!queue.forceOffer(r)) {
+                                throw Overloaded.INSTANCE;
+                            }
+                        }
+                    });
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * 过载时的拒绝，不记录堆栈。
+     * 交给调用方的每次新建：RejectedExecutionException不能关闭suppressed，共用的实例会被addSuppressed不断追加；
+     * INSTANCE只用于拒绝处理器通知tryExecute，不会传出
+     */
+    private static final class Overloaded extends RejectedExecutionException {
+        static final Overloaded INSTANCE = new Overloaded();
+
+        Overloaded() {
+            super("executor overloaded: all threads busy and queue full");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    public static final class Stats {
+        private final int poolSize;
+        private final int largestPoolSize;
+        private final int activeCount;
+        private final int queueSize;
+        private final int queueCapacity;
+        private final long completedTaskCount;
+        private final long rejectedCount;
+
+        Stats(int poolSize, int largestPoolSize, int activeCount, int queueSize, int queueCapacity,
+              long completedTaskCount, long rejectedCount) {
+            this.poolSize = poolSize;
+            this.largestPoolSize = largestPoolSize;
+            this.activeCount = activeCount;
+            this.queueSize = queueSize;
+            this.queueCapacity = queueCapacity;
+            this.completedTaskCount = completedTaskCount;
+            this.rejectedCount = rejectedCount;
+        }
+
+        public int poolSize() {
+            return poolSize;
+        }
+
+        public int largestPoolSize() {
+            return largestPoolSize;
+        }
+
+        public int activeCount() {
+            return activeCount;
+        }
+
+        public int queueSize() {
+            return queueSize;
+        }
+
+        public int queueCapacity() {
+            return queueCapacity;
+        }
+
+        public long completedTaskCount() {
+            return completedTaskCount;
+        }
+
+        /**
+         * 因过载被拒绝的任务数
+         */
+        public long rejectedCount() {
+            return rejectedCount;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("poolSize", poolSize)
+                    .add("largestPoolSize", largestPoolSize)
+                    .add("activeCount", activeCount)
+                    .add("queueSize", queueSize)
+                    .add("queueCapacity", queueCapacity)
+                    .add("completedTaskCount", completedTaskCount)
+                    .add("rejectedCount", rejectedCount)
+                    .toString();
+        }
+    }
+
+    public static final class Builder {
+        private int corePoolSize = Runtime.getRuntime().availableProcessors();
+        private int maximumPoolSize = Runtime.getRuntime().availableProcessors() * 8;
+        private int queueCapacity = 1024;
+        private long keepAliveNanos = TimeUnit.SECONDS.toNanos(60);
+        private boolean allowCoreThreadTimeOut;
+        private ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("bounded-%d")
+                .setDaemon(true)
+                .build();
+
+        private Builder() {
+        }
+
+        /**
+         * 默认CPU数
+         */
+        public Builder corePoolSize(int corePoolSize) {
+            Preconditions.checkArgument(corePoolSize >= 0, "corePoolSize must be non-negative");
+            this.corePoolSize = corePoolSize;
+            return this;
+        }
+
+        /**
+         * 默认8倍CPU数；任务多为阻塞IO时可以设得更大
+         */
+        public Builder maximumPoolSize(int maximumPoolSize) {
+            Preconditions.checkArgument(maximumPoolSize > 0, "maximumPoolSize must be positive");
+            this.maximumPoolSize = maximumPoolSize;
+            return this;
+        }
+
+        /**
+         * 线程都忙时最多排队的任务数，默认1024
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * 超过core的线程空闲多久后回收，默认60秒
+         */
+        public Builder keepAlive(long duration, TimeUnit unit) {
+            Preconditions.checkArgument(duration > 0, "duration must be positive");
+            this.keepAliveNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * core线程空闲超过keepAlive时也回收
+         */
+        public Builder allowCoreThreadTimeOut(boolean allowCoreThreadTimeOut) {
+            this.allowCoreThreadTimeOut = allowCoreThreadTimeOut;
+            return this;
+        }
+
+        public Builder threadFactory(ThreadFactory threadFactory) {
+            this.threadFactory = Preconditions.checkNotNull(threadFactory);
+            return this;
+        }
+
+        public BoundedExecutor build() {
+            Preconditions.checkArgument(corePoolSize <= maximumPoolSize,
+                    "corePoolSize %s exceeds maximumPoolSize %s", corePoolSize, maximumPoolSize);
+            return new BoundedExecutor(this);
+        }
+    }
+}
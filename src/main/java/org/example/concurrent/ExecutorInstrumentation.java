@@ -0,0 +1,331 @@
+package org.example.concurrent;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.math.IntMath;
+import com.google.common.util.concurrent.AbstractListeningExecutorService;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.example.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按线程池名字统计任务的排队时间和执行时间(纳秒)，以及执行中、排队中、被拒绝的任务数。
+ * <p>
+ * instrument返回的ListeningExecutorService把每个任务包装一层：提交时记下时间，开始执行时记录排队时间，
+ * 结束时记录执行时间，都写入无锁的Histogram；计数用LongAdder，多个线程同时提交和完成时不争用同一个缓存行。
+ * 同名的线程池共用一份统计，名字一般与ThreadFactoryBuilder.setNameFormat的前缀一致。
+ * <p>
+ * 每个任务额外的开销是一个包装对象和几次计数；计时最多需要三次System.nanoTime(提交、开始、结束)。
+ * 工作线程上一个被计时的任务结束时，如果下一个任务在那之前就已提交(线程池有积压)，直接把上一个的结束时间当作它的开始时间，
+ * 省掉一次nanoTime；因此delegate的工作线程上不应执行未经包装的任务，否则它们的耗时会算进下一个任务的执行时间。
+ * 在nanoTime约80ns的虚拟机上，全部计时时每个任务仍多出约200-300ns，达不到几十纳秒的目标；
+ * 与CacheInstrumentation一样可以按1/sampleInterval采样计时，计数始终是精确的。见ExecutorInstrumentationBenchmark。
+ * <p>
+ * 执行时间和completed在包装的任务返回后才记录，而submit返回的future在任务内部就已完成，
+ * 所以future.get()返回后立即取的快照可能还没有算上这个任务；需要完整的统计时先shutdown再awaitTermination。
+ * shutdownNow返回提交时的原始任务，取回的未执行任务计入dropped，不再算作排队中；delegate自己丢弃的任务(例如DiscardPolicy)无法察觉，会一直算作排队中。
+ * <pre>
+ * ExecutorInstrumentation instrumentation = new ExecutorInstrumentation(1);
+ * ListeningExecutorService orders = instrumentation.instrument("orders", new ThreadPoolExecutor(...,
+ *         new ThreadFactoryBuilder().setNameFormat("orders-%d").build()));
+ * ExecutorInstrumentation.Snapshot snapshot = instrumentation.snapshot("orders");
+ * snapshot.queueWaitNanos().percentile(99);
+ * </pre>
+ */
+public class ExecutorInstrumentation {
+    private final ConcurrentMap<String, PoolStats> pools = new ConcurrentHashMap<>();
+    private final int sampleInterval;
+    private final int sampleMask;
+
+    /**
+     * @param sampleInterval 每多少个任务记录一次排队和执行时间，向上取整为2的幂，1表示全部记录
+     */
+    public ExecutorInstrumentation(int sampleInterval) {
+        Preconditions.checkArgument(sampleInterval > 0, "sampleInterval must be positive");
+        this.sampleInterval = IntMath.ceilingPowerOfTwo(sampleInterval);
+        this.sampleMask = this.sampleInterval - 1;
+    }
+
+    /**
+     * 包装delegate，关闭返回的executor会关闭delegate
+     */
+    public ListeningExecutorService instrument(String name, ExecutorService delegate) {
+        Preconditions.checkNotNull(delegate);
+        return new InstrumentedExecutorService(stats(name), delegate, sampleMask);
+    }
+
+    public int sampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * @return 没有这个名字的线程池时返回null
+     */
+    public @Nullable Snapshot snapshot(String name) {
+        PoolStats stats = pools.get(name);
+        return stats == null ? null : stats.snapshot(name);
+    }
+
+    /**
+     * 所有线程池的快照，按名字排序
+     */
+    public ImmutableSortedMap<String, Snapshot> snapshots() {
+        ImmutableSortedMap.Builder<String, Snapshot> result = ImmutableSortedMap.naturalOrder();
+        for (Map.Entry<String, PoolStats> entry : pools.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return result.build();
+    }
+
+    private PoolStats stats(String name) {
+        Preconditions.checkNotNull(name);
+        PoolStats stats = pools.get(name);
+        if (stats == null) {
+            PoolStats created = new PoolStats();
+            stats = pools.putIfAbsent(name, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    private static final class PoolStats {
+        final Histogram queueWaitNanos = new Histogram();
+        final Histogram runNanos = new Histogram();
+        final LongAdder submitted = new LongAdder();
+        final LongAdder started = new LongAdder();
+        final LongAdder completed = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+
+        Snapshot snapshot(String name) {
+            //先读后发生的计数，保证started不超过submitted、completed不超过started
+            long completedCount = completed.sum();
+            long startedCount = started.sum();
+            long droppedCount = dropped.sum();
+            long rejectedCount = rejected.sum();
+            long submittedCount = submitted.sum();
+            return new Snapshot(name, queueWaitNanos.snapshot(), runNanos.snapshot(),
+                    Math.max(0, startedCount - completedCount),
+                    Math.max(0, submittedCount - rejectedCount - droppedCount - startedCount),
+                    completedCount, rejectedCount, droppedCount);
+        }
+    }
+
+    private static final class InstrumentedExecutorService extends AbstractListeningExecutorService {
+        private final PoolStats stats;
+        private final ExecutorService delegate;
+        private final int sampleMask;
+
+        InstrumentedExecutorService(PoolStats stats, ExecutorService delegate, int sampleMask) {
+            this.stats = stats;
+            this.delegate = delegate;
+            this.sampleMask = sampleMask;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            Preconditions.checkNotNull(command);
+            boolean sampled = sampleMask == 0 || (ThreadLocalRandom.current().nextInt() & sampleMask) == 0;
+            TimedRunnable task = new TimedRunnable(command, stats, sampled);
+            stats.submitted.increment();
+            try {
+                delegate.execute(task);
+            } catch (RejectedExecutionException e) {
+                stats.rejected.increment();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            List<Runnable> drained = delegate.shutdownNow();
+            List<Runnable> tasks = new ArrayList<>(drained.size());
+            for (Runnable task : drained) {
+                //delegate可能被多个名字共用，计入任务自己所属的统计
+                if (task instanceof TimedRunnable) {
+                    TimedRunnable timed = (TimedRunnable) task;
+                    timed.stats.dropped.increment();
+                    tasks.add(timed.task);
+                } else {
+                    tasks.add(task);
+                }
+            }
+            return tasks;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    private static final class TimedRunnable implements Runnable {
+        private static final long NO_END = Long.MAX_VALUE;
+        /**
+         * 当前工作线程上一个任务结束的nanoTime；上一个任务没有计时时为NO_END
+         */
+        private static final ThreadLocal<long[]> LAST_END = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[]{NO_END};
+            }
+        };
+
+        private final Runnable task;
+        private final PoolStats stats;
+        private final boolean sampled;
+        private final long submittedNanos;
+
+        TimedRunnable(Runnable task, PoolStats stats, boolean sampled) {
+            this.task = task;
+            this.stats = stats;
+            this.sampled = sampled;
+            this.submittedNanos = sampled ? System.nanoTime() : 0;
+        }
+
+        @Override
+        public void run() {
+            stats.started.increment();
+            long[] lastEnd = LAST_END.get();
+            if (!sampled) {
+                lastEnd[0] = NO_END;
+                try {
+                    task.run();
+                } finally {
+                    stats.completed.increment();
+                }
+                return;
+            }
+            //上一个任务结束前就已提交，说明本线程结束上一个任务后直接取到了它
+            long start = lastEnd[0] != NO_END && submittedNanos - lastEnd[0] <= 0 ? lastEnd[0] : System.nanoTime();
+            stats.queueWaitNanos.record(Math.max(0, start - submittedNanos));
+            lastEnd[0] = NO_END;
+            try {
+                task.run();
+            } finally {
+                long end = System.nanoTime();
+                stats.runNanos.record(Math.max(0, end - start));
+                stats.completed.increment();
+                lastEnd[0] = end;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+
+    public static final class Snapshot {
+        private final String name;
+        private final Histogram.Snapshot queueWaitNanos;
+        private final Histogram.Snapshot runNanos;
+        private final long active;
+        private final long queued;
+        private final long completed;
+        private final long rejected;
+        private final long dropped;
+
+        Snapshot(String name, Histogram.Snapshot queueWaitNanos, Histogram.Snapshot runNanos,
+                 long active, long queued, long completed, long rejected, long dropped) {
+            this.name = name;
+            this.queueWaitNanos = queueWaitNanos;
+            this.runNanos = runNanos;
+            this.active = active;
+            this.queued = queued;
+            this.completed = completed;
+            this.rejected = rejected;
+            this.dropped = dropped;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        /**
+         * 从提交到开始执行的时间，采样时只包含被采样的任务
+         */
+        public Histogram.Snapshot queueWaitNanos() {
+            return queueWaitNanos;
+        }
+
+        /**
+         * 从开始执行到执行结束(包括抛出异常)的时间
+         */
+        public Histogram.Snapshot runNanos() {
+            return runNanos;
+        }
+
+        /**
+         * 正在执行的任务数
+         */
+        public long active() {
+            return active;
+        }
+
+        /**
+         * 已接受、尚未开始执行的任务数
+         */
+        public long queued() {
+            return queued;
+        }
+
+        public long completed() {
+            return completed;
+        }
+
+        public long rejected() {
+            return rejected;
+        }
+
+        /**
+         * shutdownNow时还没开始执行、被取回的任务数
+         */
+        public long dropped() {
+            return dropped;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("name", name)
+                    .add("active", active)
+                    .add("queued", queued)
+                    .add("completed", completed)
+                    .add("rejected", rejected)
+                    .add("dropped", dropped)
+                    .add("queueWaitNanos", queueWaitNanos)
+                    .add("runNanos", runNanos)
+                    .toString();
+        }
+    }
+}
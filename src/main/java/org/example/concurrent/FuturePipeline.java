@@ -0,0 +1,273 @@
+package org.example.concurrent;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * 把一串Futures.transform/transformAsync合并执行的流水线。
+ * <p>
+ * 每个Futures.transform(future, function, executor)都会向executor提交一个任务，函数再简单也要付出一次
+ * 排队交接和线程切换。这里只在声明的边界切换线程：transform的函数应当很快，连续的transform在同一个任务里依次执行；
+ * transformBlocking在指定的executor上执行，之后的transform继续留在那个线程上(下一个阻塞阶段使用同一个executor时也不再切换)；
+ * transformAsync直接调用AsyncFunction，返回的future完成后在完成它的线程上继续。
+ * <p>
+ * 各阶段由一个循环驱动，已经完成的future直接取值继续下一阶段，不注册监听器，因此再长的链也不会因为监听器逐层嵌套而栈溢出。
+ * 取消返回的future会取消正在等待的异步阶段，后续阶段不再执行。
+ * <pre>
+ * FuturePipeline&lt;String, Integer&gt; pipeline = FuturePipeline.&lt;String&gt;newBuilder()
+ *         .transform(trim)
+ *         .transformBlocking(loadFromDb, ioExecutor)
+ *         .transform(parse)
+ *         .transformAsync(lookupRemote)
+ *         .build();
+ * ListenableFuture&lt;Integer&gt; result = pipeline.apply(inputFuture);
+ * </pre>
+ *
+ * @param <I> 输入类型
+ * @param <O> 输出类型
+ */
+public final class FuturePipeline<I, O> {
+    private final ImmutableList<Stage> stages;
+
+    private FuturePipeline(ImmutableList<Stage> stages) {
+        this.stages = stages;
+    }
+
+    public static <I> Builder<I, I> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * input完成后执行流水线；第一个边界之前的transform在完成input的线程上执行
+     */
+    public ListenableFuture<O> apply(final ListenableFuture<? extends I> input) {
+        final Run<O> run = new Run<>(stages);
+        if (input.isDone()) {
+            run.resume(input, 0);
+        } else {
+            run.pending = input;
+            input.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    run.resume(input, 0);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+        return run.result;
+    }
+
+    /**
+     * 在当前线程上从input开始执行，直到第一个需要切换线程或等待的边界
+     */
+    public ListenableFuture<O> applyNow(@Nullable I input) {
+        Run<O> run = new Run<>(stages);
+        run.loop(input, 0, null);
+        return run.result;
+    }
+
+    /**
+     * 声明的阶段数
+     */
+    public int size() {
+        return stages.size();
+    }
+
+    private enum Kind {
+        SYNC, BLOCKING, ASYNC
+    }
+
+    private static final class Stage {
+        final Kind kind;
+        final @Nullable Function<Object, Object> function;
+        final @Nullable AsyncFunction<Object, Object> asyncFunction;
+        final @Nullable Executor executor;
+
+        Stage(Kind kind, @Nullable Function<Object, Object> function,
+              @Nullable AsyncFunction<Object, Object> asyncFunction, @Nullable Executor executor) {
+            this.kind = kind;
+            this.function = function;
+            this.asyncFunction = asyncFunction;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * 一次执行的状态
+     */
+    private static final class Run<O> {
+        final ImmutableList<Stage> stages;
+        final SettableFuture<O> result = SettableFuture.create();
+        /**
+         * 正在等待的future，取消result时一起取消
+         */
+        volatile @Nullable Future<?> pending;
+
+        Run(ImmutableList<Stage> stages) {
+            this.stages = stages;
+            result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    Future<?> waiting = pending;
+                    if (result.isCancelled() && waiting != null) {
+                        waiting.cancel(true);
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        /**
+         * future已完成，在完成它的线程上取值后从第index个阶段继续
+         */
+        void resume(Future<?> future, int index) {
+            pending = null;
+            Object value;
+            try {
+                value = Futures.getDone(future);
+            } catch (ExecutionException e) {
+                result.setException(e.getCause());
+                return;
+            } catch (CancellationException e) {
+                result.cancel(false);
+                return;
+            }
+            loop(value, index, null);
+        }
+
+        /**
+         * @param current 当前所在的阻塞阶段executor，null表示不在任何阻塞阶段的线程上
+         */
+        @SuppressWarnings("unchecked")
+        void loop(@Nullable Object value, int index, @Nullable Executor current) {
+            try {
+                for (int i = index; i < stages.size(); i++) {
+                    if (result.isDone()) {
+                        return;
+                    }
+                    Stage stage = stages.get(i);
+                    switch (stage.kind) {
+                        case SYNC:
+                            value = stage.function.apply(value);
+                            break;
+                        case BLOCKING:
+                            if (stage.executor != current) {
+                                hop(value, i, stage.executor);
+                                return;
+                            }
+                            value = stage.function.apply(value);
+                            break;
+                        case ASYNC:
+                            ListenableFuture<Object> future = Preconditions.checkNotNull(
+                                    stage.asyncFunction.apply(value), "AsyncFunction returned null");
+                            if (!future.isDone()) {
+                                await(future, i + 1);
+                                return;
+                            }
+                            //已完成的future直接取值继续，不注册监听器
+                            try {
+                                value = Futures.getDone(future);
+                            } catch (ExecutionException e) {
+                                result.setException(e.getCause());
+                                return;
+                            } catch (CancellationException e) {
+                                result.cancel(false);
+                                return;
+                            }
+                            break;
+                        default:
+                            throw new AssertionError(stage.kind);
+                    }
+                }
+                result.set((O) value);
+            } catch (Throwable t) {
+                result.setException(t);
+            }
+        }
+
+        private void hop(@Nullable final Object value, final int index, final Executor executor) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    loop(value, index, executor);
+                }
+            });
+        }
+
+        private void await(final ListenableFuture<Object> future, final int index) {
+            pending = future;
+            if (result.isCancelled()) {
+                future.cancel(true);
+                return;
+            }
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    resume(future, index);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+    }
+
+    /**
+     * 与CacheBuilder一样，添加阶段返回的是同一个Builder，只是类型参数变了
+     *
+     * @param <I> 流水线的输入类型
+     * @param <O> 目前最后一个阶段的输出类型
+     */
+    public static final class Builder<I, O> {
+        private final ImmutableList.Builder<Stage> stages = ImmutableList.builder();
+
+        private Builder() {
+        }
+
+        /**
+         * 很快的同步函数，与前后的transform在同一个线程上连续执行
+         */
+        public <R> Builder<I, R> transform(Function<? super O, ? extends R> function) {
+            return add(new Stage(Kind.SYNC, erase(function), null, null));
+        }
+
+        /**
+         * 会阻塞或很慢的函数，在executor上执行；之后的transform留在同一个线程上
+         */
+        public <R> Builder<I, R> transformBlocking(Function<? super O, ? extends R> function, Executor executor) {
+            return add(new Stage(Kind.BLOCKING, erase(function), null, Preconditions.checkNotNull(executor)));
+        }
+
+        /**
+         * function本身应当很快(例如发起一次远程调用)，返回的future完成后在完成它的线程上继续
+         */
+        @SuppressWarnings("unchecked")
+        public <R> Builder<I, R> transformAsync(AsyncFunction<? super O, R> function) {
+            Preconditions.checkNotNull(function);
+            return add(new Stage(Kind.ASYNC, null, (AsyncFunction<Object, Object>) (AsyncFunction<?, ?>) function,
+                    null));
+        }
+
+        public FuturePipeline<I, O> build() {
+            return new FuturePipeline<>(stages.build());
+        }
+
+        @SuppressWarnings("unchecked")
+        private <R> Builder<I, R> add(Stage stage) {
+            stages.add(stage);
+            return (Builder<I, R>) this;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Function<Object, Object> erase(Function<?, ?> function) {
+            return (Function<Object, Object>) Preconditions.checkNotNull(function);
+        }
+    }
+}
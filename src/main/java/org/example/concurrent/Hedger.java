@@ -0,0 +1,294 @@
+package org.example.concurrent;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.example.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对冲请求：第一次调用超过延迟分布的某个百分位(默认p95)仍未返回时，再发起一次相同的调用，取最先成功的结果，
+ * 其余调用随即取消。某个副本偶尔很慢时，整体的p99接近两次独立调用中较快者的p99，额外负载约为(100-percentile)%。
+ * <p>
+ * 每次正常返回或失败的调用的耗时记入直方图(被取消的不记)，每WINDOW次调用用这段时间内的分布重新计算对冲延迟，
+ * 第一个窗口之前使用initialDelay。某次调用失败时不等延迟，立即发起下一次，所有调用都失败才失败。
+ * 只适合幂等的调用。
+ * <pre>
+ * Hedger hedger = Hedger.newBuilder()
+ *         .percentile(95)
+ *         .initialDelay(10, TimeUnit.MILLISECONDS)
+ *         .build(scheduler);
+ * ListenableFuture&lt;String&gt; value = hedger.call(new AsyncCallable&lt;String&gt;() {
+ *     public ListenableFuture&lt;String&gt; call() {
+ *         return replicaClient.get(key);
+ *     }
+ * });
+ * </pre>
+ */
+public final class Hedger {
+    static final int WINDOW = 1000;
+
+    private final ScheduledExecutorService scheduler;
+    private final double percentile;
+    private final int maxAttempts;
+    private final Histogram attemptNanos = new Histogram();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong untilRefresh = new AtomicLong(WINDOW);
+    private volatile long delayNanos;
+
+    private Hedger(Builder builder, ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        this.percentile = builder.percentile;
+        this.maxAttempts = builder.maxAttempts;
+        this.delayNanos = builder.initialDelayNanos;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * 调用callable，必要时再对冲调用最多maxAttempts-1次。取消返回的future会取消所有进行中的调用
+     */
+    public <T> ListenableFuture<T> call(AsyncCallable<T> callable) {
+        Preconditions.checkNotNull(callable);
+        calls.incrementAndGet();
+        HedgedCall<T> call = new HedgedCall<>(callable);
+        call.startAttempt();
+        return call.result;
+    }
+
+    /**
+     * 当前的对冲延迟
+     */
+    public long delay(TimeUnit unit) {
+        return unit.convert(delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public Stats stats() {
+        return new Stats(calls.get(), hedges.get(), delayNanos, attemptNanos.snapshot());
+    }
+
+    private void recordAttempt(long nanos) {
+        attemptNanos.record(Math.max(0, nanos));
+        if (untilRefresh.decrementAndGet() == 0) {
+            Histogram.Snapshot window = attemptNanos.intervalSnapshot();
+            delayNanos = window.percentile(percentile);
+            untilRefresh.set(WINDOW);
+        }
+    }
+
+    private final class HedgedCall<T> implements Runnable {
+        final AsyncCallable<T> callable;
+        final SettableFuture<T> result = SettableFuture.create();
+        /**
+         * 以下字段由this保护
+         */
+        final List<ListenableFuture<T>> attempts = new ArrayList<>(maxAttempts);
+        int started;
+        int failed;
+        @Nullable ScheduledFuture<?> timer;
+
+        HedgedCall(AsyncCallable<T> callable) {
+            this.callable = callable;
+            result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    cancelAll();
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        /**
+         * 对冲定时器到期
+         */
+        @Override
+        public void run() {
+            synchronized (this) {
+                timer = null;
+            }
+            startAttempt();
+        }
+
+        void startAttempt() {
+            synchronized (this) {
+                if (result.isDone() || started >= maxAttempts) {
+                    return;
+                }
+                if (timer != null) {
+                    timer.cancel(false);
+                    timer = null;
+                }
+                if (started++ > 0) {
+                    hedges.incrementAndGet();
+                }
+            }
+            final long start = System.nanoTime();
+            ListenableFuture<T> attempt;
+            try {
+                attempt = Preconditions.checkNotNull(callable.call(), "callable returned null");
+            } catch (Throwable t) {
+                attempt = Futures.immediateFailedFuture(t);
+            }
+            final ListenableFuture<T> current = attempt;
+            synchronized (this) {
+                attempts.add(current);
+                if (started < maxAttempts && timer == null && !result.isDone()) {
+                    timer = scheduler.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            if (result.isDone()) {
+                current.cancel(true);
+            }
+            current.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    //被取消的调用只是输给了更快的那个，耗时被截断，记入会把分布压低
+                    if (!current.isCancelled()) {
+                        recordAttempt(System.nanoTime() - start);
+                    }
+                    onAttemptDone(current);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        void onAttemptDone(ListenableFuture<T> attempt) {
+            Throwable cause;
+            try {
+                result.set(Futures.getDone(attempt));
+                return;
+            } catch (ExecutionException e) {
+                cause = e.getCause();
+            } catch (CancellationException e) {
+                cause = e;
+            }
+            boolean allFailed;
+            synchronized (this) {
+                failed++;
+                allFailed = failed == started && started >= maxAttempts;
+            }
+            if (allFailed) {
+                result.setException(cause);
+            } else {
+                startAttempt();
+            }
+        }
+
+        void cancelAll() {
+            List<ListenableFuture<T>> pending;
+            synchronized (this) {
+                if (timer != null) {
+                    timer.cancel(false);
+                    timer = null;
+                }
+                pending = new ArrayList<>(attempts);
+            }
+            for (ListenableFuture<T> attempt : pending) {
+                attempt.cancel(true);
+            }
+        }
+    }
+
+    public static final class Stats {
+        private final long calls;
+        private final long hedges;
+        private final long delayNanos;
+        private final Histogram.Snapshot attemptNanos;
+
+        Stats(long calls, long hedges, long delayNanos, Histogram.Snapshot attemptNanos) {
+            this.calls = calls;
+            this.hedges = hedges;
+            this.delayNanos = delayNanos;
+            this.attemptNanos = attemptNanos;
+        }
+
+        public long calls() {
+            return calls;
+        }
+
+        /**
+         * 额外发起的调用次数，hedges/calls即额外负载
+         */
+        public long hedges() {
+            return hedges;
+        }
+
+        public long delayNanos() {
+            return delayNanos;
+        }
+
+        /**
+         * 正常返回或失败的调用的耗时，不含被取消的调用
+         */
+        public Histogram.Snapshot attemptNanos() {
+            return attemptNanos;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("calls", calls)
+                    .add("hedges", hedges)
+                    .add("delayNanos", delayNanos)
+                    .add("attemptNanos", attemptNanos)
+                    .toString();
+        }
+    }
+
+    public static final class Builder {
+        private double percentile = 95;
+        private int maxAttempts = 2;
+        private long initialDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+
+        private Builder() {
+        }
+
+        /**
+         * 对冲延迟取调用耗时分布的这个百分位，默认95
+         */
+        public Builder percentile(double percentile) {
+            Preconditions.checkArgument(percentile > 0 && percentile < 100, "percentile out of range: %s", percentile);
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * 包括第一次在内最多调用几次，默认2
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            Preconditions.checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * 还没有足够的耗时记录时使用的对冲延迟，默认10毫秒
+         */
+        public Builder initialDelay(long duration, TimeUnit unit) {
+            Preconditions.checkArgument(duration >= 0, "duration must be non-negative");
+            this.initialDelayNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * @param scheduler 用于触发对冲调用，callable也在它的线程上执行
+         */
+        public Hedger build(ScheduledExecutorService scheduler) {
+            return new Hedger(this, Preconditions.checkNotNull(scheduler));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.example.concurrent;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带截止时间的扇出合并：截止时间到达时取消还没完成的输入，不让个别慢的调用决定整个请求的延迟。
+ * <pre>
+ * List&lt;ListenableFuture&lt;String&gt;&gt; lookups = ...;
+ * //20毫秒后返回已经成功的结果，没完成和失败的位置为null
+ * ListenableFuture&lt;List&lt;String&gt;&gt; partial = MoreFutures.successfulAsList(lookups, 20, TimeUnit.MILLISECONDS, scheduler);
+ * </pre>
+ */
+public final class MoreFutures {
+    private MoreFutures() {
+    }
+
+    /**
+     * 与Futures.allAsList相同，但截止时间到达时以java.util.concurrent.TimeoutException失败。
+     * 结果确定后(超时、某个输入失败或被取消)取消(中断)所有未完成的输入
+     */
+    public static <V> ListenableFuture<List<V>> allAsList(Iterable<? extends ListenableFuture<? extends V>> futures,
+                                                          long timeout, TimeUnit unit,
+                                                          ScheduledExecutorService scheduler) {
+        final ImmutableList<ListenableFuture<? extends V>> inputs = ImmutableList.copyOf(futures);
+        ListenableFuture<List<V>> result = Futures.withTimeout(Futures.allAsList(inputs), timeout, unit, scheduler);
+        //超时时withTimeout取消allAsList，后者会取消输入；某个输入失败时allAsList不会取消其余输入，由这里取消
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                cancelAll(inputs);
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    /**
+     * 与Futures.successfulAsList相同，但截止时间到达时取消(中断)所有未完成的输入并立即返回已有的结果，
+     * 被取消和失败的输入对应的位置为null
+     */
+    public static <V> ListenableFuture<List<@Nullable V>> successfulAsList(
+            Iterable<? extends ListenableFuture<? extends V>> futures, long timeout, TimeUnit unit,
+            ScheduledExecutorService scheduler) {
+        Preconditions.checkNotNull(unit);
+        final ImmutableList<ListenableFuture<? extends V>> inputs = ImmutableList.copyOf(futures);
+        ListenableFuture<List<@Nullable V>> combined = Futures.successfulAsList(inputs);
+        if (combined.isDone()) {
+            return combined;
+        }
+        final ScheduledFuture<?> deadline = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancelAll(inputs);
+            }
+        }, timeout, unit);
+        combined.addListener(new Runnable() {
+            @Override
+            public void run() {
+                deadline.cancel(false);
+            }
+        }, MoreExecutors.directExecutor());
+        return combined;
+    }
+
+    private static void cancelAll(List<? extends ListenableFuture<?>> futures) {
+        for (ListenableFuture<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.example.concurrent;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 每个任务一个虚拟线程的ListeningExecutorService。阻塞(sleep、IO、Future.get)时虚拟线程让出载体线程，
+ * 并发数不再受线程池大小限制。
+ * <p>
+ * 项目按Java 8编译，虚拟线程的API(JDK 21)通过MethodHandle在运行时查找；用listeningDecorator包装，
+ * submit、Futures.addCallback、transformAsync的行为与包装ThreadPoolExecutor的完全相同。
+ * 在JDK 21以下运行时，newVirtualThreadPerTaskExecutor抛出UnsupportedOperationException，
+ * newThreadPerTaskExecutor退回为每个任务一个平台线程(无界的cached线程池)。
+ * synchronized块内阻塞会把虚拟线程钉在载体线程上(JDK 21)，长时间阻塞的代码应改用ReentrantLock。
+ * <pre>
+ * ListeningExecutorService executor = VirtualThreadExecutors.newThreadPerTaskExecutor("worker-%d");
+ * ListenableFuture&lt;String&gt; future = executor.submit(blockingCall);
+ * </pre>
+ */
+public final class VirtualThreadExecutors {
+    /**
+     * Thread.ofVirtual()，JDK 21以下为null
+     */
+    private static final @Nullable MethodHandle OF_VIRTUAL;
+    private static final @Nullable MethodHandle NAME;
+    private static final @Nullable MethodHandle FACTORY;
+    private static final @Nullable MethodHandle NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        MethodHandle ofVirtual = null;
+        MethodHandle name = null;
+        MethodHandle factory = null;
+        MethodHandle newThreadPerTaskExecutor = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builder = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(builder));
+            name = lookup.findVirtual(builder, "name", MethodType.methodType(builder, String.class, long.class));
+            factory = lookup.findVirtual(builder, "factory", MethodType.methodType(ThreadFactory.class));
+            newThreadPerTaskExecutor = lookup.findStatic(Executors.class, "newThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class, ThreadFactory.class));
+            //JDK 19、20中虚拟线程是预览特性，未开启--enable-preview时调用会抛出UnsupportedOperationException
+            ofVirtual.invoke();
+        } catch (Throwable t) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private VirtualThreadExecutors() {
+    }
+
+    /**
+     * 当前JVM是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * 创建虚拟线程的ThreadFactory
+     *
+     * @param namePrefix 线程名为namePrefix加从0开始的序号
+     * @throws UnsupportedOperationException JDK 21以下
+     */
+    public static ThreadFactory virtualThreadFactory(String namePrefix) {
+        Preconditions.checkNotNull(namePrefix);
+        checkSupported();
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(), namePrefix, 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (Throwable t) {
+            Throwables.throwIfUnchecked(t);
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * 每个任务一个虚拟线程
+     *
+     * @throws UnsupportedOperationException JDK 21以下
+     */
+    public static ListeningExecutorService newVirtualThreadPerTaskExecutor() {
+        return newVirtualThreadPerTaskExecutor("virtual-");
+    }
+
+    public static ListeningExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+        ThreadFactory threadFactory = virtualThreadFactory(namePrefix);
+        try {
+            return MoreExecutors.listeningDecorator(
+                    (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(threadFactory));
+        } catch (Throwable t) {
+            Throwables.throwIfUnchecked(t);
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * 支持虚拟线程时同newVirtualThreadPerTaskExecutor，否则每个任务一个平台守护线程(线程空闲60秒后回收)
+     *
+     * @param nameFormat ThreadFactoryBuilder.setNameFormat的格式，如"worker-%d"，使用虚拟线程时%d之前的部分作为名称前缀
+     */
+    public static ListeningExecutorService newThreadPerTaskExecutor(String nameFormat) {
+        if (isSupported()) {
+            int index = nameFormat.indexOf("%d");
+            return newVirtualThreadPerTaskExecutor(index < 0 ? nameFormat : nameFormat.substring(0, index));
+        }
+        return MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat(nameFormat)
+                .setDaemon(true)
+                .build()));
+    }
+
+    private static void checkSupported() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("virtual threads require JDK 21+, running on "
+                    + System.getProperty("java.version"));
+        }
+    }
+}
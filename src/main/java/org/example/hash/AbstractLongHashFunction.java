@@ -0,0 +1,90 @@
+package org.example.hash;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * 输出64位的一次性哈希函数的公共部分。子类只需要实现对ByteBuffer中一段字节的哈希，
+ * 堆内数组、直接内存和内存映射文件都走同一段代码。Hasher先把输入按小端缓存下来，hash()时一次算完。
+ */
+abstract class AbstractLongHashFunction implements HashFunction {
+    /**
+     * @param input 小端序，只用绝对位置读取
+     */
+    abstract long hash(ByteBuffer input, int offset, int length);
+
+    long hashToLong(byte[] input, int off, int len) {
+        Preconditions.checkPositionIndexes(off, off + len, input.length);
+        return hash(ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN), off, len);
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new BufferingHasher(this, 64);
+    }
+
+    @Override
+    public Hasher newHasher(int expectedInputSize) {
+        Preconditions.checkArgument(expectedInputSize >= 0, "expectedInputSize must be non-negative");
+        return new BufferingHasher(this, expectedInputSize);
+    }
+
+    @Override
+    public HashCode hashInt(int input) {
+        return HashCode.fromLong(hash(ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(0, input), 0, Integer.BYTES));
+    }
+
+    @Override
+    public HashCode hashLong(long input) {
+        return HashCode.fromLong(hash(ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                .putLong(0, input), 0, Long.BYTES));
+    }
+
+    @Override
+    public HashCode hashBytes(byte[] input) {
+        return hashBytes(input, 0, input.length);
+    }
+
+    @Override
+    public HashCode hashBytes(byte[] input, int off, int len) {
+        return HashCode.fromLong(hashToLong(input, off, len));
+    }
+
+    /**
+     * 与Guava一致，读完input剩余的全部字节
+     */
+    @Override
+    public HashCode hashBytes(ByteBuffer input) {
+        long hash = hash(input.duplicate().order(ByteOrder.LITTLE_ENDIAN), input.position(), input.remaining());
+        input.position(input.limit());
+        return HashCode.fromLong(hash);
+    }
+
+    @Override
+    public HashCode hashUnencodedChars(CharSequence input) {
+        return newHasher(input.length() * 2).putUnencodedChars(input).hash();
+    }
+
+    @Override
+    public HashCode hashString(CharSequence input, Charset charset) {
+        return hashBytes(input.toString().getBytes(charset));
+    }
+
+    @Override
+    public <T> HashCode hashObject(T instance, Funnel<? super T> funnel) {
+        return newHasher().putObject(instance, funnel).hash();
+    }
+
+    @Override
+    public int bits() {
+        return 64;
+    }
+}
@@ -0,0 +1,238 @@
+package org.example.hash;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.hash.Funnel;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分块(blocked)的BloomFilter：一个元素的k个bit都落在同一个64字节(8个long)的块内，查询只访问一个块，
+ * 而标准BloomFilter需要访问k个随机位置。代价是各块装入的元素数不均匀，同样的位数下误判率更高，
+ * create按块内元素数服从泊松分布计算实际误判率，增加位数直到满足目标误判率(1%时约多4%，0.01%时约多20%)。
+ * <p>
+ * put对块内的每个long做一次CAS，多线程并发put无锁；putAll用fork-join并行哈希和插入。
+ * 哈希用线程本地的ReusableHasher计算(结果与murmur3_128相同)，put和mightContain不分配对象。
+ * Java数组不保证64字节对齐，一个块可能跨两条cache line，仍然只有一到两次cache miss。
+ * <pre>
+ * BlockedBloomFilter&lt;Person&gt; friends = BlockedBloomFilter.create(personFunnel, 100_000_000, 0.01);
+ * friends.putAll(persons, ForkJoinPool.commonPool());
+ * </pre>
+ */
+public final class BlockedBloomFilter<T> implements Predicate<T> {
+    private static final int WORDS_PER_BLOCK = 8;
+    private static final int BITS_PER_BLOCK = WORDS_PER_BLOCK * Long.SIZE;
+    private static final int PROBE_SHIFT = Long.SIZE - 9;
+    private static final int MAX_HASH_COUNT = 16;
+    private static final int PUT_ALL_THRESHOLD = 4096;
+    private static final ThreadLocal<ReusableHasher> HASHER = new ThreadLocal<ReusableHasher>() {
+        @Override
+        protected ReusableHasher initialValue() {
+            return new ReusableHasher();
+        }
+    };
+
+    private final AtomicLongArray words;
+    private final int blockCount;
+    private final int hashCount;
+    private final Funnel<? super T> funnel;
+
+    private BlockedBloomFilter(Funnel<? super T> funnel, int blockCount, int hashCount) {
+        this.funnel = funnel;
+        this.blockCount = blockCount;
+        this.hashCount = hashCount;
+        this.words = new AtomicLongArray(blockCount * WORDS_PER_BLOCK);
+    }
+
+    public static <T> BlockedBloomFilter<T> create(Funnel<? super T> funnel, long expectedInsertions, double fpp) {
+        Preconditions.checkNotNull(funnel);
+        Preconditions.checkArgument(expectedInsertions > 0, "expectedInsertions must be positive");
+        Preconditions.checkArgument(fpp > 0 && fpp < 1, "fpp must be in (0, 1): %s", fpp);
+        //从标准BloomFilter的每元素位数开始，每次增加2%，直到分块后的误判率满足要求
+        double bitsPerElement = -Math.log(fpp) / (Math.log(2) * Math.log(2));
+        while (blockedFpp(bitsPerElement, optimalHashCount(bitsPerElement)) > fpp) {
+            bitsPerElement *= 1.02;
+        }
+        long blocks = (long) Math.ceil(expectedInsertions * bitsPerElement / BITS_PER_BLOCK);
+        Preconditions.checkArgument(blocks <= Integer.MAX_VALUE / WORDS_PER_BLOCK,
+                "too many blocks: %s", blocks);
+        return new BlockedBloomFilter<>(funnel, (int) Math.max(1, blocks), optimalHashCount(bitsPerElement));
+    }
+
+    private static int optimalHashCount(double bitsPerElement) {
+        return Math.max(1, Math.min(MAX_HASH_COUNT, (int) Math.round(bitsPerElement * Math.log(2))));
+    }
+
+    /**
+     * 每个块装入的元素数服从均值为BITS_PER_BLOCK/bitsPerElement的泊松分布，对各种装入数下块内的误判率加权求和
+     */
+    static double blockedFpp(double bitsPerElement, int hashCount) {
+        double lambda = BITS_PER_BLOCK / bitsPerElement;
+        int max = (int) (lambda + 10 * Math.sqrt(lambda) + 10);
+        double probability = Math.exp(-lambda);
+        double fpp = 0;
+        for (int i = 0; i <= max; i++) {
+            if (i > 0) {
+                probability *= lambda / i;
+            }
+            double bitSetProbability = 1 - Math.pow(1 - 1.0 / BITS_PER_BLOCK, (double) i * hashCount);
+            fpp += probability * Math.pow(bitSetProbability, hashCount);
+        }
+        return fpp;
+    }
+
+    public boolean mightContain(T object) {
+        ReusableHasher hasher = hash(object);
+        int base = blockIndex(hasher.hashToLong()) * WORDS_PER_BLOCK;
+        long probe = hasher.highBits();
+        for (int i = 0; i < hashCount; i++) {
+            probe = nextProbe(probe);
+            int bit = (int) (probe >>> PROBE_SHIFT);
+            if ((words.get(base + (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 有bit被改变时返回true，即元素之前一定不存在
+     */
+    public boolean put(T object) {
+        ReusableHasher hasher = hash(object);
+        int base = blockIndex(hasher.hashToLong()) * WORDS_PER_BLOCK;
+        long probe = hasher.highBits();
+        //先把k个bit合并成块内每个long的掩码，每个long最多CAS一次；掩码放在局部变量里，不分配数组
+        long m0 = 0, m1 = 0, m2 = 0, m3 = 0, m4 = 0, m5 = 0, m6 = 0, m7 = 0;
+        for (int i = 0; i < hashCount; i++) {
+            probe = nextProbe(probe);
+            int bit = (int) (probe >>> PROBE_SHIFT);
+            long mask = 1L << bit;
+            switch (bit >>> 6) {
+                case 0: m0 |= mask; break;
+                case 1: m1 |= mask; break;
+                case 2: m2 |= mask; break;
+                case 3: m3 |= mask; break;
+                case 4: m4 |= mask; break;
+                case 5: m5 |= mask; break;
+                case 6: m6 |= mask; break;
+                default: m7 |= mask; break;
+            }
+        }
+        return setBits(base, m0) | setBits(base + 1, m1) | setBits(base + 2, m2) | setBits(base + 3, m3)
+                | setBits(base + 4, m4) | setBits(base + 5, m5) | setBits(base + 6, m6) | setBits(base + 7, m7);
+    }
+
+    /**
+     * @return mask中有bit原来是0时返回true
+     */
+    private boolean setBits(int index, long mask) {
+        if (mask == 0) {
+            return false;
+        }
+        long old;
+        do {
+            old = words.get(index);
+            if ((old & mask) == mask) {
+                return false;
+            }
+        } while (!words.compareAndSet(index, old, old | mask));
+        return true;
+    }
+
+    /**
+     * 在pool上并行插入，列表按PUT_ALL_THRESHOLD个元素切分，调用线程等待全部完成
+     */
+    public void putAll(List<? extends T> objects, ForkJoinPool pool) {
+        Preconditions.checkNotNull(objects);
+        pool.invoke(new PutAllTask(objects, 0, objects.size()));
+    }
+
+    /**
+     * @deprecated 为实现Predicate提供，使用mightContain
+     */
+    @Deprecated
+    @Override
+    public boolean apply(T input) {
+        return mightContain(input);
+    }
+
+    public long bitSize() {
+        return (long) words.length() * Long.SIZE;
+    }
+
+    public int hashCount() {
+        return hashCount;
+    }
+
+    /**
+     * 按已置位的比例估算的误判率(把块当作独立的小BloomFilter近似)，需要扫描整个位数组
+     */
+    public double expectedFpp() {
+        long bitCount = 0;
+        for (int i = 0; i < words.length(); i++) {
+            bitCount += Long.bitCount(words.get(i));
+        }
+        return Math.pow((double) bitCount / bitSize(), hashCount);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("bitSize", bitSize())
+                .add("hashCount", hashCount)
+                .toString();
+    }
+
+    /**
+     * 块内只有512个位置，double hashing产生的等差序列彼此相关，误判率明显偏高；
+     * 这里每次探测做一步乘法同余，取高9位
+     */
+    private static long nextProbe(long probe) {
+        return probe * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+    }
+
+    /**
+     * 把object写入当前线程的hasher，调用方随后取hashToLong()和highBits()，即murmur3_128结果的低64位和高64位
+     */
+    private ReusableHasher hash(T object) {
+        ReusableHasher hasher = HASHER.get().reset();
+        funnel.funnel(object, hasher);
+        return hasher;
+    }
+
+    /**
+     * 用乘法把64位哈希映射到[0, blockCount)，避免取模
+     */
+    private int blockIndex(long h1) {
+        return (int) (((h1 >>> 32) * blockCount) >>> 32);
+    }
+
+    private final class PutAllTask extends RecursiveAction {
+        private final List<? extends T> objects;
+        private final int from;
+        private final int to;
+
+        PutAllTask(List<? extends T> objects, int from, int to) {
+            this.objects = objects;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PUT_ALL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    put(objects.get(i));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new PutAllTask(objects, from, mid), new PutAllTask(objects, mid, to));
+        }
+    }
+}
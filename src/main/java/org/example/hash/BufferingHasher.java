@@ -0,0 +1,140 @@
+package org.example.hash;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * 把写入的数据按小端缓存在数组中，hash()时交给一次性的哈希函数。基本类型的字节序与Guava的Hasher一致
+ */
+final class BufferingHasher implements Hasher {
+    private final AbstractLongHashFunction function;
+    private byte[] buffer;
+    private int size;
+    private boolean done;
+
+    BufferingHasher(AbstractLongHashFunction function, int expectedInputSize) {
+        this.function = function;
+        this.buffer = new byte[Math.max(16, expectedInputSize)];
+    }
+
+    @Override
+    public Hasher putByte(byte b) {
+        ensureCapacity(1);
+        buffer[size++] = b;
+        return this;
+    }
+
+    @Override
+    public Hasher putBytes(byte[] bytes) {
+        return putBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public Hasher putBytes(byte[] bytes, int off, int len) {
+        Preconditions.checkPositionIndexes(off, off + len, bytes.length);
+        ensureCapacity(len);
+        System.arraycopy(bytes, off, buffer, size, len);
+        size += len;
+        return this;
+    }
+
+    @Override
+    public Hasher putBytes(ByteBuffer bytes) {
+        int len = bytes.remaining();
+        ensureCapacity(len);
+        bytes.get(buffer, size, len);
+        size += len;
+        return this;
+    }
+
+    @Override
+    public Hasher putShort(short s) {
+        return putLittleEndian(s, Short.BYTES);
+    }
+
+    @Override
+    public Hasher putInt(int i) {
+        return putLittleEndian(i, Integer.BYTES);
+    }
+
+    @Override
+    public Hasher putLong(long l) {
+        return putLittleEndian(l, Long.BYTES);
+    }
+
+    @Override
+    public Hasher putFloat(float f) {
+        return putInt(Float.floatToRawIntBits(f));
+    }
+
+    @Override
+    public Hasher putDouble(double d) {
+        return putLong(Double.doubleToRawLongBits(d));
+    }
+
+    @Override
+    public Hasher putBoolean(boolean b) {
+        return putByte(b ? (byte) 1 : (byte) 0);
+    }
+
+    @Override
+    public Hasher putChar(char c) {
+        return putLittleEndian(c, Character.BYTES);
+    }
+
+    @Override
+    public Hasher putUnencodedChars(CharSequence charSequence) {
+        for (int i = 0, len = charSequence.length(); i < len; i++) {
+            putChar(charSequence.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public Hasher putString(CharSequence charSequence, Charset charset) {
+        return putBytes(charSequence.toString().getBytes(charset));
+    }
+
+    @Override
+    public <T> Hasher putObject(T instance, Funnel<? super T> funnel) {
+        funnel.funnel(instance, this);
+        return this;
+    }
+
+    @Override
+    public HashCode hash() {
+        Preconditions.checkState(!done, "Cannot re-use a Hasher after calling hash() on it");
+        done = true;
+        return HashCode.fromLong(function.hash(ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN), 0, size));
+    }
+
+    /**
+     * @deprecated 与Guava的Hasher相同，这里的hashCode不是哈希结果，使用hash()
+     */
+    @Deprecated
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    private Hasher putLittleEndian(long value, int bytes) {
+        ensureCapacity(bytes);
+        for (int i = 0; i < bytes; i++) {
+            buffer[size++] = (byte) (value >>> (i * 8));
+        }
+        return this;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(size + extra, buffer.length * 2));
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package org.example.hash;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.math.LongMath;
+
+import java.math.RoundingMode;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 支持删除的近似集合(Cuckoo Filter)：每个桶4个指纹，元素的指纹放在两个候选桶之一，
+ * 第二个桶为(hash(指纹) - 第一个桶) mod 桶数，两次变换回到原桶，因此只凭指纹就能在两个桶之间搬移，
+ * 桶数也不必是2的幂；删除时去掉一个相同的指纹即可。
+ * <p>
+ * 指纹位数按目标误判率取ceil(log2(8/fpp))，位数组紧密排列，每个元素约占fingerprintBits/loadFactor位，
+ * 负载率一般能到95%左右。两个桶都满时最多踢出MAX_KICKS次，仍失败时put返回false，表示过滤器已满。
+ * 只能删除确实put过的元素，否则可能删掉其它元素的指纹造成漏判。非线程安全。
+ * <pre>
+ * CuckooFilter&lt;Person&gt; friends = CuckooFilter.create(personFunnel, 500, 0.01);
+ * friends.put(dude);
+ * friends.remove(dude);
+ * </pre>
+ */
+public final class CuckooFilter<T> implements Predicate<T> {
+    private static final int SLOTS_PER_BUCKET = 4;
+    private static final double TARGET_LOAD = 0.95;
+    private static final int MAX_KICKS = 500;
+
+    private final Funnel<? super T> funnel;
+    private final HashFunction hashFunction;
+    private final int fingerprintBits;
+    private final long fingerprintMask;
+    private final int buckets;
+    private final long[] table;
+    private long count;
+
+    private CuckooFilter(Funnel<? super T> funnel, HashFunction hashFunction, int buckets, int fingerprintBits) {
+        this.funnel = funnel;
+        this.hashFunction = hashFunction;
+        this.fingerprintBits = fingerprintBits;
+        this.fingerprintMask = (1L << fingerprintBits) - 1;
+        this.buckets = buckets;
+        long bits = (long) buckets * SLOTS_PER_BUCKET * fingerprintBits;
+        this.table = new long[Math.toIntExact(LongMath.divide(bits, Long.SIZE, RoundingMode.CEILING))];
+    }
+
+    public static <T> CuckooFilter<T> create(Funnel<? super T> funnel, long expectedInsertions, double fpp) {
+        return create(funnel, Hashing.murmur3_128(), expectedInsertions, fpp);
+    }
+
+    /**
+     * @param hashFunction 至少64位
+     */
+    public static <T> CuckooFilter<T> create(Funnel<? super T> funnel, HashFunction hashFunction,
+                                             long expectedInsertions, double fpp) {
+        Preconditions.checkNotNull(funnel);
+        Preconditions.checkArgument(hashFunction.bits() >= 64, "hashFunction must produce at least 64 bits");
+        Preconditions.checkArgument(expectedInsertions > 0, "expectedInsertions must be positive");
+        Preconditions.checkArgument(fpp > 0 && fpp < 1, "fpp must be in (0, 1): %s", fpp);
+        int fingerprintBits = (int) Math.ceil(Math.log(2.0 * SLOTS_PER_BUCKET / fpp) / Math.log(2));
+        Preconditions.checkArgument(fingerprintBits <= 32, "fpp too small: %s", fpp);
+        long buckets = LongMath.divide((long) Math.ceil(expectedInsertions / TARGET_LOAD), SLOTS_PER_BUCKET,
+                RoundingMode.CEILING);
+        Preconditions.checkArgument(buckets <= 1 << 30, "expectedInsertions too large: %s", expectedInsertions);
+        return new CuckooFilter<>(funnel, hashFunction, (int) buckets, fingerprintBits);
+    }
+
+    public boolean mightContain(T object) {
+        long hash = hashFunction.hashObject(object, funnel).padToLong();
+        long fingerprint = fingerprint(hash);
+        int i1 = index(hash);
+        return indexOf(i1, fingerprint) >= 0 || indexOf(altIndex(i1, fingerprint), fingerprint) >= 0;
+    }
+
+    /**
+     * @return 过滤器已满时返回false，此时元素没有加入
+     */
+    public boolean put(T object) {
+        long hash = hashFunction.hashObject(object, funnel).padToLong();
+        long fingerprint = fingerprint(hash);
+        int i1 = index(hash);
+        int i2 = altIndex(i1, fingerprint);
+        if (insertIntoBucket(i1, fingerprint) || insertIntoBucket(i2, fingerprint)) {
+            count++;
+            return true;
+        }
+        //两个桶都满，随机踢出一个指纹搬到它的另一个桶
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextBoolean() ? i1 : i2;
+        long carried = fingerprint;
+        long[] undo = new long[MAX_KICKS];
+        int[] undoBuckets = new int[MAX_KICKS];
+        int[] undoSlots = new int[MAX_KICKS];
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            int slot = random.nextInt(SLOTS_PER_BUCKET);
+            long evicted = getSlot(index, slot);
+            setSlot(index, slot, carried);
+            undo[kick] = evicted;
+            undoBuckets[kick] = index;
+            undoSlots[kick] = slot;
+            carried = evicted;
+            index = altIndex(index, carried);
+            if (insertIntoBucket(index, carried)) {
+                count++;
+                return true;
+            }
+        }
+        //失败时按相反顺序撤销搬移，过滤器保持原状
+        for (int kick = MAX_KICKS - 1; kick >= 0; kick--) {
+            setSlot(undoBuckets[kick], undoSlots[kick], undo[kick]);
+        }
+        return false;
+    }
+
+    /**
+     * 删除一个相同的指纹
+     *
+     * @return 没有找到相同指纹时返回false
+     */
+    public boolean remove(T object) {
+        long hash = hashFunction.hashObject(object, funnel).padToLong();
+        long fingerprint = fingerprint(hash);
+        int i1 = index(hash);
+        if (removeFromBucket(i1, fingerprint) || removeFromBucket(altIndex(i1, fingerprint), fingerprint)) {
+            count--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @deprecated 为实现Predicate提供，使用mightContain
+     */
+    @Deprecated
+    @Override
+    public boolean apply(T input) {
+        return mightContain(input);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long capacity() {
+        return (long) buckets * SLOTS_PER_BUCKET;
+    }
+
+    public double loadFactor() {
+        return (double) count / capacity();
+    }
+
+    public long bitSize() {
+        return (long) table.length * Long.SIZE;
+    }
+
+    /**
+     * 当前每个元素实际占用的位数
+     */
+    public double bitsPerElement() {
+        return count == 0 ? Double.NaN : (double) bitSize() / count;
+    }
+
+    public int fingerprintBits() {
+        return fingerprintBits;
+    }
+
+    /**
+     * 按当前负载估算的误判率：查询两个桶中的全部指纹，每个指纹相同的概率为1/(2^f-1)
+     */
+    public double expectedFpp() {
+        return 1 - Math.pow(1 - 1.0 / fingerprintMask, 2 * SLOTS_PER_BUCKET * loadFactor());
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("count", count)
+                .add("loadFactor", String.format("%.3f", loadFactor()))
+                .add("fingerprintBits", fingerprintBits)
+                .add("bitsPerElement", String.format("%.2f", bitsPerElement()))
+                .add("expectedFpp", String.format("%.5f", expectedFpp()))
+                .toString();
+    }
+
+    /**
+     * 取哈希的高位作为指纹，0表示空槽，因此映射到[1, 2^f-1]
+     */
+    private long fingerprint(long hash) {
+        long fingerprint = (hash >>> 32) & fingerprintMask;
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    /**
+     * 用哈希的低32位乘以桶数取高位，映射到[0, buckets)
+     */
+    private int index(long hash) {
+        return (int) (((hash & 0xFFFFFFFFL) * buckets) >>> 32);
+    }
+
+    private int altIndex(int index, long fingerprint) {
+        //MurmurHash2的乘数，打散指纹使另一个桶均匀分布
+        int spread = (int) (((fingerprint * 0x5bd1e995L) & Long.MAX_VALUE) % buckets);
+        int alt = spread - index;
+        return alt < 0 ? alt + buckets : alt;
+    }
+
+    private int indexOf(int bucket, long fingerprint) {
+        for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+            if (getSlot(bucket, slot) == fingerprint) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean insertIntoBucket(int bucket, long fingerprint) {
+        for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+            if (getSlot(bucket, slot) == 0) {
+                setSlot(bucket, slot, fingerprint);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean removeFromBucket(int bucket, long fingerprint) {
+        int slot = indexOf(bucket, fingerprint);
+        if (slot < 0) {
+            return false;
+        }
+        setSlot(bucket, slot, 0);
+        return true;
+    }
+
+    private long getSlot(int bucket, int slot) {
+        long bitIndex = ((long) bucket * SLOTS_PER_BUCKET + slot) * fingerprintBits;
+        int word = (int) (bitIndex >>> 6);
+        int offset = (int) bitIndex & 63;
+        long value = table[word] >>> offset;
+        if (offset + fingerprintBits > Long.SIZE) {
+            value |= table[word + 1] << (Long.SIZE - offset);
+        }
+        return value & fingerprintMask;
+    }
+
+    private void setSlot(int bucket, int slot, long fingerprint) {
+        long bitIndex = ((long) bucket * SLOTS_PER_BUCKET + slot) * fingerprintBits;
+        int word = (int) (bitIndex >>> 6);
+        int offset = (int) bitIndex & 63;
+        table[word] = (table[word] & ~(fingerprintMask << offset)) | (fingerprint << offset);
+        if (offset + fingerprintBits > Long.SIZE) {
+            int high = Long.SIZE - offset;
+            table[word + 1] = (table[word + 1] & ~(fingerprintMask >>> high)) | (fingerprint >>> high);
+        }
+    }
+}
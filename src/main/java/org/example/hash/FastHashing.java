@@ -0,0 +1,43 @@
+package org.example.hash;
+
+import com.google.common.hash.HashFunction;
+
+/**
+ * 非加密的快速64位哈希函数，用法与Hashing相同，可以直接配合现有的Funnel。
+ * 只保证分布均匀，不能抵抗刻意构造的碰撞；需要防哈希洪水时用Hashing.sipHash24()，需要安全性时用sha256。
+ * <p>
+ * 一次性的hashBytes/hashString直接在输入上计算；newHasher()先把写入的数据缓存下来，hash()时再计算一次，
+ * 因此不适合流式地写入很大的数据。
+ * <pre>
+ * HashCode hash = FastHashing.xxHash64().hashObject(person, personFunnel);
+ * </pre>
+ */
+public final class FastHashing {
+    private static final HashFunction XX_HASH_64 = new XxHash64(0);
+    private static final HashFunction WYHASH = new WyHash(0);
+
+    private FastHashing() {
+    }
+
+    /**
+     * xxHash64，种子为0
+     */
+    public static HashFunction xxHash64() {
+        return XX_HASH_64;
+    }
+
+    public static HashFunction xxHash64(long seed) {
+        return new XxHash64(seed);
+    }
+
+    /**
+     * wyhash final3，种子为0
+     */
+    public static HashFunction wyhash() {
+        return WYHASH;
+    }
+
+    public static HashFunction wyhash(long seed) {
+        return new WyHash(seed);
+    }
+}
@@ -0,0 +1,264 @@
+package org.example.hash;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.math.LongMath;
+import com.google.common.primitives.Ints;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 直接在内存映射文件上查询的BloomFilter，文件格式与BloomFilter.writeTo完全相同，两者可以互相读取：
+ * <pre>
+ * byte 哈希策略序号(只支持默认的MURMUR128_MITZ_64，即1)
+ * byte 哈希函数个数
+ * int  long数组长度
+ * long[] 位数组(大端)
+ * </pre>
+ * 打开时只读取6字节的文件头，查询直接读page cache，不需要反序列化，也不占用堆内存。
+ * 可写模式用于构建比堆更大的过滤器，put对同一个long是读-改-写，因此put之间互斥；只读模式的查询无锁。
+ * 文件按1GB分段映射，因此位数组可以超过2GB。
+ * <pre>
+ * MappedBloomFilter.write(friends, path);
+ * try (MappedBloomFilter&lt;Person&gt; mapped = MappedBloomFilter.open(path, personFunnel)) {
+ *     mapped.mightContain(dude);
+ * }
+ * </pre>
+ */
+public final class MappedBloomFilter<T> implements Predicate<T>, Closeable {
+    private static final byte MURMUR128_MITZ_64 = 1;
+    private static final int HEADER_BYTES = 6;
+    private static final int SEGMENT_SHIFT = 27;
+    private static final long SEGMENT_LONGS = 1L << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = (int) SEGMENT_LONGS - 1;
+
+    private final FileChannel channel;
+    private final ByteBuffer[] segments;
+    private final long bitSize;
+    private final int hashCount;
+    private final Funnel<? super T> funnel;
+    private final boolean writable;
+
+    private MappedBloomFilter(FileChannel channel, FileChannel.MapMode mode, int dataLength, int hashCount,
+                              Funnel<? super T> funnel) throws IOException {
+        this.channel = channel;
+        this.bitSize = (long) dataLength * Long.SIZE;
+        this.hashCount = hashCount;
+        this.funnel = funnel;
+        this.writable = mode == FileChannel.MapMode.READ_WRITE;
+        int segmentCount = (int) LongMath.divide(dataLength, SEGMENT_LONGS, RoundingMode.CEILING);
+        this.segments = new ByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long longs = Math.min(SEGMENT_LONGS, dataLength - i * SEGMENT_LONGS);
+            segments[i] = channel.map(mode, HEADER_BYTES + i * SEGMENT_LONGS * Long.BYTES, longs * Long.BYTES);
+        }
+    }
+
+    /**
+     * 以只读方式映射BloomFilter.writeTo或create生成的文件
+     */
+    public static <T> MappedBloomFilter<T> open(Path file, Funnel<? super T> funnel) throws IOException {
+        return open(file, funnel, FileChannel.MapMode.READ_ONLY, StandardOpenOption.READ);
+    }
+
+    /**
+     * 以可写方式映射已有文件，继续put
+     */
+    public static <T> MappedBloomFilter<T> openWritable(Path file, Funnel<? super T> funnel) throws IOException {
+        return open(file, funnel, FileChannel.MapMode.READ_WRITE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * 创建一个空的可写过滤器文件，位数和哈希函数个数与BloomFilter.create(funnel, expectedInsertions, fpp)相同
+     */
+    public static <T> MappedBloomFilter<T> create(Path file, Funnel<? super T> funnel, long expectedInsertions,
+                                                  double fpp) throws IOException {
+        Preconditions.checkNotNull(funnel);
+        Preconditions.checkArgument(expectedInsertions > 0, "expectedInsertions must be positive");
+        Preconditions.checkArgument(fpp > 0 && fpp < 1, "fpp must be in (0, 1): %s", fpp);
+        long numBits = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int hashCount = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        //文件头只有一个字节存哈希函数个数，与BloomFilter相同的限制
+        Preconditions.checkArgument(hashCount <= 255, "numHashFunctions (%s) must be <= 255", hashCount);
+        int dataLength = Ints.checkedCast(LongMath.divide(numBits, Long.SIZE, RoundingMode.CEILING));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.put(MURMUR128_MITZ_64).put((byte) hashCount).putInt(dataLength).flip();
+            channel.write(header, 0);
+            //稀疏文件，未写入的位为0
+            channel.write(ByteBuffer.allocate(1), HEADER_BYTES + (long) dataLength * Long.BYTES - 1);
+            return new MappedBloomFilter<>(channel, FileChannel.MapMode.READ_WRITE, dataLength, hashCount, funnel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 用BloomFilter.writeTo写入临时文件后原子替换file
+     */
+    public static void write(BloomFilter<?> filter, Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+            filter.writeTo(out);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static <T> MappedBloomFilter<T> open(Path file, Funnel<? super T> funnel, FileChannel.MapMode mode,
+                                                 StandardOpenOption... options) throws IOException {
+        Preconditions.checkNotNull(funnel);
+        FileChannel channel = FileChannel.open(file, options);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("truncated header: " + file);
+                }
+            }
+            header.flip();
+            byte strategy = header.get();
+            int hashCount = header.get() & 0xFF;
+            int dataLength = header.getInt();
+            if (strategy != MURMUR128_MITZ_64) {
+                throw new IOException("unsupported hash strategy " + strategy + ": " + file);
+            }
+            if (hashCount == 0 || dataLength <= 0
+                    || channel.size() < HEADER_BYTES + (long) dataLength * Long.BYTES) {
+                throw new IOException("corrupt bloom filter header: " + file);
+            }
+            return new MappedBloomFilter<>(channel, mode, dataLength, hashCount, funnel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 与Guava BloomFilter的MURMUR128_MITZ_64策略相同
+     */
+    public boolean mightContain(T object) {
+        HashCode hash = Hashing.murmur3_128().hashObject(object, funnel);
+        byte[] bytes = hash.asBytes();
+        long hash1 = hash.asLong();
+        long hash2 = upperEight(bytes);
+        long combinedHash = hash1;
+        for (int i = 0; i < hashCount; i++) {
+            if (!get((combinedHash & Long.MAX_VALUE) % bitSize)) {
+                return false;
+            }
+            combinedHash += hash2;
+        }
+        return true;
+    }
+
+    /**
+     * 只在可写模式下可用
+     *
+     * @return 有bit被改变时返回true
+     */
+    public synchronized boolean put(T object) {
+        Preconditions.checkState(writable, "filter is mapped read-only");
+        HashCode hash = Hashing.murmur3_128().hashObject(object, funnel);
+        long hash1 = hash.asLong();
+        long hash2 = upperEight(hash.asBytes());
+        boolean changed = false;
+        long combinedHash = hash1;
+        for (int i = 0; i < hashCount; i++) {
+            changed |= set((combinedHash & Long.MAX_VALUE) % bitSize);
+            combinedHash += hash2;
+        }
+        return changed;
+    }
+
+    /**
+     * @deprecated 为实现Predicate提供，使用mightContain
+     */
+    @Deprecated
+    @Override
+    public boolean apply(T input) {
+        return mightContain(input);
+    }
+
+    /**
+     * 把可写模式下的修改刷到磁盘
+     */
+    public void force() {
+        if (writable) {
+            for (ByteBuffer segment : segments) {
+                ((MappedByteBuffer) segment).force();
+            }
+        }
+    }
+
+    public long bitSize() {
+        return bitSize;
+    }
+
+    public int hashCount() {
+        return hashCount;
+    }
+
+    /**
+     * 关闭文件，可写模式下先force。映射要等GC回收后才解除，关闭后不能再调用其它方法
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("bitSize", bitSize)
+                .add("hashCount", hashCount)
+                .add("writable", writable)
+                .toString();
+    }
+
+    private boolean get(long bitIndex) {
+        long word = bitIndex >>> 6;
+        return (segments[(int) (word >>> SEGMENT_SHIFT)].getLong(((int) word & SEGMENT_MASK) << 3)
+                & (1L << bitIndex)) != 0;
+    }
+
+    private boolean set(long bitIndex) {
+        long word = bitIndex >>> 6;
+        ByteBuffer segment = segments[(int) (word >>> SEGMENT_SHIFT)];
+        int offset = ((int) word & SEGMENT_MASK) << 3;
+        long old = segment.getLong(offset);
+        long updated = old | (1L << bitIndex);
+        if (updated == old) {
+            return false;
+        }
+        segment.putLong(offset, updated);
+        return true;
+    }
+
+    private static long upperEight(byte[] bytes) {
+        long result = 0;
+        for (int i = 15; i >= 8; i--) {
+            result = (result << 8) | (bytes[i] & 0xFF);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,293 @@
+package org.example.hash;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.math.LongMath;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 把大文件按chunkSize分块，在ForkJoinPool上并行计算每块的哈希，再合并为MerkleTree。
+ * <p>
+ * 文件按1GB分段内存映射，每块直接在映射的内存上哈希，不经过堆。FastHashing的函数和Guava的murmur3_128等
+ * 都能直接读取直接内存。文件修改后，rehash只重新计算与修改范围相交的块，以及从这些叶子到根的路径。
+ * 其它ByteSource只能顺序读取，读出的块交给线程池并行哈希，结果与同样内容的文件相同。
+ * <pre>
+ * MerkleHasher hasher = MerkleHasher.create(FastHashing.xxHash64(), 4 &lt;&lt; 20);
+ * MerkleTree tree = hasher.hash(path);
+ * //修改了[offset, offset + length)之后
+ * tree = hasher.rehash(path, tree, ImmutableRangeSet.of(Range.closedOpen(offset, offset + length)));
+ * </pre>
+ */
+public final class MerkleHasher {
+    private static final int MAX_SEGMENT_BYTES = 1 << 30;
+    private static final byte INNER_NODE = 1;
+    private static final byte ROOT = 2;
+
+    private final HashFunction hashFunction;
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+    private final int chunksPerSegment;
+
+    private MerkleHasher(HashFunction hashFunction, int chunkSize, ForkJoinPool pool) {
+        this.hashFunction = hashFunction;
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+        this.chunksPerSegment = MAX_SEGMENT_BYTES / chunkSize;
+    }
+
+    /**
+     * 使用ForkJoinPool.commonPool()
+     */
+    public static MerkleHasher create(HashFunction hashFunction, int chunkSize) {
+        return create(hashFunction, chunkSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param chunkSize 每块的字节数，最大1GB。块越小，修改后需要重算的数据越少，树也越大
+     */
+    public static MerkleHasher create(HashFunction hashFunction, int chunkSize, ForkJoinPool pool) {
+        Preconditions.checkNotNull(hashFunction);
+        Preconditions.checkNotNull(pool);
+        Preconditions.checkArgument(chunkSize > 0 && chunkSize <= MAX_SEGMENT_BYTES,
+                "chunkSize must be in (0, %s]: %s", MAX_SEGMENT_BYTES, chunkSize);
+        return new MerkleHasher(hashFunction, chunkSize, pool);
+    }
+
+    public MerkleTree hash(Path file) throws IOException {
+        return hashFile(file, null, TreeRangeSet.<Long>create());
+    }
+
+    /**
+     * 只重新计算与changed相交的块；文件长度变化时，新增的块和原来不完整的最后一块也会重新计算。
+     * changed必须覆盖previous之后的所有修改，否则结果与hash(file)不一致
+     *
+     * @param previous 同一个文件之前的结果，由相同的哈希函数和分块大小生成
+     * @param changed  修改过的字节范围
+     */
+    public MerkleTree rehash(Path file, MerkleTree previous, RangeSet<Long> changed) throws IOException {
+        Preconditions.checkArgument(previous.chunkSize() == chunkSize, "previous tree has chunk size %s, expected %s",
+                previous.chunkSize(), chunkSize);
+        return hashFile(file, previous, changed);
+    }
+
+    /**
+     * 顺序读取source，最多同时有两倍于并行度的块在内存中等待哈希
+     */
+    public MerkleTree hash(ByteSource source) throws IOException {
+        Deque<ForkJoinTask<HashCode>> pending = new ArrayDeque<>();
+        HashCode[] leaves = new HashCode[16];
+        int leafCount = 0;
+        long length = 0;
+        int maxPending = pool.getParallelism() * 2;
+        boolean completed = false;
+        try (InputStream in = source.openStream()) {
+            while (true) {
+                final byte[] chunk = new byte[chunkSize];
+                final int read = ByteStreams.read(in, chunk, 0, chunkSize);
+                if (read == 0) {
+                    break;
+                }
+                length += read;
+                pending.add(pool.submit(new Callable<HashCode>() {
+                    @Override
+                    public HashCode call() {
+                        return hashFunction.hashBytes(chunk, 0, read);
+                    }
+                }));
+                if (pending.size() >= maxPending) {
+                    leaves = append(leaves, leafCount++, pending.remove().join());
+                }
+                if (read < chunkSize) {
+                    break;
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                for (ForkJoinTask<HashCode> task : pending) {
+                    task.cancel(false);
+                }
+            }
+        }
+        while (!pending.isEmpty()) {
+            leaves = append(leaves, leafCount++, pending.remove().join());
+        }
+        return build(Arrays.copyOf(leaves, leafCount), length, null);
+    }
+
+    private static HashCode[] append(HashCode[] leaves, int index, HashCode leaf) {
+        if (index == leaves.length) {
+            leaves = Arrays.copyOf(leaves, leaves.length * 2);
+        }
+        leaves[index] = leaf;
+        return leaves;
+    }
+
+    private MerkleTree hashFile(Path file, @Nullable MerkleTree previous, RangeSet<Long> changed)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            int chunkCount = chunkCount(length);
+            HashCode[] leaves = new HashCode[chunkCount];
+            int[] dirty = new int[chunkCount];
+            int dirtyCount = 0;
+            for (int i = 0; i < chunkCount; i++) {
+                if (previous != null && i < previous.leafCount()
+                        && chunkLength(i, length) == chunkLength(i, previous.length())
+                        && !changed.intersects(Range.closedOpen((long) i * chunkSize, (long) (i + 1) * chunkSize))) {
+                    leaves[i] = previous.leaf(i);
+                } else {
+                    dirty[dirtyCount++] = i;
+                }
+            }
+            //只映射有块需要计算的分段
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) LongMath.divide(chunkCount, chunksPerSegment,
+                    RoundingMode.CEILING)];
+            for (int d = 0; d < dirtyCount; d++) {
+                int segment = dirty[d] / chunksPerSegment;
+                if (segments[segment] == null) {
+                    long start = (long) segment * chunksPerSegment * chunkSize;
+                    segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min((long) chunksPerSegment * chunkSize, length - start));
+                }
+            }
+            if (dirtyCount > 0) {
+                pool.invoke(new LeafTask(segments, length, leaves, dirty, 0, dirtyCount));
+            }
+            return build(leaves, length, previous);
+        }
+    }
+
+    /**
+     * 每个子任务计算一块，块本身足够大，不需要再合并小任务
+     */
+    private final class LeafTask extends RecursiveAction {
+        private final MappedByteBuffer[] segments;
+        private final long length;
+        private final HashCode[] leaves;
+        private final int[] dirty;
+        private final int from;
+        private final int to;
+
+        LeafTask(MappedByteBuffer[] segments, long length, HashCode[] leaves, int[] dirty, int from, int to) {
+            this.segments = segments;
+            this.length = length;
+            this.leaves = leaves;
+            this.dirty = dirty;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                int chunk = dirty[from];
+                ByteBuffer buffer = segments[chunk / chunksPerSegment].duplicate();
+                int offset = (chunk % chunksPerSegment) * chunkSize;
+                buffer.limit(offset + chunkLength(chunk, length));
+                buffer.position(offset);
+                leaves[chunk] = hashFunction.hashBytes(buffer);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new LeafTask(segments, length, leaves, dirty, from, mid),
+                    new LeafTask(segments, length, leaves, dirty, mid, to));
+        }
+    }
+
+    /**
+     * 自底向上合并。previous不为null时，两个子节点与previous中同一位置的子节点是同一对象的父节点直接复用，
+     * 因此只重算修改过的叶子到根的路径
+     */
+    private MerkleTree build(HashCode[] leaves, long length, @Nullable MerkleTree previous) {
+        HashCode[][] previousLevels = previous == null ? new HashCode[0][] : previous.levels();
+        int levelCount = 0;
+        for (int n = leaves.length; n > 0; n = n == 1 ? 0 : (n + 1) / 2) {
+            levelCount++;
+        }
+        HashCode[][] levels = new HashCode[levelCount][];
+        if (levelCount > 0) {
+            levels[0] = leaves;
+        }
+        for (int level = 1; level < levelCount; level++) {
+            HashCode[] children = levels[level - 1];
+            HashCode[] previousChildren = level - 1 < previousLevels.length ? previousLevels[level - 1] : null;
+            HashCode[] previousParents = level < previousLevels.length ? previousLevels[level] : null;
+            HashCode[] parents = new HashCode[(children.length + 1) / 2];
+            for (int i = 0; i < parents.length; i++) {
+                int left = 2 * i;
+                int right = left + 1;
+                if (previousParents != null && i < previousParents.length
+                        && sameChild(children, previousChildren, left) && sameChild(children, previousChildren, right)) {
+                    parents[i] = previousParents[i];
+                } else if (right < children.length) {
+                    parents[i] = hashFunction.newHasher()
+                            .putByte(INNER_NODE)
+                            .putBytes(children[left].asBytes())
+                            .putBytes(children[right].asBytes())
+                            .hash();
+                } else {
+                    parents[i] = children[left];
+                }
+            }
+            levels[level] = parents;
+        }
+        Hasher rootHasher = hashFunction.newHasher().putByte(ROOT).putLong(length);
+        if (levelCount > 0) {
+            rootHasher.putBytes(levels[levelCount - 1][0].asBytes());
+        }
+        return new MerkleTree(chunkSize, length, levels, rootHasher.hash());
+    }
+
+    private static boolean sameChild(HashCode[] children, HashCode[] previousChildren, int index) {
+        boolean exists = index < children.length;
+        boolean existed = index < previousChildren.length;
+        return exists == existed && (!exists || children[index] == previousChildren[index]);
+    }
+
+    private int chunkCount(long length) {
+        long count = LongMath.divide(length, chunkSize, RoundingMode.CEILING);
+        Preconditions.checkArgument(count <= Integer.MAX_VALUE, "too many chunks: %s", count);
+        return (int) count;
+    }
+
+    /**
+     * 第chunk块的字节数，超出length时为0
+     */
+    private int chunkLength(int chunk, long length) {
+        return (int) Math.max(0, Math.min(chunkSize, length - (long) chunk * chunkSize));
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("hashFunction", hashFunction)
+                .add("chunkSize", chunkSize)
+                .add("parallelism", pool.getParallelism())
+                .toString();
+    }
+}
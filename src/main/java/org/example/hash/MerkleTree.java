@@ -0,0 +1,103 @@
+package org.example.hash;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MerkleHasher的结果：叶子是每个定长分块的哈希，相邻两个节点合并为父节点，奇数个时最后一个直接上移。
+ * 根哈希再混入文件长度，因此只有内容和分块大小都相同的文件才有相同的root()。不可变，线程安全。
+ */
+public final class MerkleTree {
+    private final int chunkSize;
+    private final long length;
+    /**
+     * levels[0]为叶子，最后一层只有一个节点；空文件没有层
+     */
+    private final HashCode[][] levels;
+    private final HashCode root;
+
+    MerkleTree(int chunkSize, long length, HashCode[][] levels, HashCode root) {
+        this.chunkSize = chunkSize;
+        this.length = length;
+        this.levels = levels;
+        this.root = root;
+    }
+
+    public HashCode root() {
+        return root;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    public int leafCount() {
+        return levels.length == 0 ? 0 : levels[0].length;
+    }
+
+    /**
+     * 第index个分块，即[index * chunkSize, min((index + 1) * chunkSize, length))的哈希
+     */
+    public HashCode leaf(int index) {
+        Preconditions.checkElementIndex(index, leafCount());
+        return levels[0][index];
+    }
+
+    /**
+     * 与另一个版本相比内容不同的分块序号，多出或缺少的分块也算不同。两者需要用相同的哈希函数和分块大小生成
+     */
+    public List<Integer> changedChunks(MerkleTree other) {
+        Preconditions.checkArgument(chunkSize == other.chunkSize, "chunk sizes differ: %s, %s",
+                chunkSize, other.chunkSize);
+        List<Integer> changed = new ArrayList<>();
+        int common = Math.min(leafCount(), other.leafCount());
+        for (int i = 0; i < common; i++) {
+            if (!levels[0][i].equals(other.levels[0][i])) {
+                changed.add(i);
+            }
+        }
+        for (int i = common; i < Math.max(leafCount(), other.leafCount()); i++) {
+            changed.add(i);
+        }
+        return changed;
+    }
+
+    HashCode[][] levels() {
+        return levels;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MerkleTree)) {
+            return false;
+        }
+        MerkleTree that = (MerkleTree) o;
+        return chunkSize == that.chunkSize && root.equals(that.root);
+    }
+
+    @Override
+    public int hashCode() {
+        return root.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("root", root)
+                .add("length", length)
+                .add("chunkSize", chunkSize)
+                .add("leafCount", leafCount())
+                .toString();
+    }
+}
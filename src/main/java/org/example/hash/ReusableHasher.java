@@ -0,0 +1,287 @@
+package org.example.hash;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.PrimitiveSink;
+import com.google.common.primitives.Longs;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * 可重复使用的murmur3_128哈希，结果与Hashing.murmur3_128()完全相同，热路径上不分配对象。
+ * <p>
+ * 实现PrimitiveSink，现有的Funnel可以直接写入；putString(..., UTF_8)逐字符编码进哈希状态，不生成中间byte[]，
+ * 其它字符集退回String.getBytes。hashToLong返回与HashCode.asLong()相同的低64位，不创建HashCode。
+ * 非线程安全，静态方法hashToLong(object, funnel)使用线程本地的实例。
+ * <pre>
+ * long hash = ReusableHasher.hashToLong(person, personFunnel);
+ * //等价于 Hashing.murmur3_128().hashObject(person, personFunnel).asLong()
+ * </pre>
+ */
+public final class ReusableHasher implements PrimitiveSink {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final int CHUNK_SIZE = 16;
+
+    private static final ThreadLocal<ReusableHasher> LOCAL = new ThreadLocal<ReusableHasher>() {
+        @Override
+        protected ReusableHasher initialValue() {
+            return new ReusableHasher();
+        }
+    };
+
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    private int buffered;
+    private long h1;
+    private long h2;
+    private long length;
+    private long highBits;
+    /**
+     * funnel里嵌套调用hashToLong时不能复用同一个实例
+     */
+    private boolean inUse;
+
+    /**
+     * 用当前线程的实例计算object的哈希，不分配对象
+     */
+    public static <T> long hashToLong(T object, Funnel<? super T> funnel) {
+        ReusableHasher hasher = LOCAL.get();
+        if (hasher.inUse) {
+            hasher = new ReusableHasher();
+        }
+        hasher.inUse = true;
+        try {
+            hasher.reset();
+            funnel.funnel(object, hasher);
+            return hasher.hashToLong();
+        } finally {
+            hasher.inUse = false;
+        }
+    }
+
+    /**
+     * 清空状态，开始计算下一个哈希
+     */
+    public ReusableHasher reset() {
+        buffered = 0;
+        h1 = 0;
+        h2 = 0;
+        length = 0;
+        return this;
+    }
+
+    /**
+     * 结束本次计算，返回128位结果的低64位(HashCode.asLong())；高64位可以随后用highBits()取得。之后需要reset
+     */
+    public long hashToLong() {
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = buffered - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (buffer[i] & 0xFF);
+        }
+        for (int i = Math.min(buffered, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (buffer[i] & 0xFF);
+        }
+        long a = h1 ^ mixK1(k1);
+        long b = h2 ^ mixK2(k2);
+        long total = length + buffered;
+        a ^= total;
+        b ^= total;
+        a += b;
+        b += a;
+        a = fmix64(a);
+        b = fmix64(b);
+        a += b;
+        b += a;
+        highBits = b;
+        return a;
+    }
+
+    /**
+     * 上一次hashToLong结果的高64位
+     */
+    public long highBits() {
+        return highBits;
+    }
+
+    /**
+     * 与Hashing.murmur3_128().hashObject(...)相同的HashCode，会分配对象
+     */
+    public HashCode hash() {
+        long low = hashToLong();
+        return HashCode.fromBytes(ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                .putLong(low).putLong(highBits).array());
+    }
+
+    @Override
+    public ReusableHasher putByte(byte b) {
+        buffer[buffered++] = b;
+        if (buffered == CHUNK_SIZE) {
+            processBuffer();
+        }
+        return this;
+    }
+
+    @Override
+    public ReusableHasher putBytes(byte[] bytes) {
+        return putBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public ReusableHasher putBytes(byte[] bytes, int off, int len) {
+        Preconditions.checkPositionIndexes(off, off + len, bytes.length);
+        int i = off;
+        int end = off + len;
+        //缓冲区为空时直接按16字节一块处理
+        while (buffered == 0 && end - i >= CHUNK_SIZE) {
+            bmix64(littleEndianLong(bytes, i), littleEndianLong(bytes, i + 8));
+            length += CHUNK_SIZE;
+            i += CHUNK_SIZE;
+        }
+        for (; i < end; i++) {
+            putByte(bytes[i]);
+        }
+        return this;
+    }
+
+    @Override
+    public ReusableHasher putBytes(ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            putByte(bytes.get());
+        }
+        return this;
+    }
+
+    @Override
+    public ReusableHasher putShort(short s) {
+        return putLittleEndian(s, 2);
+    }
+
+    @Override
+    public ReusableHasher putInt(int i) {
+        return putLittleEndian(i, 4);
+    }
+
+    @Override
+    public ReusableHasher putLong(long l) {
+        return putLittleEndian(l, 8);
+    }
+
+    @Override
+    public ReusableHasher putFloat(float f) {
+        return putInt(Float.floatToRawIntBits(f));
+    }
+
+    @Override
+    public ReusableHasher putDouble(double d) {
+        return putLong(Double.doubleToRawLongBits(d));
+    }
+
+    @Override
+    public ReusableHasher putBoolean(boolean b) {
+        return putByte(b ? (byte) 1 : (byte) 0);
+    }
+
+    @Override
+    public ReusableHasher putChar(char c) {
+        return putLittleEndian(c, 2);
+    }
+
+    @Override
+    public ReusableHasher putUnencodedChars(CharSequence charSequence) {
+        for (int i = 0, len = charSequence.length(); i < len; i++) {
+            putChar(charSequence.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * UTF-8直接编码，与String.getBytes(UTF_8)的字节相同(不成对的代理字符编码为'?')
+     */
+    @Override
+    public ReusableHasher putString(CharSequence charSequence, Charset charset) {
+        if (!Charsets.UTF_8.equals(charset)) {
+            return putBytes(charSequence.toString().getBytes(charset));
+        }
+        for (int i = 0, len = charSequence.length(); i < len; i++) {
+            char c = charSequence.charAt(i);
+            if (c < 0x80) {
+                putByte((byte) c);
+            } else if (c < 0x800) {
+                putByte((byte) (0xC0 | (c >>> 6)));
+                putByte((byte) (0x80 | (c & 0x3F)));
+            } else if (!Character.isSurrogate(c)) {
+                putByte((byte) (0xE0 | (c >>> 12)));
+                putByte((byte) (0x80 | ((c >>> 6) & 0x3F)));
+                putByte((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                    && Character.isLowSurrogate(charSequence.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, charSequence.charAt(++i));
+                putByte((byte) (0xF0 | (codePoint >>> 18)));
+                putByte((byte) (0x80 | ((codePoint >>> 12) & 0x3F)));
+                putByte((byte) (0x80 | ((codePoint >>> 6) & 0x3F)));
+                putByte((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                putByte((byte) '?');
+            }
+        }
+        return this;
+    }
+
+    private ReusableHasher putLittleEndian(long value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            putByte((byte) (value >>> (i * 8)));
+        }
+        return this;
+    }
+
+    private void processBuffer() {
+        bmix64(littleEndianLong(buffer, 0), littleEndianLong(buffer, 8));
+        length += CHUNK_SIZE;
+        buffered = 0;
+    }
+
+    private void bmix64(long k1, long k2) {
+        h1 ^= mixK1(k1);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        h2 ^= mixK2(k2);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long littleEndianLong(byte[] bytes, int offset) {
+        return Longs.fromBytes(bytes[offset + 7], bytes[offset + 6], bytes[offset + 5], bytes[offset + 4],
+                bytes[offset + 3], bytes[offset + 2], bytes[offset + 1], bytes[offset]);
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+}
@@ -0,0 +1,212 @@
+package org.example.hash;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.PrimitiveSink;
+
+/**
+ * 容量自动增长的BloomFilter(Scalable Bloom Filter)。
+ * <p>
+ * 由一串Guava BloomFilter组成，当前子过滤器装满后追加一个容量乘以growthFactor、误判率乘以tighteningRatio的新子过滤器。
+ * 第i个子过滤器的误判率为fpp×(1-r)×r^i，总误判率不超过fpp，与最终元素个数无关，不需要预先知道expectedInsertions。
+ * 元素只经过funnel哈希一次，各子过滤器使用这个64位哈希值，避免每个子过滤器各自重新哈希整个对象。
+ * mightContain不加锁，put加锁。
+ * <pre>
+ * ScalableBloomFilter&lt;Person&gt; friends = ScalableBloomFilter.create(personFunnel, 500, 0.01);
+ * </pre>
+ */
+public final class ScalableBloomFilter<T> implements Predicate<T> {
+    private static final int DEFAULT_GROWTH_FACTOR = 2;
+    private static final double DEFAULT_TIGHTENING_RATIO = 0.5;
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final Funnel<HashCode> HASH_CODE_FUNNEL = new Funnel<HashCode>() {
+        @Override
+        public void funnel(HashCode hashCode, PrimitiveSink into) {
+            into.putLong(hashCode.asLong());
+        }
+    };
+
+    private final Funnel<? super T> funnel;
+    private final double fpp;
+    private final int growthFactor;
+    private final double tighteningRatio;
+
+    /**
+     * 只追加不修改，写时复制
+     */
+    private volatile Stage[] stages;
+    private long count;
+
+    private ScalableBloomFilter(Funnel<? super T> funnel, long initialCapacity, double fpp, int growthFactor,
+                                double tighteningRatio) {
+        this.funnel = funnel;
+        this.fpp = fpp;
+        this.growthFactor = growthFactor;
+        this.tighteningRatio = tighteningRatio;
+        this.stages = new Stage[]{new Stage(initialCapacity, fpp * (1 - tighteningRatio))};
+    }
+
+    /**
+     * @param initialCapacity 第一个子过滤器的容量，估计偏小也没关系
+     * @param fpp             总误判率上限
+     */
+    public static <T> ScalableBloomFilter<T> create(Funnel<? super T> funnel, long initialCapacity, double fpp) {
+        return create(funnel, initialCapacity, fpp, DEFAULT_GROWTH_FACTOR, DEFAULT_TIGHTENING_RATIO);
+    }
+
+    /**
+     * @param growthFactor    相邻子过滤器的容量倍数
+     * @param tighteningRatio 相邻子过滤器的误判率比例，越小每个元素占用的位越多，但总误判率收敛越快
+     */
+    public static <T> ScalableBloomFilter<T> create(Funnel<? super T> funnel, long initialCapacity, double fpp,
+                                                    int growthFactor, double tighteningRatio) {
+        Preconditions.checkNotNull(funnel);
+        Preconditions.checkArgument(initialCapacity > 0, "initialCapacity must be positive");
+        Preconditions.checkArgument(fpp > 0 && fpp < 1, "fpp must be in (0, 1): %s", fpp);
+        Preconditions.checkArgument(growthFactor >= 1, "growthFactor must be at least 1");
+        Preconditions.checkArgument(tighteningRatio > 0 && tighteningRatio < 1,
+                "tighteningRatio must be in (0, 1): %s", tighteningRatio);
+        return new ScalableBloomFilter<>(funnel, initialCapacity, fpp, growthFactor, tighteningRatio);
+    }
+
+    public boolean mightContain(T object) {
+        return mightContain(stages, hash(object));
+    }
+
+    private static boolean mightContain(Stage[] current, HashCode hash) {
+        //新元素都在最后的子过滤器中，从后往前查
+        for (int i = current.length - 1; i >= 0; i--) {
+            if (current[i].filter.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 元素之前可能已经存在时返回false，与BloomFilter.put一致
+     */
+    public boolean put(T object) {
+        HashCode hash = hash(object);
+        synchronized (this) {
+            return put(hash);
+        }
+    }
+
+    private boolean put(HashCode hash) {
+        Stage[] current = stages;
+        if (mightContain(current, hash)) {
+            return false;
+        }
+        Stage last = current[current.length - 1];
+        if (last.count >= last.capacity) {
+            last = new Stage(saturatedMultiply(last.capacity, growthFactor), last.fpp * tighteningRatio);
+            Stage[] grown = new Stage[current.length + 1];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            grown[current.length] = last;
+            stages = grown;
+        }
+        last.filter.put(hash);
+        last.count++;
+        count++;
+        return true;
+    }
+
+    /**
+     * @deprecated 为实现Predicate提供，使用mightContain
+     */
+    @Deprecated
+    @Override
+    public boolean apply(T input) {
+        return mightContain(input);
+    }
+
+    /**
+     * 按各子过滤器当前填充程度估算的总误判率
+     */
+    public double expectedFpp() {
+        double allNegative = 1;
+        for (Stage stage : stages) {
+            allNegative *= 1 - stage.filter.expectedFpp();
+        }
+        return 1 - allNegative;
+    }
+
+    /**
+     * 配置的总误判率上限
+     */
+    public double fpp() {
+        return fpp;
+    }
+
+    /**
+     * 插入的不同元素个数(被误判为已存在的元素不计入)
+     */
+    public synchronized long count() {
+        return count;
+    }
+
+    public int stageCount() {
+        return stages.length;
+    }
+
+    /**
+     * 各子过滤器位数组大小之和(bit)，按Guava的容量公式计算
+     */
+    public long bitSize() {
+        long bits = 0;
+        for (Stage stage : stages) {
+            bits += optimalNumOfBits(stage.capacity, stage.fpp);
+        }
+        return bits;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("count", count())
+                .add("stages", stageCount())
+                .add("bitSize", bitSize())
+                .add("expectedFpp", String.format("%.5f", expectedFpp()))
+                .toString();
+    }
+
+    /**
+     * 与BloomFilter.create相同的位数计算，向上取整到64位
+     */
+    public static long optimalNumOfBits(long expectedInsertions, double fpp) {
+        long bits = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        return (bits + 63) / 64 * 64;
+    }
+
+    private HashCode hash(T object) {
+        return HASH.hashObject(object, funnel);
+    }
+
+    private static long saturatedMultiply(long a, int b) {
+        long result = a * b;
+        return result / b == a ? result : Long.MAX_VALUE;
+    }
+
+    private static final class Stage {
+        final BloomFilter<HashCode> filter;
+        final long capacity;
+        final double fpp;
+        /**
+         * 只在put的锁内修改
+         */
+        long count;
+
+        Stage(long capacity, double fpp) {
+            this.filter = BloomFilter.create(HASH_CODE_FUNNEL, capacity, fpp);
+            this.capacity = capacity;
+            this.fpp = fpp;
+        }
+    }
+}
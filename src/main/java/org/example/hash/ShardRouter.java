@@ -0,0 +1,364 @@
+package org.example.hash;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 把键路由到节点(分片)，节点增减时只有少量键换节点，而取模会让几乎所有键都换节点。键通过Funnel哈希，有三种实现：
+ * <ul>
+ * <li>jump：Jump Consistent Hash，不占内存，O(log n)；节点只能在末尾增减，删除中间的节点会让其后的键都移动。
+ * 权重为w的节点占w个桶</li>
+ * <li>rendezvous：每个节点对键打分，取最高分(加权时为-w/ln(u))，任意增删节点都只移动最少的键，O(n)</li>
+ * <li>ring：每个节点按权重在环上放若干虚拟节点，键归属顺时针的下一个虚拟节点，O(log(n*虚拟节点数))</li>
+ * </ul>
+ * 路由器不可变，withNode/withoutNode返回新的路由器，用movement比较两者在一组键上的差异。
+ * <pre>
+ * ShardRouter&lt;Person, String&gt; router = ShardRouter.&lt;Person, String&gt;rendezvous(personFunnel,
+ *         Funnels.unencodedCharsFunnel())
+ *         .withNode("db1", 1)
+ *         .withNode("db2", 2);
+ * String shard = router.route(dude);
+ * </pre>
+ */
+public abstract class ShardRouter<K, N> {
+    private static final HashFunction HASH_FUNCTION = FastHashing.xxHash64();
+
+    final Funnel<? super K> keyFunnel;
+    final ImmutableMap<N, Integer> weights;
+
+    ShardRouter(Funnel<? super K> keyFunnel, ImmutableMap<N, Integer> weights) {
+        this.keyFunnel = keyFunnel;
+        this.weights = weights;
+    }
+
+    public static <K, N> ShardRouter<K, N> jump(Funnel<? super K> keyFunnel) {
+        return new JumpRouter<>(Preconditions.checkNotNull(keyFunnel), ImmutableMap.<N, Integer>of());
+    }
+
+    public static <K, N> ShardRouter<K, N> rendezvous(Funnel<? super K> keyFunnel, Funnel<? super N> nodeFunnel) {
+        return new RendezvousRouter<>(Preconditions.checkNotNull(keyFunnel), Preconditions.checkNotNull(nodeFunnel),
+                ImmutableMap.<N, Integer>of());
+    }
+
+    /**
+     * @param virtualNodesPerWeight 权重为1的节点在环上的点数，越多负载越均匀，一般取100到200
+     */
+    public static <K, N> ShardRouter<K, N> ring(Funnel<? super K> keyFunnel, Funnel<? super N> nodeFunnel,
+                                                int virtualNodesPerWeight) {
+        Preconditions.checkArgument(virtualNodesPerWeight > 0, "virtualNodesPerWeight must be positive");
+        return new RingRouter<>(Preconditions.checkNotNull(keyFunnel), Preconditions.checkNotNull(nodeFunnel),
+                virtualNodesPerWeight, ImmutableMap.<N, Integer>of());
+    }
+
+    /**
+     * @throws IllegalStateException 没有节点时
+     */
+    public N route(K key) {
+        Preconditions.checkState(!weights.isEmpty(), "no nodes");
+        return route(HASH_FUNCTION.hashObject(key, keyFunnel).asLong());
+    }
+
+    abstract N route(long keyHash);
+
+    /**
+     * 加入节点，已存在时修改它的权重
+     */
+    public ShardRouter<K, N> withNode(N node, int weight) {
+        Preconditions.checkNotNull(node);
+        Preconditions.checkArgument(weight > 0, "weight must be positive: %s", weight);
+        Map<N, Integer> copy = new LinkedHashMap<>(weights);
+        copy.put(node, weight);
+        return withWeights(ImmutableMap.copyOf(copy));
+    }
+
+    /**
+     * 一次加入多个节点，只重建一次
+     */
+    public ShardRouter<K, N> withNodes(Map<? extends N, Integer> nodeWeights) {
+        Map<N, Integer> copy = new LinkedHashMap<>(weights);
+        for (Map.Entry<? extends N, Integer> entry : nodeWeights.entrySet()) {
+            Preconditions.checkNotNull(entry.getKey());
+            Preconditions.checkArgument(entry.getValue() > 0, "weight must be positive: %s", entry);
+            copy.put(entry.getKey(), entry.getValue());
+        }
+        return withWeights(ImmutableMap.copyOf(copy));
+    }
+
+    public ShardRouter<K, N> withoutNode(N node) {
+        Preconditions.checkArgument(weights.containsKey(node), "unknown node: %s", node);
+        Map<N, Integer> copy = new LinkedHashMap<>(weights);
+        copy.remove(node);
+        return withWeights(ImmutableMap.copyOf(copy));
+    }
+
+    abstract ShardRouter<K, N> withWeights(ImmutableMap<N, Integer> weights);
+
+    /**
+     * 按加入顺序
+     */
+    public ImmutableList<N> nodes() {
+        return weights.keySet().asList();
+    }
+
+    /**
+     * @return 节点不存在时为0
+     */
+    public int weight(N node) {
+        Integer weight = weights.get(node);
+        return weight == null ? 0 : weight;
+    }
+
+    /**
+     * 节点应分到的键的比例
+     */
+    public double share(N node) {
+        long total = 0;
+        for (int weight : weights.values()) {
+            total += weight;
+        }
+        return total == 0 ? 0 : (double) weight(node) / total;
+    }
+
+    /**
+     * 从before换到after时keys中换了节点的键的数量
+     */
+    public static <K, N> Movement movement(ShardRouter<K, N> before, ShardRouter<K, N> after,
+                                           Iterable<? extends K> keys) {
+        long total = 0;
+        long moved = 0;
+        for (K key : keys) {
+            total++;
+            if (!before.route(key).equals(after.route(key))) {
+                moved++;
+            }
+        }
+        double minimal = 0;
+        for (N node : before.nodes()) {
+            minimal += Math.max(0, before.share(node) - after.share(node));
+        }
+        return new Movement(total, moved, minimal);
+    }
+
+    /**
+     * 一次成员变化移动的键。minimalFraction是按权重变化必须移动的比例：每个节点分到的比例减少的部分之和
+     */
+    public static final class Movement {
+        private final long keys;
+        private final long moved;
+        private final double minimalFraction;
+
+        Movement(long keys, long moved, double minimalFraction) {
+            this.keys = keys;
+            this.moved = moved;
+            this.minimalFraction = minimalFraction;
+        }
+
+        public long keys() {
+            return keys;
+        }
+
+        public long moved() {
+            return moved;
+        }
+
+        public double movedFraction() {
+            return keys == 0 ? 0 : (double) moved / keys;
+        }
+
+        public double minimalFraction() {
+            return minimalFraction;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("keys", keys)
+                    .add("moved", moved)
+                    .add("movedFraction", String.format("%.4f", movedFraction()))
+                    .add("minimalFraction", String.format("%.4f", minimalFraction))
+                    .toString();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("nodes", weights)
+                .toString();
+    }
+
+    /**
+     * MurmurHash3的fmix64
+     */
+    static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static final class JumpRouter<K, N> extends ShardRouter<K, N> {
+        /**
+         * 每个节点按权重占连续的桶，按节点加入顺序排列
+         */
+        private final Object[] buckets;
+
+        JumpRouter(Funnel<? super K> keyFunnel, ImmutableMap<N, Integer> weights) {
+            super(keyFunnel, weights);
+            int total = 0;
+            for (int weight : weights.values()) {
+                total = Math.addExact(total, weight);
+            }
+            buckets = new Object[total];
+            int i = 0;
+            for (Map.Entry<N, Integer> entry : weights.entrySet()) {
+                Arrays.fill(buckets, i, i + entry.getValue(), entry.getKey());
+                i += entry.getValue();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        N route(long keyHash) {
+            return (N) buckets[Hashing.consistentHash(keyHash, buckets.length)];
+        }
+
+        @Override
+        ShardRouter<K, N> withWeights(ImmutableMap<N, Integer> weights) {
+            return new JumpRouter<>(keyFunnel, weights);
+        }
+    }
+
+    private static final class RendezvousRouter<K, N> extends ShardRouter<K, N> {
+        private final Funnel<? super N> nodeFunnel;
+        private final Object[] nodes;
+        private final long[] nodeHashes;
+        private final double[] weights;
+        private final boolean uniform;
+
+        RendezvousRouter(Funnel<? super K> keyFunnel, Funnel<? super N> nodeFunnel,
+                         ImmutableMap<N, Integer> weights) {
+            super(keyFunnel, weights);
+            this.nodeFunnel = nodeFunnel;
+            this.nodes = weights.keySet().toArray();
+            this.nodeHashes = new long[nodes.length];
+            this.weights = new double[nodes.length];
+            int i = 0;
+            for (Map.Entry<N, Integer> entry : weights.entrySet()) {
+                nodeHashes[i] = HASH_FUNCTION.hashObject(entry.getKey(), nodeFunnel).asLong();
+                this.weights[i] = entry.getValue();
+                i++;
+            }
+            this.uniform = ImmutableSet.copyOf(weights.values()).size() <= 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        N route(long keyHash) {
+            int best = 0;
+            if (uniform) {
+                //权重相同时-w/ln(u)随u单调，只需比较u的53位，省去对数，选出的节点与加权分支相同
+                long bestScore = -1;
+                for (int i = 0; i < nodes.length; i++) {
+                    long score = mix(keyHash ^ nodeHashes[i]) >>> 11;
+                    if (score > bestScore) {
+                        bestScore = score;
+                        best = i;
+                    }
+                }
+            } else {
+                double bestScore = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < nodes.length; i++) {
+                    //u均匀分布于(0, 1)，-w/ln(u)最大的节点被选中的概率正比于w
+                    double u = ((mix(keyHash ^ nodeHashes[i]) >>> 11) + 0.5) * 0x1.0p-53;
+                    double score = -weights[i] / Math.log(u);
+                    if (score > bestScore) {
+                        bestScore = score;
+                        best = i;
+                    }
+                }
+            }
+            return (N) nodes[best];
+        }
+
+        @Override
+        ShardRouter<K, N> withWeights(ImmutableMap<N, Integer> weights) {
+            return new RendezvousRouter<>(keyFunnel, nodeFunnel, weights);
+        }
+    }
+
+    private static final class RingRouter<K, N> extends ShardRouter<K, N> {
+        private final Funnel<? super N> nodeFunnel;
+        private final int virtualNodesPerWeight;
+        /**
+         * 环上的点，升序
+         */
+        private final long[] points;
+        private final Object[] owners;
+
+        RingRouter(Funnel<? super K> keyFunnel, Funnel<? super N> nodeFunnel, int virtualNodesPerWeight,
+                   ImmutableMap<N, Integer> weights) {
+            super(keyFunnel, weights);
+            this.nodeFunnel = nodeFunnel;
+            this.virtualNodesPerWeight = virtualNodesPerWeight;
+            long total = 0;
+            for (int weight : weights.values()) {
+                total += (long) weight * virtualNodesPerWeight;
+            }
+            int count = Math.toIntExact(total);
+            long[] keys = new long[count];
+            Object[] nodes = new Object[count];
+            int i = 0;
+            for (Map.Entry<N, Integer> entry : weights.entrySet()) {
+                long nodeHash = HASH_FUNCTION.hashObject(entry.getKey(), nodeFunnel).asLong();
+                for (int v = 0; v < entry.getValue() * virtualNodesPerWeight; v++) {
+                    keys[i] = mix(nodeHash + v * 0x9E3779B97F4A7C15L);
+                    nodes[i] = entry.getKey();
+                    i++;
+                }
+            }
+            //按点排序，owners跟着一起排
+            Integer[] order = new Integer[count];
+            for (int j = 0; j < count; j++) {
+                order[j] = j;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+            this.points = new long[count];
+            this.owners = new Object[count];
+            for (int j = 0; j < count; j++) {
+                points[j] = keys[order[j]];
+                owners[j] = nodes[order[j]];
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        N route(long keyHash) {
+            int index = Arrays.binarySearch(points, keyHash);
+            if (index < 0) {
+                index = -index - 1;
+                if (index == points.length) {
+                    index = 0;
+                }
+            }
+            return (N) owners[index];
+        }
+
+        @Override
+        ShardRouter<K, N> withWeights(ImmutableMap<N, Integer> weights) {
+            return new RingRouter<>(keyFunnel, nodeFunnel, virtualNodesPerWeight, weights);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.hash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * wyhash(final3版本，默认secret)，与参考实现wyhash(key, len, seed, _wyp)的结果相同。
+ * 核心是64x64→128位乘法再把高低两半异或；Java 8没有Math.multiplyHigh，这里用32位拆分计算高64位。
+ */
+final class WyHash extends AbstractLongHashFunction {
+    private static final long S0 = 0xa0761d6478bd642fL;
+    private static final long S1 = 0xe7037ed1a0b428dbL;
+    private static final long S2 = 0x8ebc6af09c88c6e3L;
+    private static final long S3 = 0x589965cc75374cc3L;
+
+    private final long seed;
+
+    WyHash(long seed) {
+        this.seed = seed;
+    }
+
+    @Override
+    long hash(ByteBuffer input, int offset, int length) {
+        long seed = this.seed ^ S0;
+        long a;
+        long b;
+        if (length <= 16) {
+            if (length >= 4) {
+                int last = offset + length - 4;
+                int shift = (length >>> 3) << 2;
+                a = (read4(input, offset) << 32) | read4(input, offset + shift);
+                b = (read4(input, last) << 32) | read4(input, last - shift);
+            } else if (length > 0) {
+                a = ((input.get(offset) & 0xFFL) << 16) | ((input.get(offset + (length >>> 1)) & 0xFFL) << 8)
+                        | (input.get(offset + length - 1) & 0xFFL);
+                b = 0;
+            } else {
+                a = 0;
+                b = 0;
+            }
+        } else {
+            int p = offset;
+            int i = length;
+            if (i > 48) {
+                long see1 = seed;
+                long see2 = seed;
+                do {
+                    seed = mix(input.getLong(p) ^ S1, input.getLong(p + 8) ^ seed);
+                    see1 = mix(input.getLong(p + 16) ^ S2, input.getLong(p + 24) ^ see1);
+                    see2 = mix(input.getLong(p + 32) ^ S3, input.getLong(p + 40) ^ see2);
+                    p += 48;
+                    i -= 48;
+                } while (i > 48);
+                seed ^= see1 ^ see2;
+            }
+            while (i > 16) {
+                seed = mix(input.getLong(p) ^ S1, input.getLong(p + 8) ^ seed);
+                p += 16;
+                i -= 16;
+            }
+            a = input.getLong(p + i - 16);
+            b = input.getLong(p + i - 8);
+        }
+        return mix(S1 ^ length, mix(a ^ S1, b ^ seed));
+    }
+
+    private static long read4(ByteBuffer input, int index) {
+        return input.getInt(index) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * 128位乘积的高低两半异或
+     */
+    private static long mix(long a, long b) {
+        return (a * b) ^ unsignedMultiplyHigh(a, b);
+    }
+
+    static long unsignedMultiplyHigh(long x, long y) {
+        long x1 = x >>> 32;
+        long x0 = x & 0xFFFFFFFFL;
+        long y1 = y >>> 32;
+        long y0 = y & 0xFFFFFFFFL;
+        long low = x0 * y0;
+        long middle = x1 * y0 + (low >>> 32);
+        long middle2 = x0 * y1 + (middle & 0xFFFFFFFFL);
+        return x1 * y1 + (middle >>> 32) + (middle2 >>> 32);
+    }
+
+    @Override
+    public String toString() {
+        return "FastHashing.wyhash(" + seed + ")";
+    }
+}
@@ -0,0 +1,84 @@
+package org.example.hash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * xxHash64，与参考实现XXH64(input, length, seed)的结果相同。HashCode.asLong()即为XXH64的返回值
+ */
+final class XxHash64 extends AbstractLongHashFunction {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private final long seed;
+
+    XxHash64(long seed) {
+        this.seed = seed;
+    }
+
+    @Override
+    long hash(ByteBuffer input, int offset, int length) {
+        int p = offset;
+        int end = offset + length;
+        long h;
+        if (length >= 32) {
+            long v1 = seed + P1 + P2;
+            long v2 = seed + P2;
+            long v3 = seed;
+            long v4 = seed - P1;
+            int limit = end - 32;
+            do {
+                v1 = round(v1, input.getLong(p));
+                v2 = round(v2, input.getLong(p + 8));
+                v3 = round(v3, input.getLong(p + 16));
+                v4 = round(v4, input.getLong(p + 24));
+                p += 32;
+            } while (p <= limit);
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = seed + P5;
+        }
+        h += length;
+        for (; p + 8 <= end; p += 8) {
+            h ^= round(0, input.getLong(p));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (p + 4 <= end) {
+            h ^= (input.getInt(p) & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            p += 4;
+        }
+        for (; p < end; p++) {
+            h ^= (input.get(p) & 0xFFL) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * P1 + P4;
+    }
+
+    @Override
+    public String toString() {
+        return "FastHashing.xxHash64(" + seed + ")";
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.metrics;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 线程安全的Count-Min Sketch，depth行、每行width个long计数器，估计值只会偏大不会偏小。
+ * <p>
+ * 误差：以1 - (1/2)^depth的概率，估计值 - 真实值 &lt;= 总次数 * 2 / width。
+ */
+public final class CountMinSketch {
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L,
+            0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x2545F4914F6CDD1DL, 0x9FB21C651E98DF25L};
+
+    private final AtomicLongArray counters;
+    private final int depth;
+    private final int widthMask;
+    private final int widthBits;
+
+    /**
+     * @param width 每行计数器个数，向上取整为2的幂
+     * @param depth 行数，1到8
+     */
+    public CountMinSketch(int width, int depth) {
+        Preconditions.checkArgument(width > 0 && width <= 1 << 24, "width out of range: %s", width);
+        Preconditions.checkArgument(depth > 0 && depth <= SEEDS.length, "depth out of range: %s", depth);
+        int w = Integer.highestOneBit(Math.max(width, 2) - 1) << 1;
+        this.depth = depth;
+        this.widthMask = w - 1;
+        this.widthBits = Integer.numberOfTrailingZeros(w);
+        this.counters = new AtomicLongArray(w * depth);
+    }
+
+    /**
+     * 计数加一并返回加完后的估计值
+     */
+    public long add(Object item) {
+        long hash = spread(item.hashCode());
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(index(hash, i)));
+        }
+        return estimate;
+    }
+
+    public long estimate(Object item) {
+        long hash = spread(item.hashCode());
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            estimate = Math.min(estimate, counters.get(index(hash, i)));
+        }
+        return estimate;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    private int index(long hash, int row) {
+        long h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % SEEDS.length];
+        return (row << widthBits) | (int) (h >>> 40) & widthMask;
+    }
+
+    private static long spread(int hashCode) {
+        long h = hashCode * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+}
@@ -0,0 +1,81 @@
+package org.example.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Ordering;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于CountMinSketch的Top-K热点统计。
+ * <p>
+ * 每次add更新sketch得到估计值，只有估计值超过当前第K名的门槛时才进入候选集合，
+ * 绝大多数调用只做sketch自增和一次volatile读，不加锁。
+ */
+public final class HeavyHitters {
+    private final CountMinSketch sketch;
+    private final int k;
+    private final ConcurrentHashMap<Object, Long> candidates = new ConcurrentHashMap<>();
+    private volatile long threshold;
+
+    public HeavyHitters(int k, int sketchWidth) {
+        Preconditions.checkArgument(k > 0, "k must be positive");
+        this.k = k;
+        this.sketch = new CountMinSketch(sketchWidth, 4);
+    }
+
+    public void add(Object item) {
+        long estimate = sketch.add(item);
+        if (estimate <= threshold) {
+            return;
+        }
+        if (candidates.computeIfPresent(item, (key, old) -> Math.max(old, estimate)) != null) {
+            return;
+        }
+        synchronized (this) {
+            candidates.merge(item, estimate, Math::max);
+            if (candidates.size() > k) {
+                Map.Entry<Object, Long> min = null;
+                for (Map.Entry<Object, Long> entry : candidates.entrySet()) {
+                    if (min == null || entry.getValue() < min.getValue()) {
+                        min = entry;
+                    }
+                }
+                candidates.remove(min.getKey(), min.getValue());
+            }
+            if (candidates.size() >= k) {
+                long newThreshold = Long.MAX_VALUE;
+                for (long value : candidates.values()) {
+                    newThreshold = Math.min(newThreshold, value);
+                }
+                threshold = newThreshold;
+            }
+        }
+    }
+
+    public long estimate(Object item) {
+        return sketch.estimate(item);
+    }
+
+    /**
+     * 按估计次数从高到低排列的Top-K
+     */
+    public ImmutableMap<Object, Long> top() {
+        List<Map.Entry<Object, Long>> entries = new ArrayList<>(candidates.entrySet());
+        entries.sort(Ordering.natural().<Long>reverse().onResultOf(Map.Entry::getValue));
+        ImmutableMap.Builder<Object, Long> result = ImmutableMap.builder();
+        for (Map.Entry<Object, Long> entry : entries) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result.build();
+    }
+
+    public synchronized void reset() {
+        sketch.reset();
+        candidates.clear();
+        threshold = 0;
+    }
+}
@@ -0,0 +1,169 @@
+package org.example.metrics;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的对数-线性分桶直方图，思路与HdrHistogram相同：每个2的幂区间再等分为64个子桶，相对误差不超过1/64。
+ * <p>
+ * record只做一次CAS自增，适合在热路径上记录耗时(纳秒)、批大小等非负数值。
+ */
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 2) * SUB_BUCKET_HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private Snapshot lastInterval = new Snapshot(new long[BUCKET_COUNT]);
+
+    public void record(long value) {
+        Preconditions.checkArgument(value >= 0, "value must be non-negative: %s", value);
+        counts.incrementAndGet(indexOf(value));
+    }
+
+    /**
+     * 当前累计值的拷贝，拷贝过程中并发的record可能只有部分被计入
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    /**
+     * 距上一次调用intervalSnapshot以来新增的记录，不会清空累计值，适合定期抓取
+     */
+    public synchronized Snapshot intervalSnapshot() {
+        Snapshot current = snapshot();
+        Snapshot interval = current.minus(lastInterval);
+        lastInterval = current;
+        return interval;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return (shift + 1) * SUB_BUCKET_HALF + (int) (value >>> shift) - SUB_BUCKET_HALF;
+    }
+
+    /**
+     * 桶内的最大值，报告百分位时使用
+     */
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        long sub = index % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        return (long) (index % SUB_BUCKET_HALF + SUB_BUCKET_HALF) << shift;
+    }
+
+    /**
+     * 直方图某一时刻的不可变拷贝
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.totalCount = total;
+        }
+
+        public long count() {
+            return totalCount;
+        }
+
+        /**
+         * 两次快照之间的差值，other必须是同一个直方图更早的快照
+         */
+        public Snapshot minus(Snapshot other) {
+            long[] delta = new long[counts.length];
+            for (int i = 0; i < delta.length; i++) {
+                delta[i] = Math.max(0, counts[i] - other.counts[i]);
+            }
+            return new Snapshot(delta);
+        }
+
+        /**
+         * @param percentile 0到100之间，例如99.9
+         */
+        public long percentile(double percentile) {
+            Preconditions.checkArgument(percentile >= 0 && percentile <= 100, "percentile out of range: %s", percentile);
+            if (totalCount == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return highestValueAt(i);
+                }
+            }
+            return max();
+        }
+
+        public long max() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return highestValueAt(i);
+                }
+            }
+            return 0;
+        }
+
+        public long min() {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    return lowestValueAt(i);
+                }
+            }
+            return 0;
+        }
+
+        public double mean() {
+            if (totalCount == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    sum += (double) counts[i] * (lowestValueAt(i) + highestValueAt(i)) / 2;
+                }
+            }
+            return sum / totalCount;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("count", totalCount)
+                    .add("mean", String.format("%.1f", mean()))
+                    .add("p50", percentile(50))
+                    .add("p99", percentile(99))
+                    .add("p999", percentile(99.9))
+                    .add("max", max())
+                    .toString();
+        }
+    }
+}